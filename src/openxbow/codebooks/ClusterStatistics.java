@@ -0,0 +1,164 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+public class ClusterStatistics {
+    /* Sufficient statistics of a range of clusters (counts, weights, (weighted) sums and squared sums of the features),            */
+    /* accumulated in one pass over the training data. Statistics of the same clusters can be merged, e.g., from parts of the data. */
+    /* The sums are accumulated in double precision and relative to a reference point of each cluster (e.g., the centroid of the  */
+    /* previous iteration), so that the variances can be computed from the squared sums without cancellation.                    */
+    
+    private int        firstCluster;
+    private int[]      counts  = null;
+    private double[]   weights = null;
+    private double[][] sums    = null;
+    private double[][] sumsSq  = null;  /* Only if squared sums are required */
+    private float[][]  shifts  = null;  /* Reference points of all clusters (index: cluster), null: origin */
+    
+    
+    public ClusterStatistics(int firstCluster, int numClusters, int numFeatures, boolean bSquares) {
+        this.firstCluster = firstCluster;
+        this.counts       = new int[numClusters];
+        this.weights      = new double[numClusters];
+        this.sums         = new double[numClusters][numFeatures];
+        if (bSquares) {
+            this.sumsSq   = new double[numClusters][numFeatures];
+        }
+    }
+    
+    
+    public void setShifts(float[][] shifts) {
+        /* Must be set before accumulating */
+        this.shifts = shifts;
+    }
+    
+    
+    public void reset() {
+        /* Removes all accumulated statistics (the reference points are kept) */
+        Arrays.fill(counts, 0);
+        Arrays.fill(weights, 0.0);
+        for (int k=0; k < counts.length; k++) {
+            Arrays.fill(sums[k], 0.0);
+            if (sumsSq!=null) {
+                Arrays.fill(sumsSq[k], 0.0);
+            }
+        }
+    }
+    
+    
+    public void accumulate(List<float[]> data, int[] clusters, float[] clusterWeights) {
+        /* Adds all frames assigned to one of the clusters, in the order of the data; clusterWeights==null: all weights are 1 */
+        int lastCluster = firstCluster + counts.length;
+        for (int i=0; i < data.size(); i++) {
+            int k = clusters[i];
+            if (k >= firstCluster && k < lastCluster) {
+                add(k, data.get(i), clusterWeights!=null ? clusterWeights[i] : 1.0f);
+            }
+        }
+    }
+    
+    
+    public void add(int cluster, float[] features, float weight) {
+        int      k     = cluster - firstCluster;
+        double[] sum   = sums[k];
+        
+        counts[k]++;
+        weights[k] += weight;
+        if (shifts==null && sumsSq==null) {
+            for (int m=0; m < features.length; m++) {
+                sum[m] += weight * features[m];
+            }
+        } else {
+            float[]  shift = shifts!=null ? shifts[cluster] : null;
+            double[] sumSq = sumsSq!=null ? sumsSq[k] : null;
+            for (int m=0; m < features.length; m++) {
+                double diff  = shift!=null ? (double) features[m] - shift[m] : features[m];
+                double value = weight * diff;
+                sum[m] += value;
+                if (sumSq!=null) {
+                    sumSq[m] += value * diff;
+                }
+            }
+        }
+    }
+    
+    
+    public void merge(ClusterStatistics other) {
+        /* other must cover the same clusters */
+        for (int k=0; k < counts.length; k++) {
+            counts[k]  += other.counts[k];
+            weights[k] += other.weights[k];
+            for (int m=0; m < sums[k].length; m++) {
+                sums[k][m] += other.sums[k][m];
+                if (sumsSq!=null) {
+                    sumsSq[k][m] += other.sumsSq[k][m];
+                }
+            }
+        }
+    }
+    
+    
+    public int getFirstCluster() {
+        return firstCluster;
+    }
+    
+    public int getNumClusters() {
+        return counts.length;
+    }
+    
+    public int getCount(int cluster) {
+        return counts[cluster - firstCluster];
+    }
+    
+    public double getWeight(int cluster) {
+        return weights[cluster - firstCluster];
+    }
+    
+    
+    public void getMean(int cluster, float[] mean) {
+        /* Weighted mean of the cluster (must not be empty) */
+        int k = cluster - firstCluster;
+        for (int m=0; m < mean.length; m++) {
+            mean[m] = (float) (sums[k][m] / weights[k] + getShift(cluster, m));
+        }
+    }
+    
+    
+    public void getVariance(int cluster, float[] variance, float minVariance) {
+        /* Weighted (diagonal) variance of the cluster around its weighted mean, at least minVariance */
+        int k = cluster - firstCluster;
+        for (int m=0; m < variance.length; m++) {
+            double mean  = sums[k][m] / weights[k];  /* Relative to the shift */
+            double value = sumsSq[k][m] / weights[k] - mean * mean;
+            variance[m]  = (float) Math.max(value, minVariance);
+        }
+    }
+    
+    
+    private double getShift(int cluster, int m) {
+        return shifts!=null ? shifts[cluster][m] : 0.0;
+    }
+}
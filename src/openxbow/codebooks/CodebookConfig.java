@@ -23,7 +23,7 @@ package openxbow.codebooks;
 
 public class CodebookConfig {
     protected enum cbtype {text,numeric};
-    protected enum cbgenmethod {random,randompp,kmeans,kmeanspp,kmeansnorm,kmeansppnorm,em,empp,emkm,emkmpp,generic,pdf};
+    protected enum cbgenmethod {random,randompp,kmeans,kmeanspp,kmeansnorm,kmeansppnorm,kmeanselkan,kmeansppelkan,minibatch,minibatchpp,em,empp,emkm,emkmpp,generic,pdf};
     
     protected cbtype codebookType;
     
@@ -36,6 +36,19 @@ public class CodebookConfig {
     protected boolean     bSupervised = false;
     protected int         randomSeed = 10;  /* 10 is default in Weka */
     protected int         numTraining = 0;
+    protected int         numThreads  = 0;  /* Threads for the training, 0: all available processors */
+    protected boolean     bKDTree     = false;  /* Assignment step of k-means with a KD-tree over the centroids */
+    
+    /* Numeric seeding of random++, kmeans++, em++, em-kmeans++, ... */
+    protected boolean bSeedingParallel = false;  /* true: k-means||, false: k-means++ */
+    
+    /* Numeric EM */
+    protected boolean bEMSoft     = false;  /* Soft M-step (all posteriors) */
+    protected double  emTolerance = 0.0;    /* Relative change of the log-likelihood to stop, 0: until the assignments do not change */
+    
+    /* Numeric mini-batch k-means */
+    protected int miniBatchSize    = 1024;  /* Number of frames per batch */
+    protected int miniBatchMaxIter = 1000;  /* Maximum number of batches */
     
     /* Numeric n-grams */
     protected int maxSizeUnigram = 0;  /* 0: no unigrams */
@@ -49,6 +62,16 @@ public class CodebookConfig {
     protected int    nGram       = 1;
     protected int    nCharGram   = 0;  /* 0: no n-character-grams */
     
+    /* Text feature hashing */
+    protected int     numHashBuckets = 0;      /* 0: codebook of all words (vocabulary), otherwise: tokens are hashed into this number of buckets */
+    protected boolean bHashSign      = false;  /* Add -1 or +1 for each token, depending on a second hash */
+    protected int     hashSeed       = 0;
+    
+    /* Text vocabulary counting */
+    protected int sketchWidth   = 0;  /* 0: exact counting, otherwise: width of a count-min sketch for terms which are not (yet) frequent */
+    protected int sketchDepth   = 4;
+    protected int maxVocabulary = 0;  /* 0: no limit, otherwise: the most frequent terms are kept while counting */
+    
     
     /* Numeric */
     public CodebookConfig(int     sizeCodebookInitial,
@@ -75,6 +98,14 @@ public class CodebookConfig {
             this.generationMethod = cbgenmethod.kmeansnorm;
         } else if (strGenerationMethod.equals("kmeans++norm")) {
             this.generationMethod = cbgenmethod.kmeansppnorm;
+        } else if (strGenerationMethod.equals("kmeans-elkan")) {
+            this.generationMethod = cbgenmethod.kmeanselkan;
+        } else if (strGenerationMethod.equals("kmeans++-elkan")) {
+            this.generationMethod = cbgenmethod.kmeansppelkan;
+        } else if (strGenerationMethod.equals("minibatch")) {
+            this.generationMethod = cbgenmethod.minibatch;
+        } else if (strGenerationMethod.equals("minibatch++")) {
+            this.generationMethod = cbgenmethod.minibatchpp;
         } else if (strGenerationMethod.equals("em")) {
             this.generationMethod = cbgenmethod.em;
         } else if (strGenerationMethod.equals("em++")) {
@@ -143,6 +174,76 @@ public class CodebookConfig {
         this.nCharGram    = nCharGram;
     }
     
+    public CodebookConfig(int     minTermFreq,
+                          int     maxTermFreq,
+                          String  stopChar,
+                          int     nGram,
+                          int     nCharGram,
+                          int     numHashBuckets,
+                          boolean bHashSign,
+                          int     hashSeed)
+    {
+        this(minTermFreq,
+             maxTermFreq,
+             stopChar,
+             nGram,
+             nCharGram);
+        
+        this.numHashBuckets = numHashBuckets;
+        this.bHashSign      = bHashSign;
+        this.hashSeed       = hashSeed;
+    }
+    
+    
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+    
+    
+    public void setAssignMethod(String assignMethod) {
+        /* See option -assign, only kdtree is relevant for the training */
+        this.bKDTree = assignMethod.equals("kdtree");
+    }
+    
+    
+    public void setMiniBatch(int miniBatchSize, int miniBatchMaxIter) {
+        if (miniBatchSize < 1 || miniBatchMaxIter < 1) {
+            System.err.println("Error: CodebookConfig: Mini-batch size and number of batches must be positive! The defaults are used.");
+            return;
+        }
+        this.miniBatchSize    = miniBatchSize;
+        this.miniBatchMaxIter = miniBatchMaxIter;
+    }
+    
+    public void setVocabularyCounting(int sketchWidth, int sketchDepth, int maxVocabulary) {
+        if (sketchWidth < 0 || sketchDepth < 1 || maxVocabulary < 0) {
+            System.err.println("Error: CodebookConfig: Sketch width and maximum vocabulary must not be negative, sketch depth must be positive! Exact counting is used.");
+            return;
+        }
+        this.sketchWidth   = sketchWidth;
+        this.sketchDepth   = sketchDepth;
+        this.maxVocabulary = maxVocabulary;
+    }
+    
+    public void setEM(boolean bEMSoft, double emTolerance) {
+        this.bEMSoft     = bEMSoft;
+        this.emTolerance = Math.max(0.0, emTolerance);
+    }
+    
+    public void setSeeding(String strSeeding) {
+        if (strSeeding.equals("kmeans++")) {
+            this.bSeedingParallel = false;
+        } else if (strSeeding.equals("kmeans||")) {
+            this.bSeedingParallel = true;
+        } else {
+            System.err.println("Error: CodebookConfig: Seeding method " + strSeeding + " is not valid! kmeans++ is used.");
+        }
+    }
+    
+    public boolean isMiniBatch() {
+        return this.generationMethod==cbgenmethod.minibatch || this.generationMethod==cbgenmethod.minibatchpp;
+    }
+    
     
     public boolean isNumeric() {
     	if (this.codebookType==cbtype.numeric) {
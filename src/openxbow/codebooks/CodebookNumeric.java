@@ -23,13 +23,24 @@ package openxbow.codebooks;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import openxbow.codebooks.CodebookConfig.cbgenmethod;
+import openxbow.parallel.ChunkExecutor;
 
 
 public class CodebookNumeric extends Codebook {
+    private static final int KMEANS_CHUNK_FRAMES      = 4096;  /* Number of frames assigned per task */
+    private static final int KMEANS_CHUNK_CENTROIDS   = 64;    /* Number of centroids per task */
+    private static final int MINIBATCH_CHUNK_FRAMES   = 256;   /* Number of frames of a batch assigned per task */
+    private static final int MINIBATCH_PATIENCE       = 10;    /* Number of batches without improvement before stopping */
+    private static final int SEEDING_ROUNDS           = 2;     /* kMeans||: Number of sampling rounds */
+    private static final int SEEDING_OVERSAMPLING     = 2;     /* kMeans||: Expected number of candidates per round, relative to the codebook size */
+    private static final int SEEDING_LLOYD_ITERATIONS = 10;    /* kMeans||: Lloyd iterations on the weighted candidates */
+    
     private float[][] codewords = null;
     
     private int[][] unigrams = null;
@@ -38,6 +49,8 @@ public class CodebookNumeric extends Codebook {
     
     private CodebookNumericGMM cbGMM = null;
     
+    private HNSWGraph hnswGraph = null;  /* Only for the approximate assignment (-assign hnsw) */
+    
     public CodebookNumeric(CodebookConfig config) {
         super(config);
     }
@@ -57,103 +70,90 @@ public class CodebookNumeric extends Codebook {
     
     
     private int[][] generateSpecificNumericGramCodebook(int[][] assignments, int[] idOrigInstances, int numGram, int maxSize) {
-        /* Gather a list of all combinations of assignments found in the bags.  */
+        /* Gather a list of all combinations of assignments found in the bags.                                                  */
+        /* Each n-gram is coded as a number with numGram digits in base K (codebook size): numGram=2: 0 0; 0 1; 0 2; 1 0; 1 1; ... */
+        /* Only the n-grams which are found are counted (sparse), so that the memory does not grow with K^numGram.             */
         
-        int   maxNumGrams = (int) Math.pow(codewords.length, numGram);
-        int[] frequency   = new int [maxNumGrams];  /* numGram=2: 0 0; 0 1; 0 2; 1 0; 1 1; 1 2; ... */
-        
-        for (int f=0; f < frequency.length; f++) {
-            frequency[f] = 0;
+        int  sizeCodebook = codewords.length;
+        long maxNumGrams  = 1;
+        for (int g=0; g < numGram; g++) {
+            if (maxNumGrams > Long.MAX_VALUE / sizeCodebook) {
+                System.err.println("Error: Numeric " + numGram + "-grams are not available for a codebook of size " + sizeCodebook + "!");
+                return null;
+            }
+            maxNumGrams *= sizeCodebook;
         }
+        if (maxSize > maxNumGrams) {
+            System.err.println("Warning: Only " + maxNumGrams + " numeric " + numGram + "-grams are possible, the codebook of n-grams is reduced.");
+            maxSize = (int) maxNumGrams;
+        }
+        
+        int            numAssignments = assignments[0].length;
+        LongIntHashMap frequency      = new LongIntHashMap(Math.min(assignments.length, 1 << 20));
+        int[]          combination    = new int[numGram];  /* Index of the assignment of each frame of the n-gram */
         
-        int fIndex;
-        int ind0;
-        int ind1;
-        int ind2;
+        for (int m=0; m <= assignments.length-numGram; m++) {
+            boolean bSameInstance = true;
+            for (int g=1; g < numGram; g++) {
+                bSameInstance = bSameInstance && idOrigInstances[m]==idOrigInstances[m+g];
+            }
+            if (!bSameInstance) {
+                continue;
+            }
+            
+            /* All combinations of the assignments of the frames */
+            Arrays.fill(combination, 0);
+            while (true) {
+                long code = 0;
+                for (int g=0; g < numGram; g++) {
+                    code = code * sizeCodebook + assignments[m+g][combination[g]];
+                }
+                frequency.add(code, 1);
                 
-        /* Speed up */
-        if (numGram==1) {
-            for (int m=0; m < assignments.length; m++) {
-                for (int a=0; a < assignments[0].length; a++) {
-                    frequency[assignments[m][a]]++;
-                }
-            }
-        } else if (numGram==2) {
-            int offset = codewords.length;
-            for (int m=0; m < assignments.length-1; m++) {
-                if (idOrigInstances[m]!=idOrigInstances[m+1]) {
-                    continue;
-                }
-                for (int a=0; a < assignments[0].length; a++) {
-                    for (int a1=0; a1 < assignments[0].length; a1++) {
-                        ind0 = assignments[m][a];
-                        ind1 = assignments[m+1][a1];
-                        fIndex = ind0*offset + ind1;
-                        frequency[fIndex]++;
-                    }
+                int g = numGram-1;
+                while (g >= 0 && ++combination[g]==numAssignments) {
+                    combination[g--] = 0;
                 }
-            }
-        } else if (numGram==3) {
-            int offset0 = (int) Math.pow(codewords.length, 2);
-            int offset1 = codewords.length;
-            for (int m=0; m < assignments.length-2; m++) {
-                if (idOrigInstances[m]!=idOrigInstances[m+1] || idOrigInstances[m]!=idOrigInstances[m+2]) {
-                    continue;
-                }
-                for (int a=0; a < assignments[0].length; a++) {
-                    for (int a1=0; a1 < assignments[0].length; a1++) {
-                        for (int a2=0; a2 < assignments[0].length; a2++) {
-                            ind0 = assignments[m][a];
-                            ind1 = assignments[m+1][a1];
-                            ind2 = assignments[m+2][a2];
-                            fIndex = ind0*offset0 + ind1*offset1 + ind2;
-                            frequency[fIndex]++;
-                        }
-                    }
+                if (g < 0) {
+                    break;
                 }
             }
         }
         
-        /* Determine the threshold frequency */
-        int[] tmpFrequency = Arrays.copyOf(frequency, frequency.length);
-        Arrays.sort(tmpFrequency);
-        int minFrequency = tmpFrequency[tmpFrequency.length-maxSize];
-        
-        int[][] grams = new int[maxSize][numGram];
+        /* Determine the threshold frequency (maxSize-th largest frequency, n-grams which are not found have frequency 0) */
+        long[] codes        = frequency.getKeys();
+        int[]  frequencies  = frequency.getValues();
+        int    minFrequency = 0;
+        if (codes.length >= maxSize) {
+            minFrequency = getLargest(frequencies, maxSize);
+        }
         
-        /* Speed up */
-        if (numGram==1) {
-            int k=0;
-            for (int f=0; f < frequency.length; f++) {
-                if (frequency[f] >= minFrequency) {
-                    grams[k][0] = f;
-                    k++;
-                    if (k==maxSize) { break; }; /* In case of equal frequencies */
+        /* The first maxSize n-grams (in the order of their codes) with at least this frequency */
+        long[] selected    = new long[maxSize];
+        int    numSelected = 0;
+        if (minFrequency > 0) {
+            long[] candidates    = new long[codes.length];
+            int    numCandidates = 0;
+            for (int k=0; k < codes.length; k++) {
+                if (frequencies[k] >= minFrequency) {
+                    candidates[numCandidates++] = codes[k];
                 }
             }
-        } else if (numGram==2) {
-            int offset = codewords.length;
-            int k=0;
-            for (int f=0; f < frequency.length; f++) {
-                if (frequency[f] >= minFrequency) {
-                    grams[k][0] = Math.floorDiv(f,offset);
-                    grams[k][1] = Math.floorMod(f,offset);
-                    k++;
-                    if (k==maxSize) { break; }; /* In case of equal frequencies */
-                }
+            Arrays.sort(candidates, 0, numCandidates);
+            numSelected = Math.min(numCandidates, maxSize);  /* In case of equal frequencies */
+            System.arraycopy(candidates, 0, selected, 0, numSelected);
+        } else {
+            for (numSelected=0; numSelected < maxSize; numSelected++) {  /* All n-grams have at least frequency 0 */
+                selected[numSelected] = numSelected;
             }
-        } else if (numGram==3) {
-            int offset0 = (int) Math.pow(codewords.length, 2);
-            int offset1 = codewords.length;
-            int k=0;
-            for (int f=0; f < frequency.length; f++) {
-                if (frequency[f] >= minFrequency) {
-                    grams[k][0] = Math.floorDiv(f,offset0);
-                    grams[k][1] = Math.floorDiv(Math.floorMod(f,offset0),offset1);
-                    grams[k][2] = Math.floorMod(f,offset1);
-                    k++;
-                    if (k==maxSize) { break; }; /* In case of equal frequencies */
-                }
+        }
+        
+        int[][] grams = new int[maxSize][numGram];
+        for (int k=0; k < numSelected; k++) {
+            long code = selected[k];
+            for (int g=numGram-1; g >= 0; g--) {
+                grams[k][g] = (int) (code % sizeCodebook);
+                code       /= sizeCodebook;
             }
         }
         
@@ -161,6 +161,39 @@ public class CodebookNumeric extends Codebook {
     }
     
     
+    private static int getLargest(int[] values, int rank) {
+        /* rank-th largest value, with a min-heap of the rank largest values */
+        int[] heap = new int[rank];
+        int   size = 0;
+        for (int value : values) {
+            if (size < rank) {
+                int k = size++;
+                while (k > 0 && heap[(k-1)/2] > value) {  /* Sift up */
+                    heap[k] = heap[(k-1)/2];
+                    k       = (k-1)/2;
+                }
+                heap[k] = value;
+            }
+            else if (value > heap[0]) {
+                int k = 0;
+                while (2*k+1 < size) {  /* Sift down */
+                    int child = 2*k+1;
+                    if (child+1 < size && heap[child+1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] >= value) {
+                        break;
+                    }
+                    heap[k] = heap[child];
+                    k       = child;
+                }
+                heap[k] = value;
+            }
+        }
+        return heap[0];
+    }
+    
+    
     public void generateCodebook(CodebookNumericTrainingSelector train) {
         if (train.trainingDataSupervised != null) {
             int       numClasses          = train.trainingDataSupervised.size();
@@ -187,6 +220,18 @@ public class CodebookNumeric extends Codebook {
                 else if (config.generationMethod==cbgenmethod.kmeansppnorm) {
                     centroidsClass = kMeans(train.trainingDataSupervised.get(c),numClustersPerClass,true,config.randomSeed,true);
                 }
+                else if (config.generationMethod==cbgenmethod.kmeanselkan) {
+                    centroidsClass = kMeansBounded(train.trainingDataSupervised.get(c),numClustersPerClass,false,config.randomSeed);
+                }
+                else if (config.generationMethod==cbgenmethod.kmeansppelkan) {
+                    centroidsClass = kMeansBounded(train.trainingDataSupervised.get(c),numClustersPerClass,true,config.randomSeed);
+                }
+                else if (config.generationMethod==cbgenmethod.minibatch) {
+                    centroidsClass = kMeansMiniBatch(train.trainingDataSupervised.get(c),numClustersPerClass,false,config.randomSeed);
+                }
+                else if (config.generationMethod==cbgenmethod.minibatchpp) {
+                    centroidsClass = kMeansMiniBatch(train.trainingDataSupervised.get(c),numClustersPerClass,true,config.randomSeed);
+                }
                 else if (config.generationMethod==cbgenmethod.random) {
                     centroidsClass = randomSampling(train.trainingDataSupervised.get(c),numClustersPerClass,config.randomSeed);
                 }
@@ -244,6 +289,18 @@ public class CodebookNumeric extends Codebook {
             else if (config.generationMethod==cbgenmethod.kmeansppnorm) {
                 codewords = kMeans(train.trainingData,config.sizeCodebookInitial,true,config.randomSeed,true);
             }
+            else if (config.generationMethod==cbgenmethod.kmeanselkan) {
+                codewords = kMeansBounded(train.trainingData,config.sizeCodebookInitial,false,config.randomSeed);
+            }
+            else if (config.generationMethod==cbgenmethod.kmeansppelkan) {
+                codewords = kMeansBounded(train.trainingData,config.sizeCodebookInitial,true,config.randomSeed);
+            }
+            else if (config.generationMethod==cbgenmethod.minibatch) {
+                codewords = kMeansMiniBatch(train.trainingData,config.sizeCodebookInitial,false,config.randomSeed);
+            }
+            else if (config.generationMethod==cbgenmethod.minibatchpp) {
+                codewords = kMeansMiniBatch(train.trainingData,config.sizeCodebookInitial,true,config.randomSeed);
+            }
             else if (config.generationMethod==cbgenmethod.random) {
                 codewords = randomSampling(train.trainingData,config.sizeCodebookInitial,config.randomSeed);
             }
@@ -391,9 +448,19 @@ public class CodebookNumeric extends Codebook {
     }
     
     
-    private float[][] randomSamplingPlusPlus(List<float[]> trainingData, int sizeCodebook, int randomSeed) {
+    private float[][] randomSamplingPlusPlus(final List<float[]> trainingData, int sizeCodebook, int randomSeed) {
         /* kMeans++ initialization */
-        int       numFeatures   = trainingData.get(0).length;
+        if (config.bSeedingParallel) {
+            return randomSamplingParallel(trainingData, sizeCodebook, randomSeed);
+        } else {
+            return randomSamplingSerial(trainingData, sizeCodebook, randomSeed);
+        }
+    }
+    
+    
+    private float[][] randomSamplingSerial(final List<float[]> trainingData, int sizeCodebook, int randomSeed) {
+        /* kMeans++: One centroid after another, the distance updates are parallel */
+        final int numFeatures   = trainingData.get(0).length;
         float[][] centroids     = new float[sizeCodebook][trainingData.get(0).length];
         Random    randGenerator = new Random(randomSeed);  /* Seed 10 to keep it consistent with kMeans in Weka */
         
@@ -403,65 +470,232 @@ public class CodebookNumeric extends Codebook {
             centroids[0][m] = (float) trainingData.get(center0)[m];
         }
         
-        double[] distances      = new double[trainingData.size()];
-        double[] probs          = new double[trainingData.size()];
-        double[] cumulatedProbs = new double[trainingData.size()];
-        
-        double diff = 0;
+        final double[] distances      = new double[trainingData.size()];
+        double[]       probs          = new double[trainingData.size()];
+        double[]       cumulatedProbs = new double[trainingData.size()];
         
         for (int i=0; i < trainingData.size(); i++) {
-            distances[i] = 0;
-            for (int m=0; m < numFeatures; m++) {
-                diff = centroids[0][m] - trainingData.get(i)[m];
-                distances[i] += diff * diff;
-            }
+            distances[i] = Distances.squaredEuclideanDouble(centroids[0], trainingData.get(i));
         }
         
         /* Select the centers of the remaining clusters */
-        for (int k = 1; k < sizeCodebook; k++) {
-            /* Convert distances to probabilities */
-            probs = getProbVector(probs,distances);  /* Note: This is the fastest way */
-            
-            double sumProbs = 0;
-            for (int c = 0; c < trainingData.size(); c++) {
-                sumProbs          += probs[c];
-                cumulatedProbs[c]  = sumProbs;
+        ChunkExecutor executor = new ChunkExecutor(config.numThreads);
+        try {
+            for (int k = 1; k < sizeCodebook; k++) {
+                /* Convert distances to probabilities */
+                probs = getProbVector(probs,distances);  /* Note: This is the fastest way */
+                
+                double sumProbs = 0;
+                for (int c = 0; c < trainingData.size(); c++) {
+                    sumProbs          += probs[c];
+                    cumulatedProbs[c]  = sumProbs;
+                }
+                cumulatedProbs[trainingData.size() - 1] = 1.0d;
+                
+                /* Choose a random instance */
+                double randomValue = randGenerator.nextDouble();
+                int x = searchCumulated(cumulatedProbs, trainingData.size(), randomValue);
+                
+                for (int m=0; m < numFeatures; m++) {
+                    centroids[k][m] = (float) trainingData.get(x)[m];
+                }
+                
+                /* If an instance is now closer to the new centroid, this is the determining one */
+                final float[] centroid = centroids[k];
+                executor.run(trainingData.size(), KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+                    public Void compute(int start, int end) {
+                        for (int c=start; c < end; c++) {
+                            if (distances[c] > 0) {
+                                double newDistance = Distances.squaredEuclideanDouble(centroid, trainingData.get(c));
+                                if (newDistance < distances[c]) {
+                                    distances[c] = newDistance;
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                });
             }
-            cumulatedProbs[trainingData.size() - 1] = 1.0d;
+        } finally {
+            executor.shutdown();
+        }
+        
+        return centroids;
+    }
+    
+    
+    private float[][] randomSamplingParallel(final List<float[]> trainingData, int sizeCodebook, final int randomSeed) {
+        /* kMeans|| initialization (Bahmani et al., 2012): Starting from one random instance, each round samples every instance         */
+        /* independently with a probability proportional to its squared distance to the closest candidate (oversampling factor        */
+        /* SEEDING_OVERSAMPLING*sizeCodebook). The candidates are weighted by the number of instances closest to them and clustered   */
+        /* into sizeCodebook centroids by weighted kMeans++ and a few weighted Lloyd iterations. Each chunk of instances has its own   */
+        /* random generator (seeded from randomSeed, round and chunk), so the result does not depend on the number of threads.        */
+        final int      numData       = trainingData.size();
+        final double[] distances     = new double[numData];  /* Squared distance to the closest candidate */
+        final int[]    nearest       = new int[numData];     /* Index of the closest candidate */
+        List<Integer>  candidates    = new ArrayList<Integer>();
+        Random         randGenerator = new Random(randomSeed);
+        
+        candidates.add(randGenerator.nextInt(numData));
+        Arrays.fill(distances, Double.MAX_VALUE);
+        
+        ChunkExecutor executor = new ChunkExecutor(config.numThreads);
+        try {
+            updateCandidateDistances(executor, trainingData, candidates, 0, distances, nearest);
             
-            /* Choose a random instance */
-            double randomValue = randGenerator.nextDouble();
-            int x = 0;
-            while (x < trainingData.size()) {
-                if (cumulatedProbs[x] > randomValue) {
-                    break;
+            for (int round=0; round < SEEDING_ROUNDS; round++) {
+                double cost = 0.0;
+                for (int i=0; i < numData; i++) {
+                    cost += distances[i];
+                }
+                if (cost <= 0.0) {
+                    break;  /* All instances are candidates */
                 }
-                x++;
+                
+                final double factor   = SEEDING_OVERSAMPLING * sizeCodebook / cost;
+                final long   seedBase = randomSeed * 1000003L + round;
+                List<List<Integer>> sampled = executor.run(numData, KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<List<Integer>>() {
+                    public List<Integer> compute(int start, int end) {
+                        Random        randChunk = new Random(seedBase * 1000003L + start);
+                        List<Integer> chosen    = new ArrayList<Integer>();
+                        for (int i=start; i < end; i++) {
+                            if (randChunk.nextDouble() < factor * distances[i]) {
+                                chosen.add(i);
+                            }
+                        }
+                        return chosen;
+                    }
+                });
+                
+                int firstNew = candidates.size();
+                for (List<Integer> chosen : sampled) {
+                    candidates.addAll(chosen);
+                }
+                updateCandidateDistances(executor, trainingData, candidates, firstNew, distances, nearest);
             }
             
-            for (int m=0; m < numFeatures; m++) {
-                centroids[k][m] = (float) trainingData.get(x)[m];
+            if (candidates.size() <= sizeCodebook) {
+                return randomSamplingSerial(trainingData, sizeCodebook, randomSeed);  /* Too few candidates (e.g., many equal instances) */
             }
             
-            /* If an instance is now closer to the new centroid, this is the determining one */
-            for (int c = 0; c < trainingData.size(); c++) {
-                if (distances[c] > 0) {
-                    double newDistance = 0;
-                    for (int m=0; m < numFeatures; m++) {
-                        diff = centroids[k][m] - trainingData.get(c)[m];
-                        newDistance += diff * diff;
-                    }
-                    if (newDistance < distances[c]) {
-                        distances[c] = newDistance;
+            /* Weight each candidate by the number of instances closest to it */
+            List<float[]> candidateData = new ArrayList<float[]>();
+            double[]      weights       = new double[candidates.size()];
+            for (int c=0; c < candidates.size(); c++) {
+                candidateData.add(trainingData.get(candidates.get(c)));
+            }
+            for (int i=0; i < numData; i++) {
+                weights[nearest[i]] += 1.0;
+            }
+            
+            /* Recluster the weighted candidates */
+            float[][] centroids = weightedSamplingPlusPlus(candidateData, weights, sizeCodebook, randGenerator);
+            weightedLloyd(executor, candidateData, weights, centroids, SEEDING_LLOYD_ITERATIONS);
+            return centroids;
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    
+    private void updateCandidateDistances(ChunkExecutor executor, final List<float[]> trainingData, final List<Integer> candidates, final int firstNew, 
+                                          final double[] distances, final int[] nearest) {
+        /* Updates the distances of all instances with the candidates from index firstNew on */
+        final List<float[]> newCandidates = new ArrayList<float[]>();
+        for (int c=firstNew; c < candidates.size(); c++) {
+            newCandidates.add(trainingData.get(candidates.get(c)));
+        }
+        executor.run(trainingData.size(), KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int start, int end) {
+                for (int i=start; i < end; i++) {
+                    float[] features = trainingData.get(i);
+                    for (int c=0; c < newCandidates.size(); c++) {
+                        double distance = Distances.squaredEuclideanDouble(features, newCandidates.get(c));
+                        if (distance < distances[i]) {
+                            distances[i] = distance;
+                            nearest[i]   = firstNew + c;
+                        }
                     }
                 }
+                return null;
+            }
+        });
+    }
+    
+    
+    private float[][] weightedSamplingPlusPlus(List<float[]> data, double[] weights, int sizeCodebook, Random randGenerator) {
+        /* kMeans++ for weighted instances: The probability of an instance is proportional to weight times squared distance */
+        int       numData   = data.size();
+        float[][] centroids = new float[sizeCodebook][];
+        double[]  distances = new double[numData];
+        double[]  cumulated = new double[numData];
+        
+        /* First centroid with a probability proportional to the weight */
+        double sum = 0.0;
+        for (int i=0; i < numData; i++) {
+            sum         += weights[i];
+            cumulated[i] = sum;
+        }
+        int x = searchCumulated(cumulated, numData, randGenerator.nextDouble() * sum);
+        centroids[0] = Arrays.copyOf(data.get(x), data.get(x).length);
+        Arrays.fill(distances, Double.MAX_VALUE);
+        
+        for (int k=1; k < sizeCodebook; k++) {
+            sum = 0.0;
+            for (int i=0; i < numData; i++) {
+                distances[i] = Math.min(distances[i], Distances.squaredEuclideanDouble(data.get(i), centroids[k-1]));
+                sum         += weights[i] * distances[i];
+                cumulated[i] = sum;
+            }
+            if (sum > 0.0) {
+                x = searchCumulated(cumulated, numData, randGenerator.nextDouble() * sum);
+            } else {
+                x = k;  /* All remaining instances are equal to centroids */
             }
+            centroids[k] = Arrays.copyOf(data.get(x), data.get(x).length);
         }
         
         return centroids;
     }
     
     
+    private void weightedLloyd(ChunkExecutor executor, final List<float[]> data, final double[] weights, final float[][] centroids, int maxIterations) {
+        int[]   cluster  = new int[data.size()];
+        float[] fWeights = new float[data.size()];
+        for (int i=0; i < data.size(); i++) {
+            fWeights[i] = (float) weights[i];
+        }
+        
+        for (int iter=0; iter < maxIterations; iter++) {
+            assignClusters(executor, data, centroids, null, cluster);
+            
+            ClusterStatistics stats = new ClusterStatistics(0, centroids.length, centroids[0].length, false);
+            stats.accumulate(data, cluster, fWeights);
+            for (int k=0; k < centroids.length; k++) {
+                if (stats.getCount(k) > 0) {  /* Otherwise, the centroid remains unchanged */
+                    stats.getMean(k, centroids[k]);
+                }
+            }
+        }
+    }
+    
+    
+    private static int searchCumulated(double[] cumulated, int length, double value) {
+        /* Binary search for the first index with cumulated[index] > value (cumulated is non-decreasing), length-1 if there is none */
+        int low  = 0;
+        int high = length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulated[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+    
+    
     private float[][] kMeans(List<float[]> trainingData, int sizeCodebook, boolean bPlusPlus, int randomSeed, boolean bNormalize) {
         /* Lloyd algorithm */
         final int maxIterations = 500;  /* as in Weka */
@@ -469,8 +703,6 @@ public class CodebookNumeric extends Codebook {
         float[]   width         = null;
         int[]     curCluster    = new int[trainingData.size()];
         int[]     lastCluster   = new int[trainingData.size()];
-        int       numFeatures   = trainingData.get(0).length;
-        float     diff          = 0;  /* Temp variable */
         
         /* Initialization */
         if  (bPlusPlus) {
@@ -502,59 +734,355 @@ public class CodebookNumeric extends Codebook {
         }
         
         /* Optimization */
-        boolean clustersChanged = true;
-        int     iter            = 0;
-        while (clustersChanged && iter<maxIterations) {
-            iter++;
-            
-            /* Get current assignment */
-            for (int i=0; i < trainingData.size(); i++) {
-                float[] features    = trainingData.get(i);
-                float   minDistance = Float.MAX_VALUE;
-                float   distance    = 0;
+        ChunkExecutor executor        = new ChunkExecutor(config.numThreads);
+        boolean       clustersChanged = true;
+        int           iter            = 0;
+        boolean       bKDTree         = config.bKDTree && width==null && KDTree.isEffective(sizeCodebook, trainingData.get(0).length);
+        try {
+            while (clustersChanged && iter<maxIterations) {
+                iter++;
+                
+                /* Get current assignment */
+                if (bKDTree) {
+                    bKDTree = assignClustersKDTree(executor, trainingData, centroids, curCluster);  /* Brute force from the next iteration on if not effective */
+                } else {
+                    assignClusters(executor, trainingData, centroids, width, curCluster);
+                }
+                
+                /* Check if the assignment has changed */
+                if (Arrays.equals(curCluster, lastCluster)) {
+                    clustersChanged = false;
+                }
+                System.arraycopy(curCluster, 0, lastCluster, 0, trainingData.size());
                 
-                for (int k=0; k < sizeCodebook; k++) {
-                    distance = 0;
-                    for (int m=0; m < numFeatures; m++) {
-                        if (bNormalize) {
-                            diff = (features[m] - centroids[k][m]) / width[m];  /* No need to subtract min[m] */
-                        } else {
-                            diff = features[m] - centroids[k][m];
+                /* Update centroids */
+                if (clustersChanged) {
+                    updateCentroids(executor, trainingData, centroids, curCluster);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        return centroids;
+    }
+    
+    
+    private void assignClusters(ChunkExecutor executor, final List<float[]> trainingData, final float[][] centroids, final float[] width, final int[] curCluster) {
+        /* Each frame is assigned independently, so the chunks can be processed in any order */
+        executor.run(trainingData.size(), KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int start, int end) {
+                for (int i=start; i < end; i++) {
+                    float[] features    = trainingData.get(i);
+                    float   minDistance = Float.MAX_VALUE;
+                    float   distance    = 0;
+                    
+                    for (int k=0; k < centroids.length; k++) {
+                        distance = width!=null ? Distances.squaredEuclideanScaled(features, centroids[k], width) : Distances.squaredEuclidean(features, centroids[k]);
+                        if (distance < minDistance) {
+                            minDistance = distance;
+                            curCluster[i] = k;
                         }
-                        distance += diff * diff;
                     }
-                    if (distance < minDistance) {
-                        minDistance = distance;
-                        curCluster[i] = k;
+                }
+                return null;
+            }
+        });
+    }
+    
+    
+    private boolean assignClustersKDTree(ChunkExecutor executor, final List<float[]> trainingData, final float[][] centroids, final int[] curCluster) {
+        /* Same assignment as assignClusters() (exact search, ties: lower index) with a KD-tree over the current centroids. */
+        /* Returns false if the tree has computed the distances to a large part of the centroids anyway.                    */
+        final KDTree tree = new KDTree(centroids);
+        List<Long> results = executor.run(trainingData.size(), KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Long>() {
+            public Long compute(int start, int end) {
+                int[]    nearest          = new int[1];
+                float[]  nearestDistances = new float[1];
+                double[] offsets          = new double[centroids[0].length];
+                long     numComputed      = 0;
+                for (int i=start; i < end; i++) {
+                    numComputed  += tree.findNearest(trainingData.get(i), 1, nearest, nearestDistances, offsets);
+                    curCluster[i] = nearest[0];
+                }
+                return numComputed;
+            }
+        });
+        
+        long numComputed = 0;
+        for (Long chunkComputed : results) {
+            numComputed += chunkComputed;
+        }
+        return KDTree.isEffective(numComputed, trainingData.size(), centroids.length);
+    }
+    
+    
+    private void updateCentroids(ChunkExecutor executor, final List<float[]> trainingData, final float[][] centroids, final int[] curCluster) {
+        /* The clusters are split into groups, each task accumulates the statistics of its clusters in one pass over the training data. */
+        /* The frames are added in their original order, so the centroids do not depend on the number of threads (or on the grouping).  */
+        int numGroups   = executor.getNumThreads() > 1 ? 4 * executor.getNumThreads() : 1;  /* Several groups per thread to balance the load */
+        int groupLength = (centroids.length + numGroups - 1) / numGroups;
+        
+        executor.run(centroids.length, groupLength, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int kStart, int kEnd) {
+                ClusterStatistics stats = new ClusterStatistics(kStart, kEnd - kStart, centroids[0].length, false);
+                stats.accumulate(trainingData, curCluster, null);
+                
+                for (int k=kStart; k < kEnd; k++) {
+                    if (stats.getCount(k) > 0) {  /* Otherwise, the centroid remains unchanged */
+                        stats.getMean(k, centroids[k]);
                     }
                 }
+                return null;
             }
-            
-            /* Check if the assignment has changed */
-            if (Arrays.equals(curCluster, lastCluster)) {
-                clustersChanged = false;
+        });
+    }
+    
+    
+    private float[][] kMeansBounded(List<float[]> trainingData, int sizeCodebook, boolean bPlusPlus, int randomSeed) {
+        /* Lloyd algorithm with the bounds of Hamerly (2010): upper[i] is an upper bound of the distance of frame i to its centroid,        */
+        /* lower[i] a lower bound of its distance to all other centroids. The frame keeps its centroid without computing any distance, */
+        /* if upper[i] is below lower[i] or half the distance from its centroid to the nearest other centroid. The bounds are compared   */
+        /* with a margin for the rounding errors of the float distances, so that the assignments and centroids are exactly the same as */
+        /* in kMeans() (without normalization).                                                                                         */
+        final int maxIterations = 500;  /* as in Weka */
+        float[][] centroids     = null;
+        int[]     curCluster    = new int[trainingData.size()];
+        int[]     lastCluster   = new int[trainingData.size()];
+        double[]  upper         = new double[trainingData.size()];
+        double[]  lower         = new double[trainingData.size()];
+        double    margin        = 1.0 + 4.0 * (trainingData.get(0).length + 4) * Math.ulp(1.0f);
+        
+        /* Initialization */
+        if  (bPlusPlus) {
+            centroids = randomSamplingPlusPlus(trainingData, sizeCodebook, randomSeed);
+        }
+        else {
+            centroids = randomSampling(trainingData, sizeCodebook, randomSeed);
+        }
+        float[][] lastCentroids = new float[sizeCodebook][];
+        double[]  halfDistance  = new double[sizeCodebook];  /* Half the distance to the nearest other centroid */
+        
+        /* Optimization */
+        ChunkExecutor executor        = new ChunkExecutor(config.numThreads);
+        boolean       clustersChanged = true;
+        int           iter            = 0;
+        try {
+            while (clustersChanged && iter<maxIterations) {
+                iter++;
+                
+                /* Get current assignment (all distances in the first iteration) */
+                if (iter > 1) {
+                    computeHalfDistances(executor, centroids, halfDistance);
+                }
+                assignClustersBounded(executor, trainingData, centroids, curCluster, upper, lower, iter > 1 ? halfDistance : null, margin);
+                
+                /* Check if the assignment has changed */
+                if (Arrays.equals(curCluster, lastCluster)) {
+                    clustersChanged = false;
+                }
+                System.arraycopy(curCluster, 0, lastCluster, 0, trainingData.size());
+                
+                /* Update centroids and bounds */
+                if (clustersChanged) {
+                    for (int k=0; k < sizeCodebook; k++) {
+                        lastCentroids[k] = Arrays.copyOf(centroids[k], centroids[k].length);
+                    }
+                    updateCentroids(executor, trainingData, centroids, curCluster);
+                    updateBounds(executor, centroids, lastCentroids, curCluster, upper, lower);
+                }
             }
-            System.arraycopy(curCluster, 0, lastCluster, 0, trainingData.size());
-            
-            /* Update centroids */
-            if (clustersChanged) {
-                for (int k=0; k < sizeCodebook; k++) {
-                    for (int m=0; m < numFeatures; m++) {
-                        float sum = 0;
-                        float num = 0;
-                        for (int i=0; i < trainingData.size(); i++) {
-                            float[] features = trainingData.get(i);
-                            if (curCluster[i]==k) {
-                                sum += features[m];
-                                num++;
-                            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        return centroids;
+    }
+    
+    
+    private void computeHalfDistances(ChunkExecutor executor, final float[][] centroids, final double[] halfDistance) {
+        executor.run(centroids.length, KMEANS_CHUNK_CENTROIDS, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int start, int end) {
+                for (int k=start; k < end; k++) {
+                    double minDistance = Double.MAX_VALUE;
+                    for (int k2=0; k2 < centroids.length; k2++) {
+                        if (k2!=k) {
+                            minDistance = Math.min(minDistance, Math.sqrt(Distances.squaredEuclideanDouble(centroids[k], centroids[k2])));
+                        }
+                    }
+                    halfDistance[k] = 0.5 * minDistance;
+                }
+                return null;
+            }
+        });
+    }
+    
+    
+    private void assignClustersBounded(ChunkExecutor executor, final List<float[]> trainingData, final float[][] centroids, final int[] curCluster, 
+                                       final double[] upper, final double[] lower, final double[] halfDistance, final double margin) {
+        /* halfDistance==null: Compute all distances and initialize the bounds */
+        executor.run(trainingData.size(), KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int start, int end) {
+                for (int i=start; i < end; i++) {
+                    float[] features = trainingData.get(i);
+                    
+                    if (halfDistance!=null) {
+                        double bound = Math.max(lower[i], halfDistance[curCluster[i]]) / margin;
+                        if (upper[i] * margin < bound) {
+                            continue;
+                        }
+                        upper[i] = Math.sqrt(Distances.squaredEuclidean(features, centroids[curCluster[i]]));  /* Tighten the upper bound */
+                        if (upper[i] * margin < bound) {
+                            continue;
+                        }
+                    }
+                    
+                    /* Same comparisons as in assignClusters() */
+                    float minDistance    = Float.MAX_VALUE;
+                    float secondDistance = Float.MAX_VALUE;
+                    float distance       = 0;
+                    for (int k=0; k < centroids.length; k++) {
+                        distance = Distances.squaredEuclidean(features, centroids[k]);
+                        if (distance < minDistance) {
+                            secondDistance = minDistance;
+                            minDistance    = distance;
+                            curCluster[i]  = k;
+                        } else if (distance < secondDistance) {
+                            secondDistance = distance;
                         }
-                        if (num>0) {
-                            centroids[k][m] = sum / num;
+                    }
+                    upper[i] = Math.sqrt(minDistance);
+                    lower[i] = Math.sqrt(secondDistance);
+                }
+                return null;
+            }
+        });
+    }
+    
+    
+    private void updateBounds(ChunkExecutor executor, float[][] centroids, float[][] lastCentroids, final int[] curCluster, final double[] upper, final double[] lower) {
+        /* The distance to a centroid changes at most by the distance the centroid has moved */
+        final double[] moved       = new double[centroids.length];
+        int            maxCluster  = 0;
+        double         secondMoved = 0.0;
+        for (int k=0; k < centroids.length; k++) {
+            moved[k] = Math.sqrt(Distances.squaredEuclideanDouble(centroids[k], lastCentroids[k]));
+            if (moved[k] > moved[maxCluster]) {
+                secondMoved = moved[maxCluster];
+                maxCluster  = k;
+            } else if (k > 0 && moved[k] > secondMoved) {
+                secondMoved = moved[k];
+            }
+        }
+        
+        final int    fMaxCluster  = maxCluster;
+        final double maxMoved     = moved[maxCluster];
+        final double fSecondMoved = secondMoved;
+        executor.run(curCluster.length, KMEANS_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+            public Void compute(int start, int end) {
+                for (int i=start; i < end; i++) {
+                    upper[i] += moved[curCluster[i]];
+                    lower[i] -= curCluster[i]==fMaxCluster ? fSecondMoved : maxMoved;
+                }
+                return null;
+            }
+        });
+    }
+    
+    
+    private float[][] kMeansMiniBatch(List<float[]> trainingData, int sizeCodebook, boolean bPlusPlus, int randomSeed) {
+        /* Mini-batch k-means (Sculley, 2010): Each iteration assigns a random batch of frames (drawn with replacement) to the centroids */
+        /* and moves each centroid towards its frames, with a learning rate of 1/(number of frames assigned to the centroid so far).   */
+        /* The centroids are initialized from a random subset of 3*sizeCodebook frames (at least one batch). The training stops after */
+        /* the maximum number of batches or if the mean distance of the batches (exponentially smoothed) has not decreased for         */
+        /* MINIBATCH_PATIENCE batches. Only the batches are read from trainingData, which may be a view of the feature store.          */
+        final int numData       = trainingData.size();
+        final int batchSize     = config.miniBatchSize;
+        Random    randGenerator = new Random(randomSeed);
+        
+        /* Initialization */
+        int           initSize = Math.min(numData, Math.max(3 * sizeCodebook, batchSize));
+        List<float[]> initData = new ArrayList<float[]>();
+        if (initSize==numData) {
+            initData.addAll(trainingData);
+        } else {
+            Set<Integer> initIndexes = new LinkedHashSet<Integer>();
+            while (initIndexes.size() < initSize) {
+                initIndexes.add(randGenerator.nextInt(numData));
+            }
+            for (int i : initIndexes) {
+                initData.add(trainingData.get(i));
+            }
+        }
+        float[][] centroids = null;
+        if  (bPlusPlus) {
+            centroids = randomSamplingPlusPlus(initData, sizeCodebook, randomSeed);
+        }
+        else {
+            centroids = randomSampling(initData, sizeCodebook, randomSeed);
+        }
+        initData = null;
+        
+        /* Optimization */
+        int[]           counts        = new int[sizeCodebook];
+        final float[][] batch         = new float[batchSize][];
+        final int[]     batchCluster  = new int[batchSize];
+        final float[]   batchDistance = new float[batchSize];
+        final float[][] fCentroids    = centroids;
+        double          alpha         = Math.min(1.0, 2.0 * batchSize / (numData + 1));  /* Smoothing of the mean distance */
+        double          meanDistance  = 0.0;
+        double          bestDistance  = Double.MAX_VALUE;
+        int             noImprovement = 0;
+        
+        ChunkExecutor executor = new ChunkExecutor(config.numThreads);
+        try {
+            for (int iter=0; iter < config.miniBatchMaxIter; iter++) {
+                /* Draw a batch */
+                for (int b=0; b < batchSize; b++) {
+                    batch[b] = trainingData.get(randGenerator.nextInt(numData));
+                }
+                
+                /* Assign the batch to the current centroids */
+                executor.run(batchSize, MINIBATCH_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Void>() {
+                    public Void compute(int start, int end) {
+                        for (int b=start; b < end; b++) {
+                            float minDistance = Float.MAX_VALUE;
+                            for (int k=0; k < fCentroids.length; k++) {
+                                float distance = Distances.squaredEuclidean(batch[b], fCentroids[k]);
+                                if (distance < minDistance) {
+                                    minDistance     = distance;
+                                    batchCluster[b] = k;
+                                }
+                            }
+                            batchDistance[b] = minDistance;
                         }
+                        return null;
                     }
+                });
+                
+                /* Gradient step with per-centroid learning rates (in the order of the batch) */
+                double sumDistance = 0.0;
+                for (int b=0; b < batchSize; b++) {
+                    int     k        = batchCluster[b];
+                    float[] centroid = centroids[k];
+                    float   eta      = 1.0f / ++counts[k];
+                    for (int m=0; m < centroid.length; m++) {
+                        centroid[m] += eta * (batch[b][m] - centroid[m]);
+                    }
+                    sumDistance += batchDistance[b];
+                }
+                
+                /* Convergence */
+                meanDistance = iter==0 ? sumDistance / batchSize : (1.0 - alpha) * meanDistance + alpha * sumDistance / batchSize;
+                if (meanDistance < bestDistance) {
+                    bestDistance  = meanDistance;
+                    noImprovement = 0;
+                } else if (++noImprovement >= MINIBATCH_PATIENCE) {
+                    break;
                 }
             }
+        } finally {
+            executor.shutdown();
         }
         
         return centroids;
@@ -665,6 +1193,21 @@ public class CodebookNumeric extends Codebook {
     
     public void setCodebook(float[][] codewords) {
         this.codewords = codewords; 
+        this.hnswGraph = null;
+    }
+    
+    public HNSWGraph getHNSWGraph() {
+        return hnswGraph;  /* null if neither built nor loaded */
+    }
+    public synchronized HNSWGraph buildHNSWGraph(int M, int efConstruction) {
+        /* Built once on first use (several bags may share the codebook), unless it has been loaded */
+        if (hnswGraph==null) {
+            hnswGraph = new HNSWGraph(codewords, M, efConstruction, config.randomSeed);
+        }
+        return hnswGraph;
+    }
+    public void setHNSWGraph(HNSWGraph hnswGraph) {
+        this.hnswGraph = hnswGraph;
     }
     
     public void setNGramCodebooks(int[][] unigrams, int[][] bigrams, int[][] trigrams) {
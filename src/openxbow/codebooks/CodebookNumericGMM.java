@@ -24,23 +24,37 @@ package openxbow.codebooks;
 import java.util.Arrays;
 import java.util.List;
 
+import openxbow.parallel.ChunkExecutor;
+
 public class CodebookNumericGMM extends CodebookNumeric {
-    private float[]   mixtures    = null;
-    private float[][] centroids   = null;
-    private float[][] covariances = null;
+    private static final int   EM_CHUNK_FRAMES       = 4096;   /* Number of frames per task */
+    private static final int   EM_CHUNKS_PER_THREAD  = 2;      /* Chunks processed at once per thread (each one has statistics of size 2*K*D) */
+    private static final float EM_MIN_POSTERIOR      = 1E-6f;  /* Soft M-step: Smaller posteriors are ignored */
+    
+    private float[]   mixtures      = null;
+    private float[][] centroids     = null;
+    private float[][] covariances   = null;
+    private int       numIterations = 0;  /* Number of E-steps of the last training */
     
     protected CodebookNumericGMM(CodebookConfig config) {
         super(config);
     }
     
-    protected float[][] generateCodebook(List<float[]> trainingData, int sizeCodebook, float[][] centroidsInitial) {
+    protected float[][] generateCodebook(final List<float[]> trainingData, final int sizeCodebook, float[][] centroidsInitial) {
+        /* EM algorithm: The E-step is split into chunks of frames, which are processed on the -threads pool. Each chunk accumulates   */
+        /* the sufficient statistics of all clusters for the M-step (responsibility, first and second moments) and its log-likelihood.*/
+        /* A few chunks per thread are processed at once, their statistics are allocated once and reused. Each chunk is merged into   */
+        /* the total in chunk order, the chunks are fixed by the number of frames only, so the result does not depend on the threads. */
+        /* The likelihoods are computed in the log domain, as the linear likelihoods of high-dimensional features underflow.          */
+        /* Hard M-step (default): Each frame contributes to its most likely cluster only, weighted by its posterior probability.      */
+        /* Soft M-step (-emSoft): Each frame contributes to all clusters, weighted by their posterior probabilities.                  */
         final int maxIterations = 500;
         
-        int     trainingSize = trainingData.size();
-        int[]   curCluster   = new int[trainingSize];
-        float[] probCluster  = new float[trainingSize];
-        int[]   lastCluster  = new int[trainingSize];
-        int     numFeatures  = trainingData.get(0).length;
+        final int     trainingSize = trainingData.size();
+        final int[]   curCluster   = new int[trainingSize];
+        final float[] probCluster  = new float[trainingSize];
+        int[]         lastCluster  = new int[trainingSize];
+        final int     numFeatures  = trainingData.get(0).length;
         
         /* Initialize mixture weights and covariances */
         centroids   = centroidsInitial;
@@ -53,145 +67,156 @@ public class CodebookNumericGMM extends CodebookNumeric {
             }
         }
         
+        /* Precomputed stats of the log-likelihoods (updated in each iteration) */
+        final double[]  logPrefactors  = new double[sizeCodebook];
+        final float[][] invCovariances = new float[sizeCodebook][numFeatures];
+        
         /* Optimization */
         for (int i=0; i < trainingSize; i++) {
             lastCluster[i] = -1;
         }
-        boolean clustersChanged = true;
-        int     iter            = 0;
-        while (clustersChanged && iter<maxIterations) {
-            iter++;
-            
-            /* E: Get current cluster assignments with probabilities */
-            /* Precompute some stats to use computeGaussianProbFast */
-            float[] prefactorsGaussianProb = new float[sizeCodebook];
-            for (int k=0; k < sizeCodebook; k++) {
-                prefactorsGaussianProb[k] = mixtures[k] * computePrefactorComponent(covariances[k]);
-            }
-            float[][] invCovariances = new float[sizeCodebook][numFeatures];
-            for (int k=0; k < sizeCodebook; k++) {
-                for (int m=0; m < numFeatures; m++) {
-                    invCovariances[k][m] = 1.0f / covariances[k][m]; 
-                }
-            }
-            float[] fv_unbiased = new float[numFeatures];
-            
-            for (int i=0; i < trainingSize; i++) {
-                float[] features      = trainingData.get(i);
-                float   likelihood    = 0.0f;
-                float   maxLikelihood = 0.0f;
-                float   sumLikelihood = 0.0f;
-                for (int k=0; k < sizeCodebook; k++) {
-                    // likelihood = computeGaussianProb(features, mixtures[k], centroids[k], covariances[k]);
-                    likelihood = computeGaussianProbFast(features, centroids[k], invCovariances[k], prefactorsGaussianProb[k], fv_unbiased);
-                    sumLikelihood += likelihood;  /* Likelihood over all clusters */
-                    if (likelihood > maxLikelihood) {
-                        maxLikelihood = likelihood;
-                        curCluster[i] = k;
-                    }
-                }
-                probCluster[i] = maxLikelihood / sumLikelihood;  /* Probability that feature vector i belongs to current cluster k */ 
-            }
-            
-            /* Check if the assignment has changed */
-            if (Arrays.equals(curCluster, lastCluster)) {
-                clustersChanged = false;
-            }
-            System.arraycopy(curCluster, 0, lastCluster, 0, trainingSize);
-            
-            if (clustersChanged) {
-                /* M: Get total "responsibility" for each cluster */
-                float[] response    = new float[sizeCodebook];
-                int[]   responseInt = new int[sizeCodebook];
-                float   sumResponse = 0.0f; 
+        boolean       clustersChanged   = true;
+        int           iter              = 0;
+        double        lastLogLikelihood = 0.0;
+        ChunkExecutor executor          = new ChunkExecutor(config.numThreads);
+        
+        int numChunks = (trainingSize + EM_CHUNK_FRAMES - 1) / EM_CHUNK_FRAMES;
+        
+        final EStepResult[] chunkResults = new EStepResult[Math.min(numChunks, EM_CHUNKS_PER_THREAD * executor.getNumThreads())];
+        for (int c=0; c < chunkResults.length; c++) {
+            chunkResults[c] = new EStepResult(sizeCodebook, numFeatures, centroids);
+        }
+        EStepResult total      = new EStepResult(sizeCodebook, numFeatures, centroids);
+        int         waveFrames = chunkResults.length * EM_CHUNK_FRAMES;
+        try {
+            while (clustersChanged && iter<maxIterations) {
+                iter++;
+                
                 for (int k=0; k < sizeCodebook; k++) {
-                    response[k] = 0.0f;
-                    for (int i=0; i < trainingSize; i++) {
-                        if (curCluster[i]==k) {
-                            response[k] += probCluster[i];
-                            responseInt[k] += 1;
-                        }
+                    logPrefactors[k] = Math.log(Math.max(mixtures[k], Float.MIN_NORMAL)) + computeLogPrefactorComponent(covariances[k]);
+                    for (int m=0; m < numFeatures; m++) {
+                        invCovariances[k][m] = 1.0f / covariances[k][m]; 
                     }
-                    sumResponse += response[k]; 
                 }
                 
-                /* M: Update mixture weights */
-                for (int k=0; k < sizeCodebook; k++) {
-                    mixtures[k] = response[k] / sumResponse;  /* Relative response is the mixture weight */
-                }
-                /* M: Update centroids */
-                for (int k=0; k < sizeCodebook; k++) {
-                    if (responseInt[k]>0) {  /* Otherwise, the centroid remains unchanged */
-                        for (int m=0; m < numFeatures; m++) {
-                            centroids[k][m] = 0.0f;
-                        }
-                        for (int i=0; i < trainingSize; i++) {
-                            if (curCluster[i]==k) {
-                                float[] features = trainingData.get(i);
-                                for (int m=0; m < numFeatures; m++) {
-                                    centroids[k][m] += probCluster[i] * features[m];
+                /* E: Get current cluster assignments with probabilities and accumulate the statistics for the M-step */
+                total.reset();
+                for (int waveStart=0; waveStart < trainingSize; waveStart += waveFrames) {
+                    final int offset = waveStart;
+                    
+                    List<EStepResult> results = executor.run(Math.min(waveFrames, trainingSize - waveStart), EM_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<EStepResult>() {
+                        public EStepResult compute(int start, int end) {
+                            EStepResult result   = chunkResults[start / EM_CHUNK_FRAMES];
+                            double[]    logProbs = new double[sizeCodebook];
+                            
+                            result.reset();
+                            for (int i=offset+start; i < offset+end; i++) {
+                                float[] features   = trainingData.get(i);
+                                double  maxLogProb = Double.NEGATIVE_INFINITY;
+                                for (int k=0; k < sizeCodebook; k++) {
+                                    logProbs[k] = logPrefactors[k] - 0.5 * Distances.mahalanobis(features, centroids[k], invCovariances[k]);
+                                    if (logProbs[k] > maxLogProb) {
+                                        maxLogProb    = logProbs[k];
+                                        curCluster[i] = k;
+                                    }
+                                }
+                                
+                                /* Log-likelihood over all clusters (log-sum-exp) */
+                                double sumProb = 0.0;
+                                for (int k=0; k < sizeCodebook; k++) {
+                                    sumProb += Math.exp(logProbs[k] - maxLogProb);
+                                }
+                                double logSumProb = maxLogProb + Math.log(sumProb);
+                                
+                                probCluster[i] = (float) (1.0 / sumProb);  /* Probability that feature vector i belongs to current cluster k */ 
+                                result.logLikelihood += logSumProb;
+                                
+                                if (config.bEMSoft) {
+                                    for (int k=0; k < sizeCodebook; k++) {
+                                        float posterior = (float) Math.exp(logProbs[k] - logSumProb);
+                                        if (posterior > EM_MIN_POSTERIOR) {
+                                            result.stats.add(k, features, posterior);
+                                        }
+                                    }
+                                } else {
+                                    result.stats.add(curCluster[i], features, probCluster[i]);
                                 }
                             }
+                            return result;
                         }
-                        for (int m=0; m < numFeatures; m++) {
-                            centroids[k][m] /= response[k];
-                        }
+                    });
+                    
+                    for (EStepResult result : results) {  /* In chunk order */
+                        total.stats.merge(result.stats);
+                        total.logLikelihood += result.logLikelihood;
                     }
                 }
-                /* M: Update covariance matrixes */
-                for (int k=0; k < sizeCodebook; k++) {
-                    if (responseInt[k]>0) {  /* Otherwise, the covariances remain unchanged */
-                        for (int m=0; m < numFeatures; m++) {
-                            covariances[k][m] = Float.MIN_NORMAL;
-                        }
-                        for (int i=0; i < trainingSize; i++) {
-                            if (curCluster[i]==k) {
-                                float[] features = trainingData.get(i);
-                                for (int m=0; m < numFeatures; m++) {  /* Subtract mean */
-                                    // (features[m] - centroid[m]) is the unbiased feature vector; (a-b) * (a-b) is faster than Math.pow(a-b,2)
-                                    covariances[k][m] += probCluster[i] * (features[m] - centroids[k][m]) * (features[m] - centroids[k][m]);
-                                }
-                            }
-                        }
-                        for (int m=0; m < numFeatures; m++) {
-                            covariances[k][m] /= response[k];
-                            if (covariances[k][m] < Float.MIN_NORMAL) {  /* Lower values might occur due to division by response[k] and will result in infinity when inverted. */
-                            	covariances[k][m] = Float.MIN_NORMAL;
-                            }
+                
+                /* Check if the assignment has changed or the log-likelihood has converged */
+                ClusterStatistics stats         = total.stats;
+                double            logLikelihood = total.logLikelihood;
+                
+                if (Arrays.equals(curCluster, lastCluster)) {
+                    clustersChanged = false;
+                }
+                if (iter > 1 && Math.abs(logLikelihood - lastLogLikelihood) <= config.emTolerance * Math.abs(logLikelihood)) {
+                    clustersChanged = false;
+                }
+                System.arraycopy(curCluster, 0, lastCluster, 0, trainingSize);
+                lastLogLikelihood = logLikelihood;
+                
+                if (clustersChanged) {
+                    /* M: Update mixture weights from the "responsibility" of each cluster */
+                    double sumResponse = 0.0;
+                    for (int k=0; k < sizeCodebook; k++) {
+                        sumResponse += stats.getWeight(k);
+                    }
+                    
+                    for (int k=0; k < sizeCodebook; k++) {
+                        mixtures[k] = (float) (stats.getWeight(k) / sumResponse);  /* Relative response is the mixture weight */
+                        
+                        /* M: Update centroids and covariance matrixes */
+                        if (stats.getCount(k) > 0) {  /* Otherwise, the centroid and the covariances remain unchanged */
+                            stats.getMean(k, centroids[k]);
+                            stats.getVariance(k, covariances[k], Float.MIN_NORMAL);  /* Lower values will result in infinity when inverted. */
                         }
                     }
                 }
             }
+        } finally {
+            executor.shutdown();
         }
+        numIterations = iter;
         
         return centroids;
     }
     
     
-    /* NOTE: This function should be aligned with the corresponding function in openxbow.main.Bag */
-    private float computePrefactorComponent(float[] covariances) {
-        int   numFeatures = covariances.length;
-        float determinant = 1.0f;
-        for (int m=0; m < numFeatures; m++) {
-            determinant *= covariances[m];
+    private static class EStepResult {
+        /* Statistics of one chunk of frames */
+        ClusterStatistics stats;
+        double            logLikelihood = 0.0;
+        
+        EStepResult(int sizeCodebook, int numFeatures, float[][] centroids) {
+            stats = new ClusterStatistics(0, sizeCodebook, numFeatures, true);
+            stats.setShifts(centroids);  /* The centroids are updated after the E-step only */
+        }
+        
+        void reset() {
+            stats.reset();
+            logLikelihood = 0.0;
         }
-        determinant += Float.MIN_NORMAL;
-        return (float) (1.0f / Math.sqrt( Math.pow(2.0f * Math.PI, numFeatures) * determinant ));        
     }
     
     
-    /* NOTE: This function should be aligned with the corresponding function in openxbow.main.Bag */
-    private float computeGaussianProbFast(float[] feature_vector, float[] centroid, float[] invCovariances, float prefactor, float[] fv_unbiased) {
-        int numFeatures = feature_vector.length;
-        
-        float exponent = 0.0f;
+    /* NOTE: This function should be aligned with computeLogPrefactorComponent in openxbow.main.Bag */
+    private double computeLogPrefactorComponent(float[] covariances) {
+        int    numFeatures    = covariances.length;
+        double logDeterminant = 0.0;
         for (int m=0; m < numFeatures; m++) {
-            // (feature_vector[m] - centroid[m]) is the unbiased feature vector; (a-b) * (a-b) is faster than Math.pow(a-b,2)
-            exponent += (feature_vector[m] - centroid[m]) * (feature_vector[m] - centroid[m]) * invCovariances[m];  /* inverse of the covariance "matrix" */
+            logDeterminant += Math.log(covariances[m]);
         }
-        
-        float prob = prefactor * (float) Math.exp(-0.5f * exponent);
-        return prob + Float.MIN_NORMAL;
+        return -0.5 * (numFeatures * Math.log(2.0 * Math.PI) + logDeterminant);
     }
     
     
@@ -233,6 +258,10 @@ public class CodebookNumericGMM extends CodebookNumeric {
         return this.covariances;
     }
     
+    public int getNumIterations( ) {
+        return this.numIterations;
+    }
+    
     protected void setMixtureWeights(float[] mixtures) {
         this.mixtures = mixtures;
     }
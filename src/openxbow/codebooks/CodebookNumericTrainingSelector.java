@@ -20,12 +20,14 @@
 
 package openxbow.codebooks;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
+import openxbow.io.FeatureStore;
 import openxbow.main.DataManager;
 import openxbow.randomselection.UniqueIndexes;
 
@@ -33,8 +35,9 @@ import openxbow.randomselection.UniqueIndexes;
 public class CodebookNumericTrainingSelector {
     /* This class chooses the instances used for training of a numeric codebook                               */
     /* Different constructors are available (supervised codebook generation, etc.), depending on the use-case */
+    /* For mini-batch training, the features are not copied: the lists read the selected frames from inputData */
     
-    public List<Object[]>      inputData              = null;
+    public FeatureStore        inputData              = null;
     public List<float[]>       trainingData           = null;
     public List<List<float[]>> trainingDataSupervised = null;
     
@@ -72,7 +75,7 @@ public class CodebookNumericTrainingSelector {
     }
     
     
-    private void getTrainingFeaturesSupervised(List<Object[]> data) {
+    private void getTrainingFeaturesSupervised(FeatureStore data) {
         trainingDataSupervised = new ArrayList<List<float[]>>();
         
         /* Get number of classes */
@@ -85,52 +88,66 @@ public class CodebookNumericTrainingSelector {
         
         int numClasses = vecLabels.size();
         
-        /* Generate a map which tells us the corresponding frames for each ID */
-        Map<Integer,List<Integer>> mapFrameIDs = DM.getMappingFrameIDs();
-        Map<Integer,List<Integer>> mapIDFrames = new HashMap<Integer,List<Integer>>();
+        /* Generate a map which tells us the corresponding frames for each ID (in one pass over the frames, in ascending order) */
+        int[]                      frameIDOffsets = DM.getFrameIDOffsets();
+        int[]                      frameIDs       = DM.getFrameIDs();
+        Map<Integer,List<Integer>> mapIDFrames    = new HashMap<Integer,List<Integer>>();
         for (int id=0; id < DM.getMappingIDLabels().size(); id++) {
             mapIDFrames.put(id, new ArrayList<Integer>());
-            for (int frameIndex=0; frameIndex < mapFrameIDs.size(); frameIndex++) {
-                if (mapFrameIDs.get(frameIndex).contains(id)) {
-                    mapIDFrames.get(id).add(frameIndex);
+        }
+        for (int frameIndex=0; frameIndex < frameIDOffsets.length - 1; frameIndex++) {
+            for (int i=frameIDOffsets[frameIndex]; i < frameIDOffsets[frameIndex+1]; i++) {
+                if (frameIDs[i] < DM.getMappingIDLabels().size()) {
+                    mapIDFrames.get(frameIDs[i]).add(frameIndex);
                 }
             }
         }
         
+        int[] attributes = toArray(indexFeatures);
+        
         for (int c=0; c < numClasses; c++) {
-            List<Object[]> classData         = new ArrayList<Object[]>();
-            List<float[]>  trainingDataClass = new ArrayList<float[]>();
+            List<Integer> classData         = new ArrayList<Integer>();  /* Frame indexes */
+            List<float[]> trainingDataClass = new ArrayList<float[]>();
             
             /* Select all instances of class c */
             for (int id=0; id < DM.getMappingIDLabels().size(); id++) {
                 if (DM.getMappingIDLabels().get(id)[0].equals(vecLabels.get(c))) {
                     for (int frameIndex : mapIDFrames.get(id)) {
-                        classData.add(data.get(frameIndex));
+                        classData.add(frameIndex);
                     }
                 }
             }
             
             /* Choose instances for training */
-            if (config.numTraining > 0) {
+            if (config.isMiniBatch()) {
+                if (config.numTraining > 0) {
+                    int numTrainingPerClass = (int) Math.ceil((double) config.numTraining / (double) numClasses);
+                    
+                    Vector<Integer> indexesTraining = new UniqueIndexes(classData.size(), numTrainingPerClass).getIndexes();
+                    List<Integer>   framesTraining  = new ArrayList<Integer>();
+                    for (int i=0; i < indexesTraining.size(); i++) {
+                        framesTraining.add(classData.get(indexesTraining.get(i)));
+                    }
+                    classData = framesTraining;
+                }
+                trainingDataClass = new FrameList(data, toArray(classData), attributes);
+            }
+            else if (config.numTraining > 0) {
                 int numTrainingPerClass = (int) Math.ceil((double) config.numTraining / (double) numClasses);
                 
                 UniqueIndexes   uniqueIndexes   = new UniqueIndexes(classData.size(), numTrainingPerClass);
                 Vector<Integer> indexesTraining = uniqueIndexes.getIndexes();
                 
                 for (int i=0; i < indexesTraining.size(); i++) {
-                    float[] features = new float[indexFeatures.size()];
-                    for (int k=0; k < indexFeatures.size(); k++) {
-                        features[k] = (float) classData.get(indexesTraining.get(i))[indexFeatures.get(k)]; 
-                    }
+                    float[] features = new float[attributes.length];
+                    data.getFloats(classData.get(indexesTraining.get(i)), attributes, features);
                     trainingDataClass.add(features);
                 }
             }
             else {
                 for (int i=0; i < classData.size(); i++) {
-                    float[] features = new float[indexFeatures.size()];
-                    for (int k=0; k < indexFeatures.size(); k++) {
-                        features[k] = (float) classData.get(i)[indexFeatures.get(k)]; 
-                    }
+                    float[] features = new float[attributes.length];
+                    data.getFloats(classData.get(i), attributes, features);
                     trainingDataClass.add(features);
                 }
             }
@@ -140,7 +157,18 @@ public class CodebookNumericTrainingSelector {
     }
     
     
-    private void getTrainingFeatures(List<Object[]> inputData) {
+    private void getTrainingFeatures(FeatureStore inputData) {
+        int[] attributes = toArray(indexFeatures);
+        
+        if (config.isMiniBatch()) {
+            int[] frames = null;  /* All frames */
+            if (config.numTraining > 0 && config.numTraining < inputData.size()) {
+                frames = toArray(new UniqueIndexes(inputData.size(), config.numTraining).getIndexes());
+            }
+            trainingData = new FrameList(inputData, frames, attributes);
+            return;
+        }
+        
         trainingData = new ArrayList<float[]>();
         
         /* Choose instances for training */
@@ -148,25 +176,54 @@ public class CodebookNumericTrainingSelector {
             UniqueIndexes   uniqueIndexes   = new UniqueIndexes(inputData.size(), config.numTraining);
             Vector<Integer> indexesTraining = uniqueIndexes.getIndexes();
             for (int i=0; i < indexesTraining.size(); i++) {
-                float[] features = new float[indexFeatures.size()];
-                for (int k=0; k < indexFeatures.size(); k++) {
-                    features[k] = (float) inputData.get(indexesTraining.get(i))[indexFeatures.get(k)]; 
-                }
+                float[] features = new float[attributes.length];
+                inputData.getFloats(indexesTraining.get(i), attributes, features);
                 trainingData.add(features);
             }
         }
         else {
             for (int i=0; i < inputData.size(); i++) {
-                float[] features = new float[indexFeatures.size()];
-                for (int k=0; k < indexFeatures.size(); k++) {
-                    features[k] = (float) inputData.get(i)[indexFeatures.get(k)]; 
-                }
+                float[] features = new float[attributes.length];
+                inputData.getFloats(i, attributes, features);
                 trainingData.add(features);
             }
         }
     }
     
     
+    private int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int k=0; k < array.length; k++) {
+            array[k] = list.get(k);
+        }
+        return array;
+    }
+    
+    
+    private static class FrameList extends AbstractList<float[]> {
+        /* Read-only view of the selected attributes of some frames (frames==null: all frames) of a FeatureStore; get() returns a new array */
+        private FeatureStore data;
+        private int[]        frames;
+        private int[]        attributes;
+        
+        FrameList(FeatureStore data, int[] frames, int[] attributes) {
+            this.data       = data;
+            this.frames     = frames;
+            this.attributes = attributes;
+        }
+        
+        public float[] get(int index) {
+            float[] features = new float[attributes.length];
+            data.getFloats(frames!=null ? frames[index] : index, attributes, features);
+            return features;
+        }
+        
+        public int size() {
+            return frames!=null ? frames.length : data.size();
+        }
+    }
+    
+    
     private boolean isLabelNominal() {
         if (DM.getMappingIDLabels().isEmpty() || DM.getMappingIDLabels().get(0).length!=1) {
               return false;  /* Not one label */
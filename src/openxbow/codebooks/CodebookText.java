@@ -21,76 +21,207 @@
 package openxbow.codebooks;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import openxbow.io.Reader;
-import openxbow.nlp.String2WordVector;
+import openxbow.nlp.CountMinSketch;
+import openxbow.nlp.Tokenizer;
+import openxbow.parallel.ChunkExecutor;
 
 
 public class CodebookText extends Codebook {
-    private String[] wordVector = null;
+    private static final int VOCAB_CHUNK_FRAMES = 4096;                    /* Frames counted by one task */
+    private static final int VOCAB_BLOCK_FRAMES = 16 * VOCAB_CHUNK_FRAMES;  /* Frames whose counts are merged at once */
+    
+    private String[]            wordVector = null;
+    private Map<String,Integer> wordIndex  = null;  /* Index of each word in wordVector (the first one for repeated words), built with the codebook */
     
     
     public CodebookText(CodebookConfig config) {
         super(config);
     }
     
-    public void generateCodebook(Reader reader) {
+    public void generateCodebook(final Reader reader) {
         /* Supervised training is not available (probably not meaningful) */
         
-        String2WordVector   s2wv      = new String2WordVector();
-        List<Integer>       indexText = new ArrayList<Integer>();
-        Map<String,Integer> wordFreq  = new HashMap<String,Integer>();
+        if (isHashed()) {
+            return;  /* No vocabulary, the tokens are hashed into the buckets (see getIndex()) */
+        }
+        
+        final List<Integer> indexText = new ArrayList<Integer>();
+        Map<String,int[]>   wordFreq  = new HashMap<String,int[]>();  /* Hash order as before; independent of the threads, as the chunks are merged in chunk order */
+        CountMinSketch      sketch    = null;
         
         for (int k=0; k < reader.getIndexesAttributeClass().get(0).size(); k++) {
             indexText.add(reader.getIndexesAttributeClass().get(0).get(k));
         }
+        if (config.sketchWidth > 0) {
+            sketch = new CountMinSketch(config.sketchWidth, config.sketchDepth);
+        }
         
-        /* Get all words from the input data */
-        for (Object[] frame : reader.inputData) {
-            for (Integer ind : indexText) {  /* All text features */
-                String[] wordVectorInst = s2wv.string2WordVector((String) frame[ind], config.stopChar, config.nGram, config.nCharGram);
-                for (String s : wordVectorInst) {
-                    if (wordFreq.containsKey(s)) {
-                        wordFreq.replace(s, wordFreq.get(s)+1);
-                    } else {
-                        wordFreq.put(s, 1);
+        /* Get all words from the input data: The words of each chunk are counted in parallel, the counts are merged in chunk order. */
+        /* The frames are processed in blocks, so that only the counts of the chunks of one block are kept at the same time.       */
+        int           numFrames = reader.inputData.size();
+        ChunkExecutor executor  = new ChunkExecutor(config.numThreads);
+        try {
+            for (int blockStart=0; blockStart < numFrames; blockStart += VOCAB_BLOCK_FRAMES) {
+                final int blockOffset = blockStart;
+                
+                List<Map<String,int[]>> chunkFreqs = executor.run(Math.min(VOCAB_BLOCK_FRAMES, numFrames - blockStart), VOCAB_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<Map<String,int[]>>() {
+                    public Map<String,int[]> compute(int start, int end) {
+                        Tokenizer         tokenizer = new Tokenizer(config.stopChar, config.nGram, config.nCharGram);
+                        Map<String,int[]> chunkFreq = new LinkedHashMap<String,int[]>();  /* Order of the first appearance */
+                        
+                        for (int frameIndex=blockOffset+start; frameIndex < blockOffset+end; frameIndex++) {
+                            for (Integer ind : indexText) {  /* All text features */
+                                int numTokens = tokenizer.tokenize(reader.inputData.getString(frameIndex, ind));
+                                for (int k=0; k < numTokens; k++) {
+                                    String s     = tokenizer.getToken(k);
+                                    int[]  count = chunkFreq.get(s);
+                                    if (count!=null) {
+                                        count[0]++;
+                                    } else {
+                                        chunkFreq.put(s, new int[] {1});
+                                    }
+                                }
+                            }
+                        }
+                        return chunkFreq;
                     }
+                });
+                
+                for (Map<String,int[]> chunkFreq : chunkFreqs) {
+                    mergeWordFrequencies(wordFreq, chunkFreq, sketch);
                 }
             }
+        } finally {
+            executor.shutdown();
         }
         
-        /* Do thresholding and convert to static codebook array */
+        /* Do thresholding (at most maxVocabulary words) and convert to static codebook array */
         if (config.maxTermFreq==0) {
             config.maxTermFreq = Integer.MAX_VALUE;
         }
-        int numWords = 0;
-        for (Map.Entry<String,Integer> e : wordFreq.entrySet()) {
-            if (e.getValue()>=config.minTermFreq && e.getValue()<=config.maxTermFreq) {
-                numWords++;
+        Iterator<Map.Entry<String,int[]>> iter = wordFreq.entrySet().iterator();
+        while (iter.hasNext()) {
+            int count = iter.next().getValue()[0];
+            if (count < config.minTermFreq || count > config.maxTermFreq) {
+                iter.remove();
             }
         }
+        if (config.maxVocabulary > 0) {
+            pruneWordFrequencies(wordFreq, config.maxVocabulary);
+        }
         
-        wordVector = new String[numWords];
+        wordVector = new String[wordFreq.size()];
         int c = 0;
-        for (Map.Entry<String,Integer> e : wordFreq.entrySet()) {
-            if (e.getValue()>=config.minTermFreq && e.getValue()<=config.maxTermFreq) {
-                wordVector[c++] = e.getKey();
+        for (String word : wordFreq.keySet()) {
+            wordVector[c++] = word;
+        }
+        buildWordIndex();
+    }
+    
+    
+    private void mergeWordFrequencies(Map<String,int[]> wordFreq, Map<String,int[]> chunkFreq, CountMinSketch sketch) {
+        /* With a sketch, a new word is only added once its estimated frequency reaches minTermFreq, then starting with the estimate */
+        for (Map.Entry<String,int[]> e : chunkFreq.entrySet()) {
+            int[] count    = wordFreq.get(e.getKey());
+            int   estimate = sketch!=null ? sketch.add(e.getKey(), e.getValue()[0]) : 0;
+            if (count!=null) {
+                count[0] += e.getValue()[0];
+            }
+            else if (sketch==null) {
+                wordFreq.put(e.getKey(), e.getValue());
+            }
+            else if (estimate >= config.minTermFreq) {
+                e.getValue()[0] = estimate;
+                wordFreq.put(e.getKey(), e.getValue());
+            }
+        }
+        
+        /* Heavy hitters: If there are too many words, only the most frequent ones are kept (removed words can be added again later) */
+        if (config.maxVocabulary > 0 && wordFreq.size() > 2 * config.maxVocabulary) {
+            pruneWordFrequencies(wordFreq, config.maxVocabulary);
+        }
+    }
+    
+    
+    private static void pruneWordFrequencies(Map<String,int[]> wordFreq, int maxWords) {
+        /* Keeps the maxWords most frequent words (the first ones in the map in case of ties) */
+        if (wordFreq.size() <= maxWords) {
+            return;
+        }
+        List<Map.Entry<String,int[]>> entries = new ArrayList<Map.Entry<String,int[]>>(wordFreq.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String,int[]>>() {
+            public int compare(Map.Entry<String,int[]> e1, Map.Entry<String,int[]> e2) {
+                return Integer.compare(e2.getValue()[0], e1.getValue()[0]);
             }
+        });
+        for (int k=maxWords; k < entries.size(); k++) {
+            wordFreq.remove(entries.get(k).getKey());
+        }
+    }
+    
+    
+    private void buildWordIndex() {
+        wordIndex = new HashMap<String,Integer>(2 * wordVector.length);
+        for (int j=0; j < wordVector.length; j++) {
+            wordIndex.putIfAbsent(wordVector[j], j);
         }
     }
     
     
     public int size() {
+        if (isHashed()) {
+            return config.numHashBuckets;
+        }
         return wordVector.length;
     }
     
     public String[] getCodebook() {
+        /* null for a hashed codebook */
         return wordVector;
     }
     
+    public int getIndex(String word) {
+        /* Index of the word in the codebook, -1 if it is not in the codebook */
+        if (isHashed()) {
+            return Integer.remainderUnsigned(hash(word, config.hashSeed), config.numHashBuckets);
+        }
+        Integer index = wordIndex.get(word);
+        return index!=null ? index : -1;
+    }
+    
+    public int getSign(String word) {
+        /* Hashed codebook with sign hash: -1 or +1, from a hash with another seed than the index (independent of the bucket), otherwise: +1 */
+        if (isHashed() && config.bHashSign) {
+            return hash(word, ~config.hashSeed) < 0 ? -1 : 1;
+        }
+        return 1;
+    }
+    
+    public boolean isHashed() {
+        return config.numHashBuckets > 0;
+    }
+    
+    public int getNumHashBuckets() {
+        return config.numHashBuckets;
+    }
+    
+    public boolean getHashSign() {
+        return config.bHashSign;
+    }
+    
+    public int getHashSeed() {
+        return config.hashSeed;
+    }
+    
     public String getStopCharacters() {
         return config.stopChar;
     }
@@ -104,9 +235,48 @@ public class CodebookText extends Codebook {
     }
     
     public void setCodebook(String[] wordVector, String stopCharacters, int nGram, int nCharGram) {
-        this.wordVector       = wordVector;
-        this.config.stopChar  = stopCharacters;
-        this.config.nGram     = nGram;
-        this.config.nCharGram = nCharGram;
+        this.wordVector            = wordVector;
+        this.config.numHashBuckets = 0;
+        this.config.stopChar       = stopCharacters;
+        this.config.nGram          = nGram;
+        this.config.nCharGram      = nCharGram;
+        buildWordIndex();
+    }
+    
+    public void setHashedCodebook(int numHashBuckets, boolean bHashSign, int hashSeed, String stopCharacters, int nGram, int nCharGram) {
+        this.wordVector            = null;
+        this.wordIndex             = null;
+        this.config.numHashBuckets = numHashBuckets;
+        this.config.bHashSign      = bHashSign;
+        this.config.hashSeed       = hashSeed;
+        this.config.stopChar       = stopCharacters;
+        this.config.nGram          = nGram;
+        this.config.nCharGram      = nCharGram;
+    }
+    
+    
+    private static int hash(String word, int seed) {
+        /* MurmurHash3 (32 bit) of the characters of the word (two characters per block), the same on all platforms */
+        int length = word.length();
+        int h      = seed;
+        int i      = 0;
+        for (; i + 1 < length; i += 2) {
+            h ^= mixBlock(word.charAt(i) | (word.charAt(i+1) << 16));
+            h  = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        if (i < length) {
+            h ^= mixBlock(word.charAt(i));
+        }
+        h ^= 2 * length;  /* Length in bytes */
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+    
+    private static int mixBlock(int block) {
+        return Integer.rotateLeft(block * 0xcc9e2d51, 15) * 0x1b873593;
     }
 }
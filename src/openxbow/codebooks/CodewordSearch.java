@@ -0,0 +1,99 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public abstract class CodewordSearch {
+    /* Search for the codewords closest to the input feature vectors (squared Euclidean distance), used to assign the frames to the */
+    /* codewords in the bag-of-words. The frames are processed in tiles (at most TILE_FRAMES frames), so that the implementations  */
+    /* can reuse each codeword for several frames. An instance keeps scratch buffers and must not be shared between threads.        */
+    
+    public static final int TILE_FRAMES = 64;
+    
+    protected float[][] codebook;
+    
+    
+    public CodewordSearch(float[][] codebook) {
+        this.codebook = codebook;
+    }
+    
+    
+    public static CodewordSearch create(String method, float[][] codebook) {
+        /* method: direct, blocked or kdtree (see option -assign); hnsw needs the graph of the codebook (see CodewordSearchHNSW) */
+        if (method.equals("blocked")) {
+            return new CodewordSearchBlocked(codebook);
+        }
+        if (method.equals("kdtree") && codebook.length > 0 && KDTree.isEffective(codebook.length, codebook[0].length)) {
+            return new CodewordSearchKDTree(codebook);
+        }
+        return new CodewordSearchDirect(codebook);
+    }
+    
+    
+    /* Finds the numNearest closest codewords of each of the first numFrames frames, in ascending order of the distance:           */
+    /* nearest[f][a] is the index of the a-th closest codeword of frame f, nearestDistances[f][a] its squared distance.            */
+    public abstract void findNearest(float[][] frames, int numFrames, int numNearest, int[][] nearest, float[][] nearestDistances);
+    
+    /* Returns a search over the same codebook for another thread: Precomputed data (norms, tree, graph) is shared, scratch buffers are not. */
+    public abstract CodewordSearch copy();
+    
+    
+    protected static void selectNearest(float[] distance, int numNearest, int[] nearest, float[] nearestDistances) {
+        /* Selects the closest codewords in one pass over the distances */
+        clearNearest(numNearest, nearest, nearestDistances);
+        for (int j=0; j < distance.length; j++) {
+            insertNearest(j, distance[j], numNearest, nearest, nearestDistances);
+        }
+    }
+    
+    
+    protected static void clearNearest(int numNearest, int[] nearest, float[] nearestDistances) {
+        /* Positions which are not filled (fewer codewords than numNearest) keep index 0 and distance Float.MAX_VALUE */
+        for (int a=0; a < numNearest; a++) {
+            nearest[a]          = 0;
+            nearestDistances[a] = Float.MAX_VALUE;
+        }
+    }
+    
+    
+    protected static void insertNearest(int index, float distance, int numNearest, int[] nearest, float[] nearestDistances) {
+        /* Inserts the codeword into the sorted list of the numNearest closest codewords so far, if it is closer than the last one.    */
+        /* For equal distances, the codeword with the lower index comes first (as with a repeated search of the minimum), independent  */
+        /* of the order of insertion.                                                                                                  */
+        if (numNearest < 1 || !isCloser(index, distance, nearest[numNearest-1], nearestDistances[numNearest-1])) {
+            return;
+        }
+        int a = numNearest - 1;
+        while (a > 0 && isCloser(index, distance, nearest[a-1], nearestDistances[a-1])) {
+            nearest[a]          = nearest[a-1];
+            nearestDistances[a] = nearestDistances[a-1];
+            a--;
+        }
+        nearest[a]          = index;
+        nearestDistances[a] = distance;
+    }
+    
+    
+    private static boolean isCloser(int index1, float distance1, int index2, float distance2) {
+        return distance1 < distance2 || (distance1==distance2 && index1 < index2);
+    }
+}
@@ -0,0 +1,114 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class CodewordSearchBlocked extends CodewordSearch {
+    /* Computes the distances of a tile of frames to all codewords as a blocked matrix product: ||x-c||^2 = ||x||^2 - 2 x.c + ||c||^2. */
+    /* The codebook is processed in blocks which fit into the (L2) cache, each block is used for all frames of the tile. The inner   */
+    /* kernel computes the dot products of two frames with two codewords at once, so that each loaded value is used twice.          */
+    /* The distances can differ from the direct computation by rounding errors, which are larger for features with large absolute   */
+    /* values (compared to the distances), standardization or normalization of the input (-standardizeInput, -normalizeInput) helps. */
+    
+    private static final int BLOCK_BYTES = 256 * 1024;  /* Size of a block of codewords */
+    
+    private float[]   codewordNorms = null;  /* ||c||^2 */
+    private int       blockSize;             /* Number of codewords per block */
+    private float[]   frameNorms    = new float[TILE_FRAMES];
+    private float[][] distances     = null;  /* Dim 1: frame in the tile, Dim 2: codeword */
+    
+    
+    public CodewordSearchBlocked(float[][] codebook) {
+        super(codebook);
+        int numFeatures = codebook.length > 0 ? codebook[0].length : 1;
+        this.blockSize  = Math.max(2, BLOCK_BYTES / (4 * Math.max(1, numFeatures)));
+        
+        this.codewordNorms = new float[codebook.length];
+        for (int j=0; j < codebook.length; j++) {
+            codewordNorms[j] = (float) Distances.dotProduct(codebook[j], codebook[j]);
+        }
+        this.distances = new float[TILE_FRAMES][codebook.length];
+    }
+    
+    private CodewordSearchBlocked(CodewordSearchBlocked other) {
+        super(other.codebook);
+        this.blockSize     = other.blockSize;
+        this.codewordNorms = other.codewordNorms;
+        this.distances     = new float[TILE_FRAMES][codebook.length];
+    }
+    
+    
+    public CodewordSearch copy() {
+        return new CodewordSearchBlocked(this);
+    }
+    
+    
+    public void findNearest(float[][] frames, int numFrames, int numNearest, int[][] nearest, float[][] nearestDistances) {
+        if (numFrames > distances.length) {
+            frameNorms = new float[numFrames];
+            distances  = new float[numFrames][codebook.length];
+        }
+        for (int f=0; f < numFrames; f++) {
+            frameNorms[f] = (float) Distances.dotProduct(frames[f], frames[f]);
+        }
+        
+        for (int blockStart=0; blockStart < codebook.length; blockStart += blockSize) {
+            int blockEnd = Math.min(blockStart + blockSize, codebook.length);
+            for (int f=0; f < numFrames; f += 2) {
+                int f1 = Math.min(f + 1, numFrames - 1);  /* Last frame is computed twice for an odd number of frames */
+                for (int j=blockStart; j < blockEnd; j += 2) {
+                    int j1 = Math.min(j + 1, blockEnd - 1);
+                    computeDistances2x2(frames[f], frames[f1], f, f1, j, j1);
+                }
+            }
+        }
+        
+        for (int f=0; f < numFrames; f++) {
+            selectNearest(distances[f], numNearest, nearest[f], nearestDistances[f]);
+        }
+    }
+    
+    
+    private void computeDistances2x2(float[] frame0, float[] frame1, int f0, int f1, int j0, int j1) {
+        float[] codeword0 = codebook[j0];
+        float[] codeword1 = codebook[j1];
+        float   dot00     = 0.0f;
+        float   dot01     = 0.0f;
+        float   dot10     = 0.0f;
+        float   dot11     = 0.0f;
+        for (int m=0; m < frame0.length; m++) {
+            float x0 = frame0[m];
+            float x1 = frame1[m];
+            float c0 = codeword0[m];
+            float c1 = codeword1[m];
+            dot00 += x0 * c0;
+            dot01 += x0 * c1;
+            dot10 += x1 * c0;
+            dot11 += x1 * c1;
+        }
+        /* Rounding may give (small) negative values */
+        distances[f0][j0] = Math.max(0.0f, frameNorms[f0] - 2.0f * dot00 + codewordNorms[j0]);
+        distances[f0][j1] = Math.max(0.0f, frameNorms[f0] - 2.0f * dot01 + codewordNorms[j1]);
+        distances[f1][j0] = Math.max(0.0f, frameNorms[f1] - 2.0f * dot10 + codewordNorms[j0]);
+        distances[f1][j1] = Math.max(0.0f, frameNorms[f1] - 2.0f * dot11 + codewordNorms[j1]);
+    }
+}
@@ -0,0 +1,46 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class CodewordSearchDirect extends CodewordSearch {
+    /* Computes the distances of each frame to all codewords, one frame at a time, and keeps the closest ones while computing them */
+    
+    public CodewordSearchDirect(float[][] codebook) {
+        super(codebook);
+    }
+    
+    
+    public void findNearest(float[][] frames, int numFrames, int numNearest, int[][] nearest, float[][] nearestDistances) {
+        for (int f=0; f < numFrames; f++) {
+            clearNearest(numNearest, nearest[f], nearestDistances[f]);
+            for (int j=0; j < codebook.length; j++) {
+                insertNearest(j, Distances.squaredEuclidean(frames[f], codebook[j]), numNearest, nearest[f], nearestDistances[f]);
+            }
+        }
+    }
+    
+    
+    public CodewordSearch copy() {
+        return new CodewordSearchDirect(codebook);
+    }
+}
@@ -0,0 +1,52 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class CodewordSearchHNSW extends CodewordSearch {
+    /* Approximate search with an HNSW graph over the codebook, for very large codebooks */
+    
+    private HNSWGraph         graph;
+    private int               efSearch;
+    private HNSWGraph.Scratch scratch = null;
+    
+    
+    public CodewordSearchHNSW(HNSWGraph graph, float[][] codebook, int efSearch) {
+        /* The graph can be shared between several instances (threads) */
+        super(codebook);
+        this.graph    = graph;
+        this.efSearch = efSearch;
+        this.scratch  = new HNSWGraph.Scratch(graph);
+    }
+    
+    
+    public CodewordSearch copy() {
+        return new CodewordSearchHNSW(graph, codebook, efSearch);
+    }
+    
+    
+    public void findNearest(float[][] frames, int numFrames, int numNearest, int[][] nearest, float[][] nearestDistances) {
+        for (int f=0; f < numFrames; f++) {
+            graph.findNearest(frames[f], numNearest, efSearch, nearest[f], nearestDistances[f], scratch);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class CodewordSearchKDTree extends CodewordSearch {
+    /* Exact search with a KD-tree over the codebook. If the tree turns out to compute the distances to a large part of the codebook  */
+    /* anyway (high intrinsic dimensionality of the data), the search falls back to brute force (same results, no overhead of the tree). */
+    
+    private KDTree               tree;
+    private CodewordSearchDirect bruteForce  = null;  /* Not null after the fall back */
+    private double[]             offsets     = null;  /* Scratch array of the tree search */
+    private long                 numComputed = 0;     /* Number of computed distances */
+    private long                 numQueries  = 0;
+    
+    
+    public CodewordSearchKDTree(float[][] codebook) {
+        this(new KDTree(codebook), codebook);
+    }
+    
+    public CodewordSearchKDTree(KDTree tree, float[][] codebook) {
+        /* The tree can be shared between several instances (threads) */
+        super(codebook);
+        this.tree    = tree;
+        this.offsets = new double[codebook.length > 0 ? codebook[0].length : 0];
+    }
+    
+    
+    public CodewordSearch copy() {
+        /* The copy decides about the fall back on its own (the results are the same anyway) */
+        return new CodewordSearchKDTree(tree, codebook);
+    }
+    
+    
+    public void findNearest(float[][] frames, int numFrames, int numNearest, int[][] nearest, float[][] nearestDistances) {
+        if (bruteForce!=null) {
+            bruteForce.findNearest(frames, numFrames, numNearest, nearest, nearestDistances);
+            return;
+        }
+        
+        for (int f=0; f < numFrames; f++) {
+            numComputed += tree.findNearest(frames[f], numNearest, nearest[f], nearestDistances[f], offsets);
+        }
+        numQueries += numFrames;
+        
+        if (numQueries >= TILE_FRAMES && !KDTree.isEffective(numComputed, numQueries, codebook.length)) {
+            bruteForce = new CodewordSearchDirect(codebook);
+        }
+    }
+}
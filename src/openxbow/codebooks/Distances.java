@@ -0,0 +1,163 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class Distances {
+    /* Distance kernels shared by the codebook generation and the assignment of the bag-of-words.                                  */
+    /* The loops are unrolled with four independent partial sums, so that each addition does not have to wait for the previous one */
+    /* and the JIT compiler can keep several (SIMD) operations in flight. The partial sums are added in a fixed order, so that all */
+    /* kernels (with or without bound) give exactly the same result for the same vectors.                                         */
+    
+    
+    public static float squaredEuclidean(float[] vector1, float[] vector2) {
+        int   length = vector1.length;
+        int   end    = length & ~3;
+        float sum0   = 0.0f;
+        float sum1   = 0.0f;
+        float sum2   = 0.0f;
+        float sum3   = 0.0f;
+        for (int m=0; m < end; m += 4) {
+            float diff0 = vector1[m]   - vector2[m];
+            float diff1 = vector1[m+1] - vector2[m+1];
+            float diff2 = vector1[m+2] - vector2[m+2];
+            float diff3 = vector1[m+3] - vector2[m+3];
+            sum0 += diff0 * diff0;
+            sum1 += diff1 * diff1;
+            sum2 += diff2 * diff2;
+            sum3 += diff3 * diff3;
+        }
+        for (int m=end; m < length; m++) {
+            float diff = vector1[m] - vector2[m];
+            sum0 += diff * diff;
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+    
+    
+    public static float squaredEuclideanScaled(float[] vector1, float[] vector2, float[] width) {
+        /* Each dimension is divided by its width (range) */
+        int   length = vector1.length;
+        int   end    = length & ~3;
+        float sum0   = 0.0f;
+        float sum1   = 0.0f;
+        float sum2   = 0.0f;
+        float sum3   = 0.0f;
+        for (int m=0; m < end; m += 4) {
+            float diff0 = (vector1[m]   - vector2[m])   / width[m];
+            float diff1 = (vector1[m+1] - vector2[m+1]) / width[m+1];
+            float diff2 = (vector1[m+2] - vector2[m+2]) / width[m+2];
+            float diff3 = (vector1[m+3] - vector2[m+3]) / width[m+3];
+            sum0 += diff0 * diff0;
+            sum1 += diff1 * diff1;
+            sum2 += diff2 * diff2;
+            sum3 += diff3 * diff3;
+        }
+        for (int m=end; m < length; m++) {
+            float diff = (vector1[m] - vector2[m]) / width[m];
+            sum0 += diff * diff;
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+    
+    
+    public static double squaredEuclideanDouble(float[] vector1, float[] vector2) {
+        /* In double precision */
+        int    length = vector1.length;
+        int    end    = length & ~3;
+        double sum0   = 0.0;
+        double sum1   = 0.0;
+        double sum2   = 0.0;
+        double sum3   = 0.0;
+        for (int m=0; m < end; m += 4) {
+            double diff0 = (double) vector1[m]   - vector2[m];
+            double diff1 = (double) vector1[m+1] - vector2[m+1];
+            double diff2 = (double) vector1[m+2] - vector2[m+2];
+            double diff3 = (double) vector1[m+3] - vector2[m+3];
+            sum0 += diff0 * diff0;
+            sum1 += diff1 * diff1;
+            sum2 += diff2 * diff2;
+            sum3 += diff3 * diff3;
+        }
+        for (int m=end; m < length; m++) {
+            double diff = (double) vector1[m] - vector2[m];
+            sum0 += diff * diff;
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+    
+    
+    public static double dotProduct(float[] vector1, float[] vector2) {
+        /* In double precision */
+        int    length = vector1.length;
+        int    end    = length & ~3;
+        double sum0   = 0.0;
+        double sum1   = 0.0;
+        double sum2   = 0.0;
+        double sum3   = 0.0;
+        for (int m=0; m < end; m += 4) {
+            sum0 += (double) vector1[m]   * vector2[m];
+            sum1 += (double) vector1[m+1] * vector2[m+1];
+            sum2 += (double) vector1[m+2] * vector2[m+2];
+            sum3 += (double) vector1[m+3] * vector2[m+3];
+        }
+        for (int m=end; m < length; m++) {
+            sum0 += (double) vector1[m] * vector2[m];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+    
+    
+    public static float mahalanobis(float[] vector, float[] mean, float[] invCovariances) {
+        /* Squared Mahalanobis distance with a diagonal covariance matrix (given as its inverse) */
+        return mahalanobis(vector, mean, invCovariances, Float.POSITIVE_INFINITY);
+    }
+    
+    
+    public static float mahalanobis(float[] vector, float[] mean, float[] invCovariances, float bound) {
+        /* Stops as soon as the distance exceeds bound (checked every 16 dimensions), the partial distance is returned then */
+        int   length = vector.length;
+        int   end    = length & ~3;
+        float sum0   = 0.0f;
+        float sum1   = 0.0f;
+        float sum2   = 0.0f;
+        float sum3   = 0.0f;
+        for (int m=0; m < end; m += 4) {
+            float diff0 = vector[m]   - mean[m];
+            float diff1 = vector[m+1] - mean[m+1];
+            float diff2 = vector[m+2] - mean[m+2];
+            float diff3 = vector[m+3] - mean[m+3];
+            sum0 += diff0 * diff0 * invCovariances[m];
+            sum1 += diff1 * diff1 * invCovariances[m+1];
+            sum2 += diff2 * diff2 * invCovariances[m+2];
+            sum3 += diff3 * diff3 * invCovariances[m+3];
+            if ((m & 15)==12 && (sum0 + sum1) + (sum2 + sum3) > bound) {
+                return (sum0 + sum1) + (sum2 + sum3);
+            }
+        }
+        for (int m=end; m < length; m++) {
+            float diff = vector[m] - mean[m];
+            sum0 += diff * diff * invCovariances[m];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+}
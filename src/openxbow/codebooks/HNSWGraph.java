@@ -0,0 +1,468 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class HNSWGraph {
+    /* Hierarchical navigable small world graph (Malkov & Yashunin, 2018) over the codewords for approximate nearest-neighbour search */
+    /* (squared Euclidean distance). Each codeword is inserted on a random number of layers (exponentially decaying probability)   */
+    /* and linked to up to M neighbours per layer (2M on the lowest layer), selected with the neighbour heuristic of the paper.    */
+    /* A query descends greedily through the upper layers and searches the lowest layer with a candidate list of length efSearch. */
+    /* Larger M and efConstruction give a better graph (slower to build), larger efSearch a better recall (slower queries).      */
+    /* The graph is not modified by queries and can be shared between threads (each thread needs its own Scratch).             */
+    
+    private static final int MAX_LEVEL = 32;
+    
+    private float[][] codebook;
+    private int       M;
+    private int       efConstruction;
+    private int[]     levels;      /* Highest layer of each codeword */
+    private int[][][] links;       /* Dim 1: codeword, Dim 2: layer, Dim 3: neighbours */
+    private int[][]   numLinks;    /* Dim 1: codeword, Dim 2: layer */
+    private int       entryPoint = -1;
+    private int       maxLevel   = -1;
+    
+    
+    public HNSWGraph(float[][] codebook, int M, int efConstruction, int randomSeed) {
+        this(codebook, M, efConstruction);
+        
+        Random  randGenerator = new Random(randomSeed);
+        double  levelFactor   = 1.0 / Math.log(Math.max(2, M));
+        Scratch scratch       = new Scratch(this);
+        for (int j=0; j < codebook.length; j++) {
+            int level = (int) Math.min(MAX_LEVEL, Math.floor(-Math.log(1.0 - randGenerator.nextDouble()) * levelFactor));
+            insert(j, level, scratch);
+        }
+    }
+    
+    private HNSWGraph(float[][] codebook, int M, int efConstruction) {
+        this.codebook       = codebook;
+        this.M              = Math.max(2, M);
+        this.efConstruction = Math.max(this.M, efConstruction);
+        this.levels         = new int[codebook.length];
+        this.links          = new int[codebook.length][][];
+        this.numLinks       = new int[codebook.length][];
+    }
+    
+    
+    public static class Scratch {
+        /* Working memory of a search */
+        private int[]    visited;                               /* Mark of the last search which has visited the codeword */
+        private int      mark            = 0;
+        private NodeHeap candidates      = new NodeHeap(64, false);
+        private NodeHeap results         = new NodeHeap(64, true);
+        private int[]    sortedIds       = new int[64];
+        private float[]  sortedDistances = new float[64];
+        private int[]    selected        = new int[64];
+        
+        public Scratch(HNSWGraph graph) {
+            this.visited = new int[graph.codebook.length];
+        }
+        
+        private void newMark() {
+            mark++;
+            if (mark==Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                mark = 1;
+            }
+        }
+        
+        private void ensureSorted(int length) {
+            if (sortedIds.length < length) {
+                sortedIds       = new int[length];
+                sortedDistances = new float[length];
+                selected        = new int[length];
+            }
+        }
+    }
+    
+    
+    private int getMaxLinks(int level) {
+        return level==0 ? 2 * M : M;
+    }
+    
+    
+    private void insert(int node, int level, Scratch scratch) {
+        levels[node]   = level;
+        links[node]    = new int[level+1][];
+        numLinks[node] = new int[level+1];
+        for (int l=0; l <= level; l++) {
+            links[node][l] = new int[getMaxLinks(l)];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel   = level;
+            return;
+        }
+        
+        float[] query = codebook[node];
+        int     entry = entryPoint;
+        for (int l=maxLevel; l > level; l--) {
+            entry = searchGreedy(query, entry, l);
+        }
+        
+        for (int l=Math.min(level, maxLevel); l >= 0; l--) {
+            searchLayer(query, entry, efConstruction, l, scratch);
+            int numCandidates = sortResults(scratch);
+            int numSelected   = selectNeighbors(scratch.sortedIds, scratch.sortedDistances, numCandidates, M, scratch.selected);
+            for (int s=0; s < numSelected; s++) {
+                int neighbor = scratch.selected[s];
+                links[node][l][numLinks[node][l]++] = neighbor;
+            }
+            for (int s=0; s < numSelected; s++) {
+                addLink(scratch.selected[s], node, l);
+            }
+            entry = scratch.sortedIds[0];
+        }
+        
+        if (level > maxLevel) {
+            maxLevel   = level;
+            entryPoint = node;
+        }
+    }
+    
+    
+    private void addLink(int node, int neighbor, int level) {
+        /* Adds the link node->neighbor, if the list of node is full, its neighbours are selected again with the heuristic */
+        int maxLinks = getMaxLinks(level);
+        if (numLinks[node][level] < maxLinks) {
+            links[node][level][numLinks[node][level]++] = neighbor;
+            return;
+        }
+        
+        int[]   ids       = new int[maxLinks + 1];
+        float[] distances = new float[maxLinks + 1];
+        for (int k=0; k < maxLinks; k++) {
+            ids[k] = links[node][level][k];
+        }
+        ids[maxLinks] = neighbor;
+        for (int k=0; k <= maxLinks; k++) {
+            distances[k] = Distances.squaredEuclidean(codebook[node], codebook[ids[k]]);
+        }
+        sortByDistance(ids, distances, maxLinks + 1);
+        numLinks[node][level] = selectNeighbors(ids, distances, maxLinks + 1, maxLinks, links[node][level]);
+    }
+    
+    
+    private int selectNeighbors(int[] ids, float[] distances, int numCandidates, int maxSelected, int[] selected) {
+        /* Heuristic: Candidates (ascending distance to the base) are only selected if they are closer to the base than to all      */
+        /* neighbours selected so far, so that the links point in different directions. selected may be the array of a link list. */
+        int[] result    = new int[Math.min(numCandidates, maxSelected)];
+        int   numResult = 0;
+        for (int c=0; c < numCandidates && numResult < maxSelected; c++) {
+            boolean bGood = true;
+            for (int r=0; r < numResult; r++) {
+                if (Distances.squaredEuclidean(codebook[ids[c]], codebook[result[r]]) < distances[c]) {
+                    bGood = false;
+                    break;
+                }
+            }
+            if (bGood) {
+                result[numResult++] = ids[c];
+            }
+        }
+        System.arraycopy(result, 0, selected, 0, numResult);
+        return numResult;
+    }
+    
+    
+    private int searchGreedy(float[] query, int entry, int level) {
+        /* Moves to the closest neighbour as long as the distance decreases */
+        int     current  = entry;
+        float   distance = Distances.squaredEuclidean(query, codebook[current]);
+        boolean bChanged = true;
+        while (bChanged) {
+            bChanged = false;
+            for (int k=0; k < numLinks[current][level]; k++) {
+                int   neighbor         = links[current][level][k];
+                float neighborDistance = Distances.squaredEuclidean(query, codebook[neighbor]);
+                if (isCloser(neighborDistance, neighbor, distance, current)) {
+                    distance = neighborDistance;
+                    current  = neighbor;
+                    bChanged = true;
+                }
+            }
+        }
+        return current;
+    }
+    
+    
+    private void searchLayer(float[] query, int entry, int ef, int level, Scratch scratch) {
+        /* Best-first search, the ef closest codewords found are in scratch.results afterwards */
+        NodeHeap candidates = scratch.candidates;
+        NodeHeap results    = scratch.results;
+        candidates.clear();
+        results.clear();
+        scratch.newMark();
+        
+        float distance = Distances.squaredEuclidean(query, codebook[entry]);
+        scratch.visited[entry] = scratch.mark;
+        candidates.push(distance, entry);
+        results.push(distance, entry);
+        
+        while (candidates.size() > 0) {
+            float candidateDistance = candidates.topDistance();
+            int   candidate         = candidates.topId();
+            if (results.size() >= ef && isCloser(results.topDistance(), results.topId(), candidateDistance, candidate)) {
+                break;  /* All remaining candidates are farther than the results */
+            }
+            candidates.pop();
+            
+            for (int k=0; k < numLinks[candidate][level]; k++) {
+                int neighbor = links[candidate][level][k];
+                if (scratch.visited[neighbor]==scratch.mark) {
+                    continue;
+                }
+                scratch.visited[neighbor] = scratch.mark;
+                
+                float neighborDistance = Distances.squaredEuclidean(query, codebook[neighbor]);
+                if (results.size() < ef || isCloser(neighborDistance, neighbor, results.topDistance(), results.topId())) {
+                    candidates.push(neighborDistance, neighbor);
+                    results.push(neighborDistance, neighbor);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private int sortResults(Scratch scratch) {
+        /* Moves the results into scratch.sortedIds/sortedDistances in ascending order of the distance */
+        NodeHeap results    = scratch.results;
+        int      numResults = results.size();
+        scratch.ensureSorted(numResults);
+        for (int k=numResults-1; k >= 0; k--) {
+            scratch.sortedIds[k]       = results.topId();
+            scratch.sortedDistances[k] = results.topDistance();
+            results.pop();
+        }
+        return numResults;
+    }
+    
+    
+    public void findNearest(float[] query, int numNearest, int efSearch, int[] nearest, float[] nearestDistances, Scratch scratch) {
+        /* Approximate numNearest closest codewords (see CodewordSearch.findNearest()), efSearch: length of the candidate list */
+        CodewordSearch.clearNearest(numNearest, nearest, nearestDistances);
+        if (entryPoint < 0) {
+            return;
+        }
+        int entry = entryPoint;
+        for (int l=maxLevel; l > 0; l--) {
+            entry = searchGreedy(query, entry, l);
+        }
+        searchLayer(query, entry, Math.max(efSearch, numNearest), 0, scratch);
+        
+        NodeHeap results = scratch.results;
+        while (results.size() > 0) {
+            CodewordSearch.insertNearest(results.topId(), results.topDistance(), numNearest, nearest, nearestDistances);
+            results.pop();
+        }
+    }
+    
+    
+    public int size() {
+        return codebook.length;
+    }
+    
+    
+    public void write(DataOutputStream out) throws IOException {
+        /* Header: number of codewords, checksum of the codewords, M and efConstruction (checked by read()) */
+        out.writeInt(codebook.length);
+        out.writeLong(checksum(codebook));
+        out.writeInt(M);
+        out.writeInt(efConstruction);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int j=0; j < codebook.length; j++) {
+            out.writeInt(levels[j]);
+            for (int l=0; l <= levels[j]; l++) {
+                out.writeInt(numLinks[j][l]);
+                for (int k=0; k < numLinks[j][l]; k++) {
+                    out.writeInt(links[j][l][k]);
+                }
+            }
+        }
+    }
+    
+    
+    public static HNSWGraph read(DataInputStream in, float[][] codebook, int M, int efConstruction) throws IOException {
+        /* Returns null if the graph does not match the codebook or the parameters M and efConstruction, or if it is not consistent */
+        int numNodes = in.readInt();
+        if (numNodes!=codebook.length || in.readLong()!=checksum(codebook)) {
+            return null;
+        }
+        HNSWGraph graph = new HNSWGraph(codebook, M, efConstruction);
+        if (in.readInt()!=graph.M || in.readInt()!=graph.efConstruction) {
+            return null;
+        }
+        graph.entryPoint = in.readInt();
+        graph.maxLevel   = in.readInt();
+        if (numNodes==0 ? (graph.entryPoint!=-1 || graph.maxLevel!=-1) : (graph.entryPoint < 0 || graph.entryPoint >= numNodes || graph.maxLevel < 0 || graph.maxLevel > MAX_LEVEL)) {
+            return null;
+        }
+        for (int j=0; j < numNodes; j++) {
+            int level = in.readInt();
+            if (level < 0 || level > graph.maxLevel) {
+                return null;
+            }
+            graph.levels[j]   = level;
+            graph.links[j]    = new int[level+1][];
+            graph.numLinks[j] = new int[level+1];
+            for (int l=0; l <= level; l++) {
+                int numLinks = in.readInt();
+                if (numLinks < 0 || numLinks > graph.getMaxLinks(l)) {
+                    return null;
+                }
+                graph.links[j][l]    = new int[graph.getMaxLinks(l)];
+                graph.numLinks[j][l] = numLinks;
+                for (int k=0; k < numLinks; k++) {
+                    int neighbor = in.readInt();
+                    if (neighbor < 0 || neighbor >= numNodes) {
+                        return null;
+                    }
+                    graph.links[j][l][k] = neighbor;
+                }
+            }
+        }
+        if (numNodes > 0 && graph.levels[graph.entryPoint]!=graph.maxLevel) {
+            return null;
+        }
+        return graph;
+    }
+    
+    
+    private static long checksum(float[][] codebook) {
+        /* FNV-1a (64 bit) over the bits of all codewords */
+        long checksum = 0xcbf29ce484222325L;
+        for (float[] codeword : codebook) {
+            for (float value : codeword) {
+                checksum = (checksum ^ Float.floatToIntBits(value)) * 0x100000001b3L;
+            }
+        }
+        return checksum;
+    }
+    
+    
+    private static void sortByDistance(int[] ids, float[] distances, int length) {
+        /* Insertion sort (short lists) */
+        for (int k=1; k < length; k++) {
+            int   id       = ids[k];
+            float distance = distances[k];
+            int   p        = k;
+            while (p > 0 && isCloser(distance, id, distances[p-1], ids[p-1])) {
+                ids[p]       = ids[p-1];
+                distances[p] = distances[p-1];
+                p--;
+            }
+            ids[p]       = id;
+            distances[p] = distance;
+        }
+    }
+    
+    
+    private static boolean isCloser(float distance1, int id1, float distance2, int id2) {
+        return distance1 < distance2 || (distance1==distance2 && id1 < id2);
+    }
+    
+    
+    private static class NodeHeap {
+        /* Binary heap of codewords by distance (ties: index), bMax: largest distance on top, otherwise smallest */
+        private boolean bMax;
+        private float[] distances;
+        private int[]   ids;
+        private int     size = 0;
+        
+        NodeHeap(int capacity, boolean bMax) {
+            this.bMax      = bMax;
+            this.distances = new float[capacity];
+            this.ids       = new int[capacity];
+        }
+        
+        void clear() {
+            size = 0;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        float topDistance() {
+            return distances[0];
+        }
+        
+        int topId() {
+            return ids[0];
+        }
+        
+        void push(float distance, int id) {
+            if (size==ids.length) {
+                distances = Arrays.copyOf(distances, 2 * size);
+                ids       = Arrays.copyOf(ids, 2 * size);
+            }
+            int k = size++;
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!isAbove(distance, id, distances[parent], ids[parent])) {
+                    break;
+                }
+                distances[k] = distances[parent];
+                ids[k]       = ids[parent];
+                k = parent;
+            }
+            distances[k] = distance;
+            ids[k]       = id;
+        }
+        
+        void pop() {
+            size--;
+            float distance = distances[size];
+            int   id       = ids[size];
+            int   k        = 0;
+            while (2 * k + 1 < size) {
+                int child = 2 * k + 1;
+                if (child + 1 < size && isAbove(distances[child+1], ids[child+1], distances[child], ids[child])) {
+                    child++;
+                }
+                if (!isAbove(distances[child], ids[child], distance, id)) {
+                    break;
+                }
+                distances[k] = distances[child];
+                ids[k]       = ids[child];
+                k = child;
+            }
+            distances[k] = distance;
+            ids[k]       = id;
+        }
+        
+        private boolean isAbove(float distance1, int id1, float distance2, int id2) {
+            return bMax ? isCloser(distance2, id2, distance1, id1) : isCloser(distance1, id1, distance2, id2);
+        }
+    }
+}
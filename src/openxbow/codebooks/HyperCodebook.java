@@ -20,9 +20,15 @@
 
 package openxbow.codebooks;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -37,6 +43,10 @@ import openxbow.main.Options;
 
 
 public class HyperCodebook {
+    private static final String HNSW_EXTENSION = ".hnsw";  /* HNSW graphs are saved next to the codebook file (-B) */
+    private static final int    HNSW_MAGIC     = 0x484E5357;
+    private static final int    HNSW_VERSION   = 2;  /* 2: header of each graph with checksum of the codewords, M and efConstruction */
+    
     private DataManager DM      = null;
     private Options     options = null;
     
@@ -120,6 +130,9 @@ public class HyperCodebook {
                     options.bRemoveLowEnergy = true;
                     options.energyIndex      = Integer.parseInt(content[1]);
                     options.energyThreshold  = Float.parseFloat(content[2]); 
+                    setRemoveLowEnergy();
+                    setEnergyIndex(options.energyIndex);
+                    setEnergyThreshold(options.energyThreshold);
                 }
                 else if (content[0].equals("standardizeInput")) {
                     options.bStandardizeInput = true;
@@ -162,6 +175,18 @@ public class HyperCodebook {
                     
                     ((CodebookText)codebooks.get(0)).setCodebook(codewords, stopWords, nGram, nCharGram);
                 }
+                else if (content[0].equals("codebookTextHashed")) {
+                    String stopWords = br.readLine();
+                    int    nGram     = Integer.parseInt(br.readLine());
+                    int    nCharGram = Integer.parseInt(br.readLine());
+                    
+                    content = br.readLine().split(";");  /* Number of buckets, sign hash, seed */
+                    int     numHashBuckets = Integer.parseInt(content[0]);
+                    boolean bHashSign      = Integer.parseInt(content[1])==1;
+                    int     hashSeed       = Integer.parseInt(content[2]);
+                    
+                    ((CodebookText)codebooks.get(0)).setHashedCodebook(numHashBuckets, bHashSign, hashSeed, stopWords, nGram, nCharGram);
+                }
                 else if (content[0].equals("codebookNumeric") || content[0].equals("codebookNumericNGram") || content[0].equals("codebookNumericGMM")) {
                     boolean bNumGrams = false;
                     if (content[0].equals("codebookNumericNGram")) {
@@ -276,10 +301,56 @@ public class HyperCodebook {
         options.gmmEncoding      = gmmEncoding;
         options.offCodewords     = offCodewords;
         
+        if (options.assignMethod.equals("hnsw") && new File(fileName + HNSW_EXTENSION).exists()) {
+            loadHNSWGraphs(fileName + HNSW_EXTENSION);
+        }
+        
         return true;
     }
     
     
+    private void loadHNSWGraphs(String fileName) {
+        /* The graphs are only used if all of them match the codebooks and the HNSW parameters, otherwise, they are built again */
+        Map<CodebookNumeric,HNSWGraph> graphs = new HashMap<CodebookNumeric,HNSWGraph>();
+        DataInputStream                in     = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+            if (in.readInt()!=HNSW_MAGIC || in.readInt()!=HNSW_VERSION) {
+                System.err.println("Warning: " + fileName + " is not a valid HNSW graph file (or of an older version), the graphs are built again.");
+                return;
+            }
+            int numGraphs = in.readInt();
+            for (int g=0; g < numGraphs; g++) {
+                int index = in.readInt();
+                if (index < 0 || index >= codebooks.size() || !(codebooks.get(index) instanceof CodebookNumeric)) {
+                    System.err.println("Warning: HNSW graph file " + fileName + " does not match the codebook, the graphs are built again.");
+                    return;
+                }
+                CodebookNumeric book  = (CodebookNumeric) codebooks.get(index);
+                HNSWGraph       graph = HNSWGraph.read(in, book.getCodebook(), options.hnswM, options.hnswEfConstruction);
+                if (graph==null) {
+                    System.err.println("Warning: HNSW graph file " + fileName + " does not match the codebook or the HNSW parameters, the graphs are built again.");
+                    return;
+                }
+                graphs.put(book, graph);
+            }
+            for (Entry<CodebookNumeric,HNSWGraph> entry : graphs.entrySet()) {
+                entry.getKey().setHNSWGraph(entry.getValue());
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: HNSW graph file " + fileName + " cannot be read, the graphs are built again.");
+        } finally {
+            try {
+                if (in!=null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    
     private float[] parseFloatLine(String[] line) {
         float[] A = new float[line.length];
         for (int k=0; k < line.length; k++) {
@@ -378,15 +449,22 @@ public class HyperCodebook {
                     CodebookText book = (CodebookText) codeBook;
                     String[] codewords = book.getCodebook();
                     
-                    bw.write("codebookText"); bw.newLine();
+                    bw.write(book.isHashed() ? "codebookTextHashed" : "codebookText"); bw.newLine();
                     bw.write(book.getStopCharacters()); bw.newLine();
                     bw.write(String.valueOf(book.getNGram())); bw.newLine();
                     bw.write(String.valueOf(book.getNCharGram())); bw.newLine();
                     
-                    int numCodewords = codewords.length;
-                    bw.write(String.valueOf(numCodewords)); bw.newLine();
-                    for (int w=0; w < numCodewords; w++) {
-                        bw.write(codewords[w]); bw.newLine();
+                    if (book.isHashed()) {  /* No codewords */
+                        bw.write(String.valueOf(book.getNumHashBuckets()) + ";" 
+                               + String.valueOf(book.getHashSign() ? 1 : 0) + ";" 
+                               + String.valueOf(book.getHashSeed()));
+                        bw.newLine();
+                    } else {
+                        int numCodewords = codewords.length;
+                        bw.write(String.valueOf(numCodewords)); bw.newLine();
+                        for (int w=0; w < numCodewords; w++) {
+                            bw.write(codewords[w]); bw.newLine();
+                        }
                     }
                 } else {
                     CodebookNumeric book = (CodebookNumeric) codeBook;
@@ -501,10 +579,44 @@ public class HyperCodebook {
             e.printStackTrace();
         }
         
+        if (options.assignMethod.equals("hnsw")) {
+            saveHNSWGraphs(fileName + HNSW_EXTENSION);
+        }
+        
         return true;
     }
     
     
+    private void saveHNSWGraphs(String fileName) {
+        /* Graphs of all numeric codebooks, binary (big endian); they are built here unless loaded already, and reused for the assignment */
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int index=0; index < codebooks.size(); index++) {
+            if (codebooks.get(index) instanceof CodebookNumeric && ((CodebookNumeric) codebooks.get(index)).getCodebook().length > 0) {
+                ((CodebookNumeric) codebooks.get(index)).buildHNSWGraph(options.hnswM, options.hnswEfConstruction);
+                indexes.add(index);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+            out.writeInt(HNSW_MAGIC);
+            out.writeInt(HNSW_VERSION);
+            out.writeInt(indexes.size());
+            for (int index : indexes) {
+                out.writeInt(index);
+                ((CodebookNumeric) codebooks.get(index)).getHNSWGraph().write(out);
+            }
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error: HNSW graph file " + fileName + " cannot be written!");
+            e.printStackTrace();
+        }
+    }
+    
+    
     public List<Codebook> getCodebooks() {
         return codebooks;
     }
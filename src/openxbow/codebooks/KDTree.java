@@ -0,0 +1,194 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+
+public class KDTree {
+    /* KD-tree over the codewords for exact k-nearest-neighbour queries (squared Euclidean distance).                               */
+    /* Each inner node splits its codewords at the median of the dimension with the largest spread. A query descends to the leaf   */
+    /* of the query first and visits the other subtrees only if the distance of the query to their cell (computed incrementally,    */
+    /* Arya & Mount) can be below the distance of the k-th closest codeword found so far. The distances of the codewords are        */
+    /* computed with the same kernel as the brute-force search and ties are resolved by the lower index, so the result is the same. */
+    /* The tree is not modified by queries and can be shared between threads (the scratch arrays are passed by the caller).       */
+    
+    public  static final int    MAX_DIMENSIONS = 64;  /* Above, the tree visits (nearly) all codewords anyway */
+    public  static final int    MIN_CODEWORDS  = 32;  /* Below, the brute-force search is faster */
+    public  static final float  MAX_COMPUTED   = 0.25f;  /* Fraction of the codebook: If more distances are computed per query, brute force is faster */
+    private static final int    LEAF_SIZE      = 8;
+    private static final double BOUND_MARGIN   = 1.0 + 1E-5;  /* Cells are only pruned if clearly farther (rounding of the distances) */
+    
+    private float[][] codebook;
+    private int[]     order;        /* Codeword indexes, each node covers a contiguous range */
+    private int[]     nodeStart;    /* Range of the codewords of each node */
+    private int[]     nodeEnd;
+    private int[]     splitDim;     /* -1: leaf */
+    private float[]   splitValue;   /* Codewords of the left child are <= splitValue, of the right child >= splitValue */
+    private int[]     leftChild;    /* The right child is leftChild+1 */
+    private int       numNodes = 0;
+    
+    
+    public KDTree(float[][] codebook) {
+        this.codebook = codebook;
+        int maxNodes  = 2 * codebook.length + 1;
+        
+        order      = new int[codebook.length];
+        nodeStart  = new int[maxNodes];
+        nodeEnd    = new int[maxNodes];
+        splitDim   = new int[maxNodes];
+        splitValue = new float[maxNodes];
+        leftChild  = new int[maxNodes];
+        for (int j=0; j < order.length; j++) {
+            order[j] = j;
+        }
+        
+        numNodes = 1;
+        buildNode(0, 0, codebook.length);
+    }
+    
+    
+    public static boolean isEffective(int numCodewords, int numFeatures) {
+        /* Rule of thumb when the tree is expected to be faster than the brute-force search */
+        return numCodewords >= MIN_CODEWORDS && numFeatures <= MAX_DIMENSIONS;
+    }
+    
+    public static boolean isEffective(long numComputed, long numQueries, int numCodewords) {
+        /* Check after a number of queries (numComputed: sum of the return values of findNearest()) */
+        return numComputed <= MAX_COMPUTED * numCodewords * numQueries;
+    }
+    
+    
+    private void buildNode(int node, int start, int end) {
+        nodeStart[node] = start;
+        nodeEnd[node]   = end;
+        splitDim[node]  = -1;
+        if (end - start <= LEAF_SIZE) {
+            return;
+        }
+        
+        /* Dimension with the largest spread */
+        int   dim       = 0;
+        float maxSpread = -1.0f;
+        for (int m=0; m < codebook[0].length; m++) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int k=start; k < end; k++) {
+                float value = codebook[order[k]][m];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > maxSpread) {
+                maxSpread = max - min;
+                dim       = m;
+            }
+        }
+        if (!(maxSpread > 0.0f)) {
+            return;  /* All codewords are equal */
+        }
+        
+        int median = (start + end) / 2;
+        selectMedian(start, end, median, dim);
+        
+        splitDim[node]   = dim;
+        splitValue[node] = codebook[order[median]][dim];
+        leftChild[node]  = numNodes;
+        numNodes += 2;
+        buildNode(leftChild[node],     start,  median);
+        buildNode(leftChild[node] + 1, median, end);
+    }
+    
+    
+    private void selectMedian(int start, int end, int median, int dim) {
+        /* Quickselect: order[start..median) <= order[median] <= order[median..end) in dimension dim */
+        int left  = start;
+        int right = end - 1;
+        while (left < right) {
+            float pivot = codebook[order[(left + right) >>> 1]][dim];
+            int   i     = left;
+            int   j     = right;
+            while (i <= j) {
+                while (codebook[order[i]][dim] < pivot) {
+                    i++;
+                }
+                while (codebook[order[j]][dim] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp  = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (median <= j) {
+                right = j;
+            } else if (median >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+    }
+    
+    
+    public int findNearest(float[] query, int numNearest, int[] nearest, float[] nearestDistances, double[] offsets) {
+        /* Finds the numNearest closest codewords (see CodewordSearch.findNearest()), offsets is a scratch array of the length of query. */
+        /* Returns the number of computed distances.                                                                                   */
+        CodewordSearch.clearNearest(numNearest, nearest, nearestDistances);
+        if (numNearest < 1 || codebook.length==0) {
+            return 0;
+        }
+        for (int m=0; m < offsets.length; m++) {
+            offsets[m] = 0.0;
+        }
+        return searchNode(0, 0.0, query, numNearest, nearest, nearestDistances, offsets);
+    }
+    
+    
+    private int searchNode(int node, double cellDistance, float[] query, int numNearest, int[] nearest, float[] nearestDistances, double[] offsets) {
+        if (splitDim[node] < 0) {
+            for (int k=nodeStart[node]; k < nodeEnd[node]; k++) {
+                int j = order[k];
+                CodewordSearch.insertNearest(j, Distances.squaredEuclidean(query, codebook[j]), numNearest, nearest, nearestDistances);
+            }
+            return nodeEnd[node] - nodeStart[node];
+        }
+        
+        int    dim  = splitDim[node];
+        double diff = (double) query[dim] - splitValue[node];
+        int    near = diff <= 0.0 ? leftChild[node] : leftChild[node] + 1;
+        int    far  = diff <= 0.0 ? leftChild[node] + 1 : leftChild[node];
+        
+        int numComputed = searchNode(near, cellDistance, query, numNearest, nearest, nearestDistances, offsets);
+        
+        /* Distance of the query to the cell of the far child */
+        double oldOffset       = offsets[dim];
+        double farCellDistance = cellDistance - oldOffset * oldOffset + diff * diff;
+        if (farCellDistance <= nearestDistances[numNearest-1] * BOUND_MARGIN) {
+            offsets[dim] = diff;
+            numComputed += searchNode(far, farCellDistance, query, numNearest, nearest, nearestDistances, offsets);
+            offsets[dim] = oldOffset;
+        }
+        
+        return numComputed;
+    }
+}
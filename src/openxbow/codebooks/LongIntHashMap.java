@@ -0,0 +1,138 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.codebooks;
+
+import java.util.Arrays;
+
+
+public class LongIntHashMap {
+    /* Map from long keys to int values with open addressing (linear probing) in primitive arrays, without boxing. */
+    /* Only adding to the values is supported (no removal). The key Long.MIN_VALUE marks free slots and cannot be used. */
+    
+    private static final long FREE = Long.MIN_VALUE;
+    
+    private long[] keys;
+    private int[]  values;
+    private int    size = 0;
+    
+    
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+    
+    
+    public void add(long key, int value) {
+        /* Adds value to the value of the key (0 if it is not in the map) */
+        int slot = findSlot(keys, key);
+        if (keys[slot]==FREE) {
+            keys[slot] = key;
+            size++;
+            if (2 * size > keys.length) {
+                values[slot] = value;
+                rehash(2 * keys.length);
+                return;
+            }
+        }
+        values[slot] += value;
+    }
+    
+    public int get(long key) {
+        /* 0 if the key is not in the map */
+        int slot = findSlot(keys, key);
+        return keys[slot]==FREE ? 0 : values[slot];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    
+    public long[] getKeys() {
+        /* All keys, in the order of the slots; getValues() gives the values in the same order */
+        long[] ret = new long[size];
+        int    k   = 0;
+        for (int slot=0; slot < keys.length; slot++) {
+            if (keys[slot]!=FREE) {
+                ret[k++] = keys[slot];
+            }
+        }
+        return ret;
+    }
+    
+    public int[] getValues() {
+        int[] ret = new int[size];
+        int   k   = 0;
+        for (int slot=0; slot < keys.length; slot++) {
+            if (keys[slot]!=FREE) {
+                ret[k++] = values[slot];
+            }
+        }
+        return ret;
+    }
+    
+    
+    private void allocate(int capacity) {
+        keys   = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+    
+    
+    private void rehash(int capacity) {
+        long[] oldKeys   = keys;
+        int[]  oldValues = values;
+        allocate(capacity);
+        for (int slot=0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot]!=FREE) {
+                int newSlot = findSlot(keys, oldKeys[slot]);
+                keys[newSlot]   = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+    
+    
+    private static int findSlot(long[] keys, long key) {
+        /* Slot of the key or the free slot where it would be inserted */
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot]!=FREE && keys[slot]!=key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    
+    private static int hash(long key) {
+        /* Finalisation of MurmurHash3 (64 bit), so that consecutive keys are spread over the table */
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,262 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class FeatureStore extends AbstractList<Object[]> {
+    /* Stores all input instances (frames) in primitive arrays instead of one Object[] with boxed Floats per frame.            */
+    /* Numeric attributes are kept row-major in contiguous float[] blocks, all other attributes (name, text, labels) as Strings. */
+    /* The column types are fixed with defineColumns() before the first row is added.                                        */
+    
+    private static final int BLOCK_FLOATS = 1 << 20;  /* Approximate number of floats per numeric block */
+    
+    private int       numAttributes = 0;
+    private int       numNumeric    = 0;
+    private int       numStrings    = 0;
+    private int[]     slotNumeric   = null;  /* Position of each attribute within a numeric row, -1 if the attribute is a string */
+    private int[]     slotString    = null;  /* Position of each attribute within a string row, -1 if the attribute is numeric */
+    private boolean[] bIntern       = null;  /* String attributes with many repetitions (name, labels) are stored only once */
+    
+    private int         blockShift  = 0;     /* Number of rows per block is 2^blockShift */
+    private int         blockMask   = 0;
+    private float[][]   blocksNum   = new float[0][];
+    private String[][]  blocksStr   = new String[0][];
+    private int         numRows     = 0;
+    
+    private Map<String,String> internedStrings = new HashMap<String,String>();
+    
+    
+    public FeatureStore() {
+        /* Empty until the columns are defined */
+    }
+    
+    
+    public boolean areColumnsDefined() {
+        return slotNumeric != null;
+    }
+    
+    public void defineColumns(boolean[] bNumeric, boolean[] bInternString) {
+        numAttributes = bNumeric.length;
+        slotNumeric = new int[numAttributes];
+        slotString  = new int[numAttributes];
+        bIntern     = new boolean[numAttributes];
+        numNumeric  = 0;
+        numStrings  = 0;
+        for (int iA=0; iA < numAttributes; iA++) {
+            if (bNumeric[iA]) {
+                slotNumeric[iA] = numNumeric++;
+                slotString[iA]  = -1;
+            } else {
+                slotNumeric[iA] = -1;
+                slotString[iA]  = numStrings++;
+                bIntern[iA]     = bInternString[iA];
+            }
+        }
+        
+        /* Choose the number of rows per block such that one numeric block has about BLOCK_FLOATS entries */
+        blockShift = 0;
+        while (blockShift < 16 && ((long) Math.max(1,numNumeric) << (blockShift+1)) <= BLOCK_FLOATS) {
+            blockShift++;
+        }
+        blockMask = (1 << blockShift) - 1;
+    }
+    
+    
+    public void addRow(float[] rowFloats, String[] rowStrings) {
+        /* Copies one frame into the store, both arrays are indexed by attribute, only the entries of the respective column type are read */
+        int block = numRows >>> blockShift;
+        int row   = numRows & blockMask;
+        if (row==0) {
+            addBlock(block);
+        }
+        
+        if (numNumeric > 0) {
+            float[] blockNum = blocksNum[block];
+            int     offset   = row * numNumeric;
+            for (int iA=0; iA < numAttributes; iA++) {
+                if (slotNumeric[iA] >= 0) {
+                    blockNum[offset + slotNumeric[iA]] = rowFloats[iA];
+                }
+            }
+        }
+        if (numStrings > 0) {
+            String[] blockStr = blocksStr[block];
+            int      offset   = row * numStrings;
+            for (int iA=0; iA < numAttributes; iA++) {
+                if (slotString[iA] >= 0) {
+                    blockStr[offset + slotString[iA]] = bIntern[iA] ? intern(rowStrings[iA]) : rowStrings[iA];
+                }
+            }
+        }
+        
+        numRows++;
+    }
+    
+    
+    public void appendRows(FeatureStore other) {
+        /* Appends all rows of other, which must have the same columns (e.g., a part of the input parsed separately).  */
+        /* The rows are copied in runs up to the end of the current block of either store. Repeated strings (the same */
+        /* object in consecutive rows, e.g., the name) are interned only once.                                        */
+        boolean[] bInternSlot  = new boolean[numStrings];
+        String[]  lastSource   = new String[numStrings];
+        String[]  lastInterned = new String[numStrings];
+        for (int iA=0; iA < numAttributes; iA++) {
+            if (slotString[iA] >= 0) {
+                bInternSlot[slotString[iA]] = bIntern[iA];
+            }
+        }
+        
+        int frame = 0;
+        while (frame < other.numRows) {
+            int block = numRows >>> blockShift;
+            int row   = numRows & blockMask;
+            if (row==0) {
+                addBlock(block);
+            }
+            
+            int otherBlock = frame >>> other.blockShift;
+            int otherRow   = frame & other.blockMask;
+            int numCopy    = Math.min(other.numRows - frame, Math.min(blockMask + 1 - row, other.blockMask + 1 - otherRow));
+            if (numNumeric > 0) {
+                System.arraycopy(other.blocksNum[otherBlock], otherRow * numNumeric, blocksNum[block], row * numNumeric, numCopy * numNumeric);
+            }
+            if (numStrings > 0) {
+                String[] blockStr = blocksStr[block];
+                System.arraycopy(other.blocksStr[otherBlock], otherRow * numStrings, blockStr, row * numStrings, numCopy * numStrings);
+                for (int k=0; k < numStrings; k++) {
+                    if (!bInternSlot[k]) {
+                        continue;
+                    }
+                    for (int r=row; r < row + numCopy; r++) {
+                        String str = blockStr[r * numStrings + k];
+                        if (str!=lastSource[k]) {
+                            lastSource[k]   = str;
+                            lastInterned[k] = intern(str);
+                        }
+                        blockStr[r * numStrings + k] = lastInterned[k];
+                    }
+                }
+            }
+            
+            numRows += numCopy;
+            frame   += numCopy;
+        }
+    }
+    
+    
+    private void addBlock(int block) {
+        if (block >= blocksNum.length) {
+            int newLength = Math.max(4, blocksNum.length * 2);
+            float[][]  newNum = new float[newLength][];
+            String[][] newStr = new String[newLength][];
+            System.arraycopy(blocksNum, 0, newNum, 0, blocksNum.length);
+            System.arraycopy(blocksStr, 0, newStr, 0, blocksStr.length);
+            blocksNum = newNum;
+            blocksStr = newStr;
+        }
+        blocksNum[block] = new float[numNumeric << blockShift];
+        blocksStr[block] = new String[numStrings << blockShift];
+    }
+    
+    
+    @Override
+    public void clear() {
+        /* Removes all rows, the column types are kept */
+        blocksNum = new float[0][];
+        blocksStr = new String[0][];
+        numRows   = 0;
+        internedStrings.clear();
+    }
+    
+    
+    private String intern(String str) {
+        String ret = internedStrings.get(str);
+        if (ret==null) {
+            internedStrings.put(str, str);
+            ret = str;
+        }
+        return ret;
+    }
+    
+    
+    public int size() {
+        return numRows;
+    }
+    
+    public int getNumAttributes() {
+        return numAttributes;
+    }
+    
+    public boolean isNumeric(int attribute) {
+        return slotNumeric[attribute] >= 0;
+    }
+    
+    public float getFloat(int frame, int attribute) {
+        return blocksNum[frame >>> blockShift][(frame & blockMask) * numNumeric + slotNumeric[attribute]];
+    }
+    
+    public void setFloat(int frame, int attribute, float value) {
+        blocksNum[frame >>> blockShift][(frame & blockMask) * numNumeric + slotNumeric[attribute]] = value;
+    }
+    
+    public void getFloats(int frame, int[] attributes, float[] features) {
+        /* Copies the given (numeric) attributes of one frame into features */
+        float[] blockNum = blocksNum[frame >>> blockShift];
+        int     offset   = (frame & blockMask) * numNumeric;
+        for (int k=0; k < attributes.length; k++) {
+            features[k] = blockNum[offset + slotNumeric[attributes[k]]];
+        }
+    }
+    
+    public String getString(int frame, int attribute) {
+        /* Numeric attributes are returned in the same format as Float.toString() */
+        if (slotString[attribute] < 0) {
+            return Float.toString(getFloat(frame, attribute));
+        }
+        return blocksStr[frame >>> blockShift][(frame & blockMask) * numStrings + slotString[attribute]];
+    }
+    
+    public Object getObject(int frame, int attribute) {
+        if (slotString[attribute] < 0) {
+            return getFloat(frame, attribute);
+        }
+        return getString(frame, attribute);
+    }
+    
+    
+    @Override
+    public Object[] get(int frame) {
+        /* Returns a copy of the frame (Float for numeric attributes, String otherwise); changes to the array are not written back */
+        if (frame < 0 || frame >= numRows) {
+            throw new IndexOutOfBoundsException("Frame " + frame + ", size " + numRows);
+        }
+        Object[] objData = new Object[numAttributes];
+        for (int iA=0; iA < numAttributes; iA++) {
+            objData[iA] = getObject(frame, iA);
+        }
+        return objData;
+    }
+}
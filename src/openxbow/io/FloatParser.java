@@ -0,0 +1,179 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class FloatParser {
+    /* Parses decimal floating point numbers directly from bytes without creating a String or throwing exceptions.               */
+    /* The result is always identical to Float.parseFloat(): Numbers with up to 15 significant digits and a decimal exponent       */
+    /* of at most 22 are converted exactly in double precision (fast path by Clinger) and rounded to float; the rare remaining    */
+    /* cases (more digits, ties in the rounding to float, subnormal numbers, hexadecimal notation, NaN, Infinity) use Float.parseFloat(). */
+    
+    private static final double[] POW10 = { 1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+                                            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final long MAX_MANTISSA = 1L << 53;  /* Largest integer which can be represented exactly as double */
+    
+    private float value = 0.0f;
+    
+    
+    public float getValue() {
+        return value;
+    }
+    
+    
+    public boolean parse(byte[] buf, int start, int end) {
+        /* Parses the bytes buf[start..end-1]; returns false if they do not represent a number (for Float.parseFloat()) */
+        /* Leading and trailing whitespace is ignored, as in String.trim() */
+        while (start < end && (buf[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf[end-1] & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start==end) {
+            return false;
+        }
+        
+        int     pos       = start;
+        boolean bNegative = false;
+        if (buf[pos]=='-' || buf[pos]=='+') {
+            bNegative = buf[pos]=='-';
+            pos++;
+        }
+        if (pos==end) {
+            return false;
+        }
+        if (!isDigit(buf[pos]) && buf[pos]!='.') {
+            if (buf[pos]=='N' || buf[pos]=='I') {
+                return parseSlow(buf, start, end);  /* NaN, Infinity */
+            }
+            return false;  /* Not a number, e.g., a text feature or a nominal label */
+        }
+        if (buf[pos]=='0' && pos+1 < end && (buf[pos+1]=='x' || buf[pos+1]=='X')) {
+            return parseSlow(buf, start, end);  /* Hexadecimal notation */
+        }
+        
+        long    mantissa   = 0;
+        int     numDigits  = 0;      /* Number of significant digits in the mantissa */
+        int     exponent   = 0;      /* Decimal exponent */
+        boolean bAnyDigit  = false;
+        boolean bTruncated = false;  /* More significant digits than fit into the mantissa */
+        
+        while (pos < end && isDigit(buf[pos])) {
+            int digit = buf[pos++] - '0';
+            bAnyDigit = true;
+            if (mantissa==0 && digit==0) {
+                continue;  /* Leading zeros */
+            }
+            if (numDigits < 18) {
+                mantissa = mantissa * 10 + digit;
+                numDigits++;
+            } else {
+                bTruncated = true;
+            }
+        }
+        if (pos < end && buf[pos]=='.') {
+            pos++;
+            while (pos < end && isDigit(buf[pos])) {
+                int digit = buf[pos++] - '0';
+                bAnyDigit = true;
+                exponent--;
+                if (mantissa==0 && digit==0) {
+                    continue;
+                }
+                if (numDigits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                    numDigits++;
+                } else {
+                    bTruncated = true;
+                }
+            }
+        }
+        if (!bAnyDigit) {
+            return false;  /* E.g., "." or "-." */
+        }
+        
+        if (pos < end && (buf[pos]=='e' || buf[pos]=='E')) {
+            pos++;
+            boolean bNegativeExp = false;
+            if (pos < end && (buf[pos]=='-' || buf[pos]=='+')) {
+                bNegativeExp = buf[pos]=='-';
+                pos++;
+            }
+            if (pos==end || !isDigit(buf[pos])) {
+                return false;  /* Exponent without digits */
+            }
+            int exp = 0;
+            while (pos < end && isDigit(buf[pos])) {
+                if (exp < 100000) {
+                    exp = exp * 10 + (buf[pos] - '0');
+                }
+                pos++;
+            }
+            exponent += bNegativeExp ? -exp : exp;
+        }
+        
+        if (pos < end) {
+            if (pos==end-1 && (buf[pos]=='f' || buf[pos]=='F' || buf[pos]=='d' || buf[pos]=='D')) {
+                return parseSlow(buf, start, end);  /* Type suffix, accepted by Float.parseFloat() */
+            }
+            return false;  /* Further characters, e.g., "3rd" */
+        }
+        
+        if (mantissa==0) {
+            value = bNegative ? -0.0f : 0.0f;
+            return true;
+        }
+        if (bTruncated || mantissa > MAX_MANTISSA || exponent < -22 || exponent > 22) {
+            return parseSlow(buf, start, end);
+        }
+        
+        /* Both the mantissa and the power of ten are exact doubles, so the result of one multiplication/division is correctly rounded */
+        double dValue = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        float  fValue = (float) dValue;
+        
+        /* Rounding the double to float gives the correctly rounded float, unless the double lies exactly in the middle of two floats */
+        if (fValue < Float.MIN_NORMAL || Float.isInfinite(fValue) || (Double.doubleToRawLongBits(dValue) & 0x1FFFFFFFL)==0x10000000L) {
+            return parseSlow(buf, start, end);
+        }
+        
+        value = bNegative ? -fValue : fValue;
+        return true;
+    }
+    
+    
+    private boolean parseSlow(byte[] buf, int start, int end) {
+        try {
+            value = Float.parseFloat(new String(buf, start, end-start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+    
+    
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
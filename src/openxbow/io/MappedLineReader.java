@@ -0,0 +1,192 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+public class MappedLineReader {
+    /* Reads a file line by line from a memory-mapped window (FileChannel.map) into a reusable byte buffer, without any decoding.   */
+    /* Line terminators are "\n", "\r" and "\r\n", as for BufferedReader.readLine(). Files larger than one window are mapped piecewise. */
+    /* A range of the file can be given to read a part (chunk) of the file, see findLineStart().                                     */
+    
+    private static final int WINDOW_SIZE = 1 << 28;  /* Bytes mapped at once (256 MB) */
+    
+    private RandomAccessFile file    = null;
+    private FileChannel      channel = null;
+    private long             endPosition;  /* End of the range to be read (exclusive) */
+    
+    private MappedByteBuffer window      = null;
+    private long             windowStart = 0;  /* Position of the window in the file */
+    private int              windowSize  = WINDOW_SIZE;
+    private int              pos         = 0;  /* Current position within the window */
+    
+    private byte[] line       = new byte[4096];
+    private int    lineLength = 0;
+    
+    
+    public MappedLineReader(String fileName) throws IOException {
+        this(fileName, 0, Long.MAX_VALUE);
+    }
+    
+    public MappedLineReader(String fileName, long start, long end) throws IOException {
+        file        = new RandomAccessFile(fileName, "r");
+        channel     = file.getChannel();
+        endPosition = Math.min(end, channel.size());
+        mapWindow(Math.min(start, endPosition));
+    }
+    
+    
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        window      = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min((long) windowSize, endPosition - start));
+        pos         = 0;
+    }
+    
+    
+    public boolean nextLine() throws IOException {
+        /* Reads the next line into getLine(), returns false at the end of the file */
+        if (windowStart + pos >= endPosition) {
+            return false;
+        }
+        
+        int     end    = pos;
+        int     limit  = window.limit();
+        boolean bFound = false;
+        while (!bFound) {
+            while (end < limit) {
+                byte b = window.get(end);
+                if (b=='\n' || b=='\r') {
+                    bFound = true;
+                    break;
+                }
+                end++;
+            }
+            if (!bFound) {
+                if (windowStart + limit >= endPosition) {
+                    break;  /* Last line without line terminator */
+                }
+                /* The line continues beyond the window: map the next window from the beginning of the line (larger, if the line is longer than a window) */
+                if (pos==0) {
+                    if (windowSize > Integer.MAX_VALUE / 2) {
+                        throw new IOException("Line too long");
+                    }
+                    windowSize *= 2;
+                }
+                end = end - pos;
+                mapWindow(windowStart + pos);
+                limit = window.limit();
+            }
+        }
+        
+        lineLength = end - pos;
+        if (lineLength > line.length) {
+            line = new byte[Math.max(lineLength, 2 * line.length)];
+        }
+        window.position(pos);
+        window.get(line, 0, lineLength);
+        
+        /* Skip the line terminator */
+        pos = end;
+        if (pos < limit) {
+            if (window.get(pos)=='\r') {
+                pos++;
+                if (pos==limit && windowStart + pos < endPosition) {
+                    mapWindow(windowStart + pos);  /* "\r\n" split between two windows */
+                }
+                if (pos < window.limit() && window.get(pos)=='\n') {
+                    pos++;
+                }
+            } else {
+                pos++;
+            }
+        }
+        if (pos==window.limit() && windowStart + pos < endPosition) {
+            mapWindow(windowStart + pos);
+        }
+        
+        return true;
+    }
+    
+    
+    public long getPosition() {
+        /* Position of the next line in the file */
+        return windowStart + pos;
+    }
+    
+    public long getEndPosition() {
+        return endPosition;
+    }
+    
+    
+    public long findLineStart(long offset) throws IOException {
+        /* Returns the position of the first line starting at or after offset (endPosition if there is none) */
+        if (offset <= 0) {
+            return 0;
+        }
+        
+        ByteBuffer buffer   = ByteBuffer.allocate(4096);
+        long       position = offset - 1;  /* offset is a line start, if the previous byte is a line terminator */
+        boolean    bCR      = false;       /* Last byte was '\r' */
+        while (position < endPosition) {
+            buffer.clear();
+            int numRead = channel.read(buffer, position);
+            if (numRead <= 0) {
+                break;
+            }
+            for (int k=0; k < numRead; k++) {
+                byte b = buffer.get(k);
+                if (bCR) {
+                    return b=='\n' ? position + k + 1 : position + k;
+                }
+                if (b=='\n') {
+                    return position + k + 1;
+                }
+                bCR = b=='\r';
+            }
+            position += numRead;
+        }
+        
+        return endPosition;
+    }
+    
+    
+    public byte[] getLine() {
+        /* The buffer is reused for the next line */
+        return line;
+    }
+    
+    public int getLineLength() {
+        return lineLength;
+    }
+    
+    
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+}
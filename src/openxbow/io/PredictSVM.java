@@ -23,10 +23,7 @@ public class PredictSVM {
     private double     bias        = -1.0f;
     private int        sizeW       = 0;
     private double[][] w           = null;
-    
-    /* Predictions */
-    private int[]     predictions   = null; 
-    private float[][] probEstimates = null;
+    private boolean    bModelRead  = false;
     
     
     public PredictSVM(String modelFileName) {
@@ -38,11 +35,22 @@ public class PredictSVM {
     }
     
     
+    public boolean readModel() {
+        /* The model is read only once; afterwards, predictLabelsAndWriteJSON() may be called concurrently for different bags */
+        if (!bModelRead) {
+            bModelRead = readLiblinearModel();
+        }
+        return bModelRead;
+    }
+    
+    
     public void predictLabelsAndWriteJSON(HyperBag hyperBag, String jsonFileName) {
-        boolean bReadSuccess = readLiblinearModel();
-        if (bReadSuccess) {
-            predictLabels(hyperBag);
-            writeJSON(jsonFileName);
+        if (readModel()) {
+            int       numInstances  = hyperBag.getBag().bof.length;
+            int[]     predictions   = new int[numInstances];
+            float[][] probEstimates = new float[numInstances][numClasses];
+            predictLabels(hyperBag, predictions, probEstimates);
+            writeJSON(jsonFileName, predictions, probEstimates);
         }
     }
     
@@ -126,12 +134,9 @@ public class PredictSVM {
     }
     
     
-    private void predictLabels(HyperBag hyperBag) {
+    private void predictLabels(HyperBag hyperBag, int[] predictions, float[][] probEstimates) {
         float [][] bof = hyperBag.getBag().bof;
         
-        predictions   = new int[bof.length];
-        probEstimates = new float[bof.length][numClasses];
-        
         for (int i=0; i < bof.length; i++) {
             /* Compute scalar product with weight vector */
             for (int c=0; c < w[0].length; c++) {
@@ -174,7 +179,7 @@ public class PredictSVM {
     }
     
     
-    private void writeJSON(String jsonFileName) {
+    private void writeJSON(String jsonFileName, int[] predictions, float[][] probEstimates) {
         if (jsonFileName.isEmpty()) {
             jsonFileName = targetName + ".json";
         }
@@ -25,23 +25,65 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 public class Reader {
-    private enum ftype {ARFF,CSV};
+    private enum ftype {ARFF,CSV,HTK,NPY};
+    private enum ptype {DEFAULT,MMAP,PARALLEL};  /* Parser backend */
+    
+    private static final long MIN_CHUNK_SIZE = 1 << 20;  /* Parallel parser: Minimum number of bytes per chunk */
     
     private String  fileName;
     private ftype   fileType;
     private String  relation;
     private boolean bTimeStamp;  /* true, if window size and hop size are given, means that the features and labels file must have time stamps in their second column */
+    private ptype   parserType = ptype.DEFAULT;
+    private int     numThreads = 0;  /* Parallel parser: 0 means all available processors */
     
     private Attributes                 attributes            = null;  /* Attributes of the input feature file */
     private Map<Integer,List<Integer>> indexesAttributeClass = null;  /* A map which specifies for each feature class the corresponding indexes in the input data */
-    public  List<Object[]>             inputData             = null;  /* Stores a list of all input instances */
+    public  FeatureStore               inputData             = null;  /* Stores all input instances */
+    
+    private float[]   rowFloats      = null;  /* Buffers for one data line */
+    private String[]  rowStrings     = null;
+    private boolean[] rowIsNumeric   = null;
+    private boolean   bWarnedNumeric = false;
+    private String    warningNumeric = null;  /* Warning of a chunk reader, printed by the main reader */
+    private boolean   bChunk         = false;  /* Reader for one chunk of the data section (parallel parser) */
+    private boolean[] columnIntern   = null;  /* String attributes stored only once in inputData (name, labels) */
+    
+    private Map<Integer,String> nominalARFF = new HashMap<Integer,String>();  /* Nominal values of ARFF attributes (by index), e.g., labels */
+    
+    /* State of the file being read (also in case it is read instance by instance) */
+    private BufferedReader br                 = null;
+    private boolean        bDataSection       = false;  /* ARFF */
+    private int            checkNumAttributes = 0;      /* ARFF: Just to check whether the specified number and the actual number are the same */
+    private String         separator          = ";";    /* CSV */
+    private boolean        bFirstLine         = true;   /* CSV */
+    private boolean        bHeaderLine        = true;   /* CSV */
+    private boolean        bRowPending        = false;  /* The row buffers contain the first frame of the next instance */
+    private boolean        bAttributesFinal   = false;
+    
+    /* Memory-mapped parser */
+    private MappedLineReader mappedReader     = null;
+    private FloatParser      floatParser      = new FloatParser();
+    private Charset          charset          = Charset.defaultCharset();  /* Same as FileReader */
+    private byte[][]         lastStringBytes  = null;  /* Last string of each interned attribute, as bytes, to avoid decoding repeated names/labels */
+    private int[]            lastStringLength = null;
+    private String[]         lastString       = null;
+    
+    /* Binary input (HTK, NumPy) */
+    private ReaderBinary binaryReader = null;
     
     
     public Reader(String fileName) {
@@ -56,7 +98,7 @@ public class Reader {
         this.fileName    = fileName;
         this.bTimeStamp  = bTimeStamp;
         this.attributes  = new Attributes(strAttributes, strAttributesAlt);
-        this.inputData   = new ArrayList<Object[]>();
+        this.inputData   = new FeatureStore();
         
         if (fileName.endsWith(".arff")) {
             this.fileType = ftype.ARFF; /* relation is recognized in readFile() */
@@ -65,129 +107,582 @@ public class Reader {
             this.fileType = ftype.CSV;
             this.relation = fileName.substring(0, fileName.indexOf(".csv"));
         }
+        else if (fileName.endsWith(".htk")) {
+            this.fileType = ftype.HTK;
+            this.relation = getBaseName(fileName);
+        }
+        else if (fileName.endsWith(".npy")) {
+            this.fileType = ftype.NPY;
+            this.relation = getBaseName(fileName);
+        }
         else {
             System.err.println("Error: Input file type unknown!");
         }
     }
     
     
+    private Reader(Reader mainReader, long start, long end) throws IOException {
+        /* Reader for the data lines between the file positions start and end, with the same attributes and column types as mainReader */
+        this.fileName     = mainReader.fileName;
+        this.fileType     = mainReader.fileType;
+        this.bTimeStamp   = mainReader.bTimeStamp;
+        this.attributes   = mainReader.attributes;
+        this.parserType   = ptype.MMAP;
+        this.separator    = mainReader.separator;
+        this.bDataSection = true;
+        this.bFirstLine   = false;
+        this.bChunk       = true;
+        this.charset      = mainReader.charset;
+        this.mappedReader = new MappedLineReader(fileName, start, end);
+        
+        int       numAttributes = mainReader.inputData.getNumAttributes();
+        boolean[] bNumeric      = new boolean[numAttributes];
+        for (int iA=0; iA < numAttributes; iA++) {
+            bNumeric[iA] = mainReader.inputData.isNumeric(iA);
+        }
+        this.inputData = new FeatureStore();
+        this.inputData.defineColumns(bNumeric, mainReader.columnIntern);
+        this.columnIntern     = mainReader.columnIntern;
+        this.lastStringBytes  = new byte[numAttributes][];
+        this.lastStringLength = new int[numAttributes];
+        this.lastString       = new String[numAttributes];
+    }
+    
+    
+    public boolean setParser(String parser) {
+        /* default: BufferedReader and String.split(); mmap: memory-mapped file, parsed bytewise with types given by the attributes; */
+        /* parallel: as mmap, but the data section is split into chunks (at line boundaries), which are parsed in parallel           */
+        if (parser.equals("default")) {
+            parserType = ptype.DEFAULT;
+        } else if (parser.equals("mmap")) {
+            parserType = ptype.MMAP;
+        } else if (parser.equals("parallel")) {
+            parserType = ptype.PARALLEL;
+        } else {
+            System.err.println("Error: Parser " + parser + " unknown!");
+            return false;
+        }
+        return true;
+    }
+    
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+    
+    
     public boolean readFile() {
-        BufferedReader br        = null;
+        if (!openFile()) {
+            return false;
+        }
+        
+        boolean bSuccess = readLines(false);
+        
+        closeFile();
+        
+        if (!bSuccess) {
+            return false;
+        }
+        
+        finishAttributes();
+        
+        return true;
+    }
+    
+    
+    public boolean openFile() {
+        /* Opens the input file; the data lines are then read by readFile() or instance by instance by readNextInstance() */
+        if (fileType==ftype.HTK || fileType==ftype.NPY) {
+            return openBinaryFile();
+        }
         
         try {
-            File inputFile = new File(fileName);
-                 br        = new BufferedReader(new FileReader(inputFile));
-            
-            int checkNumAttributes = 0;  /* Just to check whether the specified number and the actual number are the same */
-            
-            if (fileType==ftype.ARFF) {
-                String  thisLine      = null;
-                boolean bDataSection  = false;
+            if (parserType!=ptype.DEFAULT) {
+                mappedReader = new MappedLineReader(fileName);
+            } else {
+                File inputFile = new File(fileName);
+                     br        = new BufferedReader(new FileReader(inputFile));
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Input file " + fileName + " cannot be read.");
+            e.printStackTrace();
+            return false;
+        }
+        
+        bDataSection       = false;
+        checkNumAttributes = 0;
+        separator          = ";";
+        bFirstLine         = true;
+        bHeaderLine        = true;
+        bRowPending        = false;
+        
+        return true;
+    }
+    
+    
+    private boolean openBinaryFile() {
+        /* Binary files have the attributes: name, [time stamp], features; the data layout is given by the header */
+        binaryReader = fileType==ftype.HTK ? new ReaderHTK(fileName) : new ReaderNPY(fileName);
+        if (!binaryReader.open()) {
+            binaryReader = null;
+            return false;
+        }
+        
+        int numAttributes = (bTimeStamp ? 2 : 1) + binaryReader.getNumFeatures();
+        if (bTimeStamp && !binaryReader.hasTime()) {
+            System.err.println("Error: Input file " + fileName + " has no time stamps (for NumPy files, they must be given in the sidecar file).");
+            closeFile();
+            return false;
+        }
+        if (!attributes.areAttributesSpecified()) {
+            if (attributes.getNumAttributes()==0) {
+                attributes.addAttributesCSV(numAttributes, bTimeStamp, false);
+            }
+        } else if (attributes.getNumAttributes()!=numAttributes || attributes.getIndexName()!=0 || (bTimeStamp && attributes.getIndexTime()!=1)) {
+            System.err.println("Error: Specified attributes do not conform to the input file (name, [time stamp] and " + binaryReader.getNumFeatures() + " features).");
+            closeFile();
+            return false;
+        }
+        
+        if (!inputData.areColumnsDefined()) {
+            defineColumns(numAttributes, true);
+        }
+        initRowBuffers(numAttributes);
+        bRowPending = false;
+        
+        return true;
+    }
+    
+    
+    public void closeFile() {
+        try {
+            if (br!=null) {
+                br.close();
+            }
+            if (mappedReader!=null) {
+                mappedReader.close();
+            }
+            if (binaryReader!=null) {
+                binaryReader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        br           = null;
+        mappedReader = null;
+        binaryReader = null;
+    }
+    
+    
+    public boolean readNextInstance() {
+        /* Replaces inputData by all (successive) frames of the next instance (name) in the input file */
+        /* Returns false if there are no more frames or the file cannot be read.                         */
+        inputData.clear();
+        
+        if (br==null && mappedReader==null && binaryReader==null) {
+            return false;
+        }
+        if (bRowPending) {
+            inputData.addRow(rowFloats, rowStrings);
+            bRowPending = false;
+        }
+        
+        if (!readLines(true)) {
+            closeFile();
+            return false;
+        }
+        
+        if (inputData.size()==0) {
+            closeFile();
+            return false;
+        }
+        
+        finishAttributes();
+        
+        return true;
+    }
+    
+    
+    private boolean readLines(boolean bSingleInstance) {
+        if (binaryReader!=null) {
+            return readFramesBinary(bSingleInstance);
+        }
+        if (parserType!=ptype.DEFAULT) {
+            return readLinesMapped(bSingleInstance);
+        }
+        
+        String thisLine = null;
+        
+        try {
+            while ((thisLine = br.readLine()) != null) {
+                int status = processLine(thisLine);
+                if (status < 0) {
+                    return false;
+                }
+                else if (status > 0 && !storeRow(bSingleInstance)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Input file " + fileName + " cannot be read.");
+            e.printStackTrace();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    private boolean readLinesMapped(boolean bSingleInstance) {
+        try {
+            while (true) {
+                boolean bData = (fileType==ftype.ARFF && bDataSection) || (fileType==ftype.CSV && !bFirstLine);
+                if (bData && parserType==ptype.PARALLEL && !bSingleInstance && (inputData.areColumnsDefined() || isSchemaKnown())) {
+                    return readDataParallel();  /* Instance by instance, the data is read sequentially */
+                }
+                if (!mappedReader.nextLine()) {
+                    break;
+                }
                 
-                while ((thisLine = br.readLine()) != null) {
-                    if (!thisLine.isEmpty() && !thisLine.startsWith("%") && thisLine.trim().length() > 0) {
-                        if (bDataSection) {
-                            readDataLine(inputData, thisLine.split(","), attributes.getNumAttributes(), ",");
-                        }
-                        else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@relation") && thisLine.length() > 10) {
-                            relation = thisLine.substring(10,thisLine.length());
-                        }
-                        else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@attribute") && thisLine.length() > 11) {
-                            if (!attributes.areAttributesSpecified()) {
-                                String[] dataLine = thisLine.split(" ");
-                                attributes.addAttributeARFF(dataLine,bTimeStamp);
-                            }
-                            checkNumAttributes++;
-                        }
-                        else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@data")) {
-                            bDataSection = true;
-                            if (attributes.areAttributesSpecified() && (checkNumAttributes != attributes.getNumAttributes())) {
-                                System.err.println("Error: Specified number of attributes does not conform to the number in the input file.");
-                                return false;
-                            }
-                        }
-                        else {
-                            System.err.println("Error: Input ARFF file cannot be read.");
-                            return false;
-                        }
-                    }
+                byte[] line   = mappedReader.getLine();
+                int    length = mappedReader.getLineLength();
+                int    status = 0;
+                
+                if (bData) {
+                    status = processDataLineMapped(line, length);
+                } else {
+                    status = processLine(new String(line, 0, length, charset));  /* Header */
+                }
+                
+                if (status < 0) {
+                    return false;
+                }
+                else if (status > 0 && !storeRow(bSingleInstance)) {
+                    return true;
                 }
             }
-            
-            else if (fileType==ftype.CSV) {
-                String  separator     = ";";
-                String  altSeparator  = ",";
-                String  thisLine      = null;
-                boolean bFirstLine    = true;
-                boolean bHeaderLine   = true;
+        } catch (IOException e) {
+            System.err.println("Error: Input file " + fileName + " cannot be read.");
+            e.printStackTrace();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    private boolean readFramesBinary(boolean bSingleInstance) {
+        /* The features are copied from the binary file directly into the row buffers */
+        int numAttributes = attributes.getNumAttributes();
+        int indexTime     = attributes.getIndexTime();
+        for (int iA=1; iA < numAttributes; iA++) {
+            rowIsNumeric[iA] = true;
+        }
+        rowIsNumeric[0] = false;
+        
+        try {
+            while (true) {
+                int frame = binaryReader.getFrame();
+                if (!binaryReader.nextFrame(rowFloats, indexTime >= 0 ? 2 : 1)) {
+                    break;
+                }
+                rowStrings[0] = binaryReader.getName(frame);
+                if (indexTime >= 0) {
+                    rowFloats[indexTime] = binaryReader.getTime(frame);
+                }
+                prepareRow(numAttributes);
                 
-                while ((thisLine = br.readLine()) != null) {
-                    if (!thisLine.isEmpty() && thisLine.trim().length() > 0) {
-                        String[] dataLine = thisLine.split(separator);
-                        
-                        if (bFirstLine) {
-                            /* If no semicolon has been found, the separator must be comma */ // TODO: Handle case that a string attribute includes a separator 
-                            if (dataLine.length==1) {
-                                separator = altSeparator;
-                                dataLine = thisLine.split(separator);
-                            }
-                            
-                            /* Heuristic to check if there is no header line (if there is a numeric entry, there should be no header line) */
-                            for (int c=0; c<dataLine.length; c++) {
-                                if (isNumeric(dataLine[c])) {
-                                    bHeaderLine = false;
-                                    break;
-                                }
-                            }
-                            
-                            boolean bLabelGiven = false;
-                            /* Heuristic to check if the file includes labels (if labels are included, there must be a header line and the last column must be named either "class" or "label") */
-                            if (bHeaderLine && (dataLine[dataLine.length-1].trim().toLowerCase().equals("class") || dataLine[dataLine.length-1].trim().toLowerCase().equals("label"))) {
-                                bLabelGiven = true;
-                            }
-                            
-                            if (!attributes.areAttributesSpecified()) {
-                                attributes.addAttributesCSV(dataLine.length, bTimeStamp, bLabelGiven);
-                            } else if (dataLine.length != attributes.getNumAttributes()) {
-                                System.err.println("Error: Specified number of attributes does not conform to the number in the input file.");
-                                return false;
-                            }
-                        }
-                        
-                        if (!bFirstLine || !bHeaderLine) {
-                            readDataLine(inputData, dataLine, attributes.getNumAttributes(), separator);
-                        }
-                        
-                        bFirstLine = false;
-                    }
+                if (!storeRow(bSingleInstance)) {
+                    return true;
                 }
             }
         } catch (IOException e) {
             System.err.println("Error: Input file " + fileName + " cannot be read.");
             e.printStackTrace();
             return false;
+        }
+        
+        return true;
+    }
+    
+    
+    private boolean readDataParallel() throws IOException {
+        /* Splits the remaining data section into chunks at line boundaries, parses them in parallel and appends them in the original order */
+        if (!inputData.areColumnsDefined()) {
+            defineColumns(attributes.getNumAttributes(), true);
+        }
+        
+        int  threads   = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        long start     = mappedReader.getPosition();
+        long size      = mappedReader.getEndPosition() - start;
+        int  numChunks = (int) Math.max(1, Math.min(4L * threads, size / MIN_CHUNK_SIZE));  /* Several chunks per thread to balance the load */
+        
+        List<Long> chunkStarts = new ArrayList<Long>();
+        chunkStarts.add(start);
+        for (int c=1; c < numChunks; c++) {
+            long chunkStart = mappedReader.findLineStart(start + size * c / numChunks);
+            if (chunkStart > chunkStarts.get(chunkStarts.size()-1) && chunkStart < mappedReader.getEndPosition()) {
+                chunkStarts.add(chunkStart);
+            }
+        }
+        chunkStarts.add(mappedReader.getEndPosition());
+        
+        List<Callable<Reader>> tasks = new ArrayList<Callable<Reader>>();
+        for (int c=0; c < chunkStarts.size()-1; c++) {
+            final long chunkStart = chunkStarts.get(c);
+            final long chunkEnd   = chunkStarts.get(c+1);
+            tasks.add(new Callable<Reader>() {
+                public Reader call() throws IOException {
+                    Reader chunkReader = new Reader(Reader.this, chunkStart, chunkEnd);
+                    boolean bSuccess = chunkReader.readLinesMapped(false);
+                    chunkReader.closeFile();
+                    return bSuccess ? chunkReader : null;
+                }
+            });
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, tasks.size()));
+        try {
+            List<Future<Reader>> results = new ArrayList<Future<Reader>>();
+            for (Callable<Reader> task : tasks) {
+                results.add(pool.submit(task));
+            }
+            for (int c=0; c < results.size(); c++) {  /* Each chunk is appended as soon as it is parsed, while the later chunks are still parsed */
+                Reader chunkReader = results.get(c).get();
+                results.set(c, null);  /* The rows of the chunk can be released once appended */
+                if (chunkReader==null) {
+                    return false;
+                }
+                if (chunkReader.warningNumeric!=null && !bWarnedNumeric) {
+                    System.err.println(chunkReader.warningNumeric);
+                    bWarnedNumeric = true;
+                }
+                inputData.appendRows(chunkReader.inputData);  /* Same frame order as in the file */
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error: Input file " + fileName + " cannot be read.");
+            e.printStackTrace();
+            return false;
         } finally {
-            try {
-                br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
+            pool.shutdown();
+        }
+        
+        return true;
+    }
+    
+    
+    private boolean storeRow(boolean bSingleInstance) {
+        /* Adds the parsed row to inputData; returns false if it belongs to the next instance (then, it is kept in the row buffers) */
+        if (bSingleInstance && inputData.size() > 0 && !rowStrings[getIndexName()].equals(inputData.getString(0, getIndexName()))) {
+            bRowPending = true;  /* First frame of the next instance */
+            return false;
+        }
+        inputData.addRow(rowFloats, rowStrings);
+        return true;
+    }
+    
+    
+    private int processLine(String thisLine) {
+        /* Returns 1 if a data line has been parsed into the row buffers, 0 for all other lines and -1 in case of an error */
+        if (fileType==ftype.ARFF) {
+            if (!thisLine.isEmpty() && !thisLine.startsWith("%") && thisLine.trim().length() > 0) {
+                if (bDataSection) {
+                    readDataLine(thisLine.split(","), attributes.getNumAttributes(), ",");
+                    return 1;
+                }
+                else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@relation") && thisLine.length() > 10) {
+                    relation = thisLine.substring(10,thisLine.length());
+                }
+                else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@attribute") && thisLine.length() > 11) {
+                    if (!attributes.areAttributesSpecified()) {
+                        String[] dataLine = thisLine.split(" ");
+                        attributes.addAttributeARFF(dataLine,bTimeStamp);
+                    }
+                    if (thisLine.contains("{") && thisLine.contains("}")) {
+                        nominalARFF.put(checkNumAttributes, thisLine.substring(thisLine.indexOf("{")+1, thisLine.lastIndexOf("}")).replace(" ", ""));
+                    }
+                    checkNumAttributes++;
+                }
+                else if (thisLine.toLowerCase(Locale.ROOT).startsWith("@data")) {
+                    bDataSection = true;
+                    if (attributes.areAttributesSpecified() && (checkNumAttributes != attributes.getNumAttributes())) {
+                        System.err.println("Error: Specified number of attributes does not conform to the number in the input file.");
+                        return -1;
+                    }
+                }
+                else {
+                    System.err.println("Error: Input ARFF file cannot be read.");
+                    return -1;
+                }
+            }
+        }
+        
+        else if (fileType==ftype.CSV) {
+            String altSeparator = ",";
+            
+            if (!thisLine.isEmpty() && thisLine.trim().length() > 0) {
+                String[] dataLine = thisLine.split(separator);
+                
+                if (bFirstLine) {
+                    /* If no semicolon has been found, the separator must be comma */ // TODO: Handle case that a string attribute includes a separator 
+                    if (dataLine.length==1) {
+                        separator = altSeparator;
+                        dataLine = thisLine.split(separator);
+                    }
+                    
+                    /* Heuristic to check if there is no header line (if there is a numeric entry, there should be no header line) */
+                    for (int c=0; c<dataLine.length; c++) {
+                        if (isNumeric(dataLine[c])) {
+                            bHeaderLine = false;
+                            break;
+                        }
+                    }
+                    
+                    boolean bLabelGiven = false;
+                    /* Heuristic to check if the file includes labels (if labels are included, there must be a header line and the last column must be named either "class" or "label") */
+                    if (bHeaderLine && (dataLine[dataLine.length-1].trim().toLowerCase().equals("class") || dataLine[dataLine.length-1].trim().toLowerCase().equals("label"))) {
+                        bLabelGiven = true;
+                    }
+                    
+                    if (!attributes.areAttributesSpecified()) {
+                        attributes.addAttributesCSV(dataLine.length, bTimeStamp, bLabelGiven);
+                    } else if (dataLine.length != attributes.getNumAttributes()) {
+                        System.err.println("Error: Specified number of attributes does not conform to the number in the input file.");
+                        return -1;
+                    }
+                }
+                
+                boolean bData = !bFirstLine || !bHeaderLine;
+                bFirstLine = false;
+                
+                if (bData) {
+                    readDataLine(dataLine, attributes.getNumAttributes(), separator);
+                    return 1;
+                }
             }
         }
         
+        return 0;
+    }
+    
+    
+    private void finishAttributes() {
+        if (bAttributesFinal) {
+            return;  /* Only once, in case the file is read instance by instance */
+        }
+        
         if (fileType==ftype.CSV && !attributes.areAttributesSpecified()) {
             attributes.updateTextFeatures(inputData.get(0));  /* Check if there are text features (is not yet clear for CSV files) */
         }
         
         indexesAttributeClass = attributes.getIndexesAttributeClass();
+        bAttributesFinal      = true;
+    }
+    
+    
+    private int processDataLineMapped(byte[] line, int length) {
+        /* Same as processLine() for a data line, but parses the bytes of the line directly */
+        int start = 0;
+        while (start < length && (line[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        if (start==length || (fileType==ftype.ARFF && line[0]=='%')) {
+            return 0;  /* Empty line or comment */
+        }
+        if (!inputData.areColumnsDefined() && !isSchemaKnown()) {
+            return processLine(new String(line, 0, length, charset));  /* CSV: Text features are recognized from the first data line */
+        }
         
-        return true;
+        readDataLineMapped(line, length, attributes.getNumAttributes(), fileType==ftype.ARFF ? (byte) ',' : (byte) separator.charAt(0));
+        return 1;
+    }
+    
+    
+    private void readDataLineMapped(byte[] line, int length, int numAttributes, byte separator) {
+        /* Same as readDataLine(), without splitting the line into Strings: Numbers are parsed directly from the bytes, */
+        /* only string attributes are decoded. Missing entries at the end of the line are read as empty strings.       */
+        initRowBuffers(numAttributes);
+        
+        int pos = 0;
+        for (int iA=0; iA < numAttributes; iA++) {
+            int start = Math.min(pos, length);
+            int end   = indexOf(line, separator, start, length);
+            
+            boolean bNumber = iA!=0 && floatParser.parse(line, start, end);  /* First attribute (name) is always interpreted as a string object. */
+            rowIsNumeric[iA] = bNumber;
+            rowStrings[iA]   = null;
+            if (bNumber) {
+                rowFloats[iA] = floatParser.getValue();
+            }
+            else {
+                int dataStart = start;
+                int dataEnd   = end;
+                if (end > start && (line[start]=='\'' || line[start]=='"')) {  /* If string is not beginning with ' or ": There mustn't be a separator in the string attribute */
+                    byte delimiter = line[start];
+                    while ((end - start < 2 || line[end-1]!=delimiter) && end < length) {  /* Separator within the string (also at its beginning) */
+                        end = indexOf(line, separator, end+1, length);
+                    }
+                    dataStart = start + 1;
+                    dataEnd   = end;
+                    if (dataEnd > dataStart && line[dataEnd-1]==delimiter) {
+                        dataEnd--;  /* Final delimiter might be missing */
+                    }
+                }
+                rowStrings[iA] = decodeString(iA, line, dataStart, dataEnd);
+            }
+            pos = end + 1;
+        }
+        
+        prepareRow(numAttributes);
+    }
+    
+    
+    private String decodeString(int attribute, byte[] line, int start, int end) {
+        /* Names and labels are repeated in many successive lines, they are decoded only if they have changed */
+        if (columnIntern==null || !columnIntern[attribute]) {
+            return new String(line, start, end-start, charset);
+        }
+        
+        int     length = end - start;
+        byte[]  last   = lastStringBytes[attribute];
+        boolean bSame  = last!=null && lastStringLength[attribute]==length;
+        for (int k=0; bSame && k < length; k++) {
+            bSame = last[k]==line[start+k];
+        }
+        if (!bSame) {
+            if (last==null || last.length < length) {
+                last = new byte[Math.max(16, length)];
+                lastStringBytes[attribute] = last;
+            }
+            System.arraycopy(line, start, last, 0, length);
+            lastStringLength[attribute] = length;
+            lastString[attribute]       = new String(line, start, length, charset);
+        }
+        return lastString[attribute];
+    }
+    
+    
+    private static int indexOf(byte[] line, byte b, int start, int length) {
+        /* Position of the next byte b from start on, or length if there is none */
+        int pos = start;
+        while (pos < length && line[pos]!=b) {
+            pos++;
+        }
+        return pos;
+    }
+    
+    
+    private void initRowBuffers(int numAttributes) {
+        if (rowFloats==null) {
+            rowFloats    = new float[numAttributes];
+            rowStrings   = new String[numAttributes];
+            rowIsNumeric = new boolean[numAttributes];
+        }
     }
     
     
-    private void readDataLine(List<Object[]> inputData, String[] dataLine, int numAttributes, String separator) {
+    private void readDataLine(String[] dataLine, int numAttributes, String separator) {
         /* Data line has the format: name, [time stamp], feature1, feature2, ..., featureX, [label] */
-        Object[] objData = new Object[numAttributes];
+        initRowBuffers(numAttributes);
         
         /* Add all entries */
         int iF = 0;
@@ -195,15 +690,17 @@ public class Reader {
             String entry = dataLine[iF++];
             boolean isString = false;
             try {
-                objData[iA] = Float.parseFloat(entry);
+                rowFloats[iA] = Float.parseFloat(entry);
             } catch(NumberFormatException e) { /* String */
                 isString = true;
             }
+            rowIsNumeric[iA] = !isString && iA!=0;
+            rowStrings[iA]   = null;
             if (isString || iA==0) {  /* First attribute (name) is always interpreted as a string object. */
                 String data = entry;
                 if (data.startsWith("'") || data.startsWith("\"")) { /* If string is not beginning with ' or ": There mustn't be a comma in the string attribute */
                     String delimiter = data.substring(0,1);
-                    while (!data.endsWith(delimiter) && iF < dataLine.length) { /* Comma within the string */
+                    while ((data.length() < 2 || !data.endsWith(delimiter)) && iF < dataLine.length) { /* Comma within the string (also at its beginning) */
                         entry = dataLine[iF++];
                         data  = data.concat(separator);
                         data  = data.concat(entry);
@@ -213,13 +710,69 @@ public class Reader {
                         data = data.substring(0,data.length()-1);  /* Final delimiter might be missing */
                     }
                 }
-                objData[iA] = data;
+                rowStrings[iA] = data;
+            }
+        }
+        
+        prepareRow(numAttributes);
+    }
+    
+    
+    private void prepareRow(int numAttributes) {
+        /* The column types are given by the first data line (by the attributes for the mmap parser); name and labels are always stored as strings */
+        if (!inputData.areColumnsDefined()) {
+            defineColumns(numAttributes, parserType!=ptype.DEFAULT && isSchemaKnown());
+        }
+        
+        for (int iA=0; iA < numAttributes; iA++) {
+            if (inputData.isNumeric(iA) && !rowIsNumeric[iA]) {
+                if (!bWarnedNumeric) {
+                    warningNumeric = "Warning: Non-numeric entry " + rowStrings[iA] + " in numeric attribute " + (iA+1) + " of input file " + fileName + " is replaced by NaN.";
+                    if (!bChunk) {
+                        System.err.println(warningNumeric);
+                    }
+                    bWarnedNumeric = true;
+                }
+                rowFloats[iA] = Float.NaN;
+            }
+            else if (!inputData.isNumeric(iA) && rowIsNumeric[iA]) {
+                rowStrings[iA] = Float.toString(rowFloats[iA]);  /* Same representation as the former Float object */
+            }
+        }
+    }
+    
+    
+    private void defineColumns(int numAttributes, boolean bFromSchema) {
+        boolean[] bNumeric = new boolean[numAttributes];
+        boolean[] bIntern  = new boolean[numAttributes];
+        boolean[] bFeature = new boolean[numAttributes];  /* Numeric feature or time stamp */
+        if (bFromSchema) {
+            for (Map.Entry<Integer,List<Integer>> e : attributes.getIndexesAttributeClass().entrySet()) {
+                for (int iA : e.getValue()) {
+                    bFeature[iA] = e.getKey() > 0 && iA < numAttributes;  /* Class 0 are text features */
+                }
+            }
+            if (getIndexTime() >= 0 && getIndexTime() < numAttributes) {
+                bFeature[getIndexTime()] = true;
             }
         }
         
-        assert(objData.length==numAttributes);
+        for (int iA=0; iA < numAttributes; iA++) {
+            bIntern[iA]  = iA==0 || iA==attributes.getIndexName() || attributes.getIndexesLabels().contains(iA);
+            bNumeric[iA] = (bFromSchema ? bFeature[iA] : rowIsNumeric[iA]) && !bIntern[iA];
+        }
+        inputData.defineColumns(bNumeric, bIntern);
         
-        inputData.add(objData);
+        columnIntern     = bIntern;
+        lastStringBytes  = new byte[numAttributes][];
+        lastStringLength = new int[numAttributes];
+        lastString       = new String[numAttributes];
+    }
+    
+    
+    private boolean isSchemaKnown() {
+        /* The types of all attributes are known before the first data line, except for CSV files without given attributes */
+        return fileType!=ftype.CSV || attributes.areAttributesSpecified();
     }
     
     
@@ -234,10 +787,28 @@ public class Reader {
     }
     
     
+    public static String getBaseName(String fileName) {
+        /* File name without path and extension */
+        String name = new File(fileName).getName();
+        if (name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        return name;
+    }
+    
+    
     public String getRelation() {
         return relation;
     }
     
+    public String getNominalLabelsARFF() {
+        /* Nominal values of the first label as declared in the input ARFF file (comma-separated), empty if not available */
+        if (getIndexesLabels().isEmpty() || !nominalARFF.containsKey(getIndexesLabels().get(0))) {
+            return "";
+        }
+        return nominalARFF.get(getIndexesLabels().get(0));
+    }
+    
     public Map<Integer,List<Integer>> getIndexesAttributeClass() {
         return indexesAttributeClass;
     }
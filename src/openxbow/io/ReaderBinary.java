@@ -0,0 +1,172 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+
+public abstract class ReaderBinary {
+    /* Base class for binary feature files, where the features of each frame are stored as a contiguous block of floats (or doubles). */
+    /* The data is memory-mapped and copied frame by frame into the row buffers of the Reader, without any conversion to text.      */
+    
+    private static final long WINDOW_SIZE = 1L << 28;  /* Bytes mapped at once (at least one frame) */
+    
+    protected String fileName;
+    protected int    numFrames   = 0;
+    protected int    numFeatures = 0;
+    
+    /* Layout of the data, set by readHeader() */
+    protected long      dataOffset = 0;  /* Position of the first frame in the file */
+    protected ByteOrder byteOrder  = ByteOrder.BIG_ENDIAN;
+    protected boolean   bDouble    = false;
+    
+    private RandomAccessFile file    = null;
+    private FileChannel      channel = null;
+    
+    private FloatBuffer  floatWindow  = null;
+    private DoubleBuffer doubleWindow = null;
+    private int          windowFirst  = 0;  /* First frame in the mapped window */
+    private int          windowFrames = 0;  /* Number of frames in the mapped window */
+    private int          frame        = 0;  /* Next frame to be read */
+    
+    
+    public ReaderBinary(String fileName) {
+        this.fileName = fileName;
+    }
+    
+    
+    public boolean open() {
+        try {
+            file    = new RandomAccessFile(fileName, "r");
+            channel = file.getChannel();
+            if (!readHeader(channel)) {
+                close();
+                return false;
+            }
+            if (dataOffset + (long) numFrames * getFrameBytes() > channel.size()) {
+                System.err.println("Error: Binary input file " + fileName + " is shorter than given in its header.");
+                close();
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Input file " + fileName + " cannot be read.");
+            e.printStackTrace();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    /* Reads the header from the beginning of the file and sets numFrames, numFeatures and the layout of the data */
+    protected abstract boolean readHeader(FileChannel channel) throws IOException;
+    
+    /* Name of the instance the frame belongs to */
+    public abstract String getName(int frame);
+    
+    /* Time stamp of the frame (in seconds) */
+    public abstract float getTime(int frame);
+    
+    public abstract boolean hasTime();
+    
+    
+    public int getNumFrames() {
+        return numFrames;
+    }
+    
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+    
+    public int getFrame() {
+        /* Index of the next frame */
+        return frame;
+    }
+    
+    
+    public boolean nextFrame(float[] row, int offset) throws IOException {
+        /* Copies the features of the next frame into row, starting at index offset; returns false if there are no more frames */
+        if (frame >= numFrames) {
+            return false;
+        }
+        if (frame >= windowFirst + windowFrames || windowFrames==0) {
+            mapWindow(frame);
+        }
+        
+        int position = (frame - windowFirst) * numFeatures;
+        if (bDouble) {
+            for (int m=0; m < numFeatures; m++) {
+                row[offset + m] = (float) doubleWindow.get(position + m);
+            }
+        } else {
+            floatWindow.position(position);
+            floatWindow.get(row, offset, numFeatures);
+        }
+        
+        frame++;
+        return true;
+    }
+    
+    
+    private void mapWindow(int firstFrame) throws IOException {
+        int  frameBytes = getFrameBytes();
+        long frames     = Math.max(1, WINDOW_SIZE / Math.max(1, frameBytes));
+        windowFirst  = firstFrame;
+        windowFrames = (int) Math.min(frames, numFrames - firstFrame);
+        
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + (long) firstFrame * frameBytes, (long) windowFrames * frameBytes).order(byteOrder);
+        if (bDouble) {
+            doubleWindow = window.asDoubleBuffer();
+        } else {
+            floatWindow = window.asFloatBuffer();
+        }
+    }
+    
+    
+    private int getFrameBytes() {
+        return numFeatures * (bDouble ? 8 : 4);
+    }
+    
+    
+    public void close() {
+        try {
+            if (channel!=null) {
+                channel.close();
+            }
+            if (file!=null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        floatWindow  = null;
+        doubleWindow = null;
+        channel      = null;
+        file         = null;
+    }
+}
@@ -0,0 +1,93 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+public class ReaderHTK extends ReaderBinary {
+    /* HTK parameter file (big endian): Header with number of samples (int), sample period in 100 ns (int), bytes per sample (short) */
+    /* and parameter kind (short), followed by the samples as floats. The file contains one instance, named after the file.        */
+    /* Compressed files (_C) and waveforms are not supported.                                                                       */
+    
+    private static final int HTK_HEADER_SIZE = 12;
+    private static final int HTK_WAVEFORM    = 0;
+    private static final int HTK_BASEMASK    = 0x3f;
+    private static final int HTK_COMPRESSED  = 0x400;  /* _C */
+    
+    private String name       = null;
+    private double sampPeriod = 0.0;  /* In seconds */
+    
+    
+    public ReaderHTK(String fileName) {
+        super(fileName);
+        this.name = Reader.getBaseName(fileName);
+    }
+    
+    
+    protected boolean readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HTK_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        if (channel.read(header, 0) < HTK_HEADER_SIZE) {
+            System.err.println("Error: HTK file " + fileName + " has no valid header.");
+            return false;
+        }
+        
+        int nSamples   = header.getInt(0);
+        int sampPeriod = header.getInt(4);
+        int sampSize   = header.getShort(8) & 0xFFFF;
+        int parmKind   = header.getShort(10) & 0xFFFF;
+        
+        if ((parmKind & HTK_BASEMASK)==HTK_WAVEFORM || (parmKind & HTK_COMPRESSED)!=0) {
+            System.err.println("Error: HTK file " + fileName + ": Waveforms and compressed parameter files are not supported.");
+            return false;
+        }
+        if (nSamples < 0 || sampSize < 4 || sampSize % 4 != 0) {
+            System.err.println("Error: HTK file " + fileName + " has no valid header.");
+            return false;
+        }
+        
+        this.numFrames   = nSamples;
+        this.numFeatures = sampSize / 4;
+        this.sampPeriod  = sampPeriod * 1.0E-7;
+        this.dataOffset  = HTK_HEADER_SIZE;
+        this.byteOrder   = ByteOrder.BIG_ENDIAN;
+        this.bDouble     = false;
+        
+        return true;
+    }
+    
+    
+    public String getName(int frame) {
+        return name;
+    }
+    
+    public float getTime(int frame) {
+        return (float) (frame * sampPeriod);  /* Start of the frame */
+    }
+    
+    public boolean hasTime() {
+        return true;
+    }
+}
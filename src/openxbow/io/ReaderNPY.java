@@ -0,0 +1,193 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class ReaderNPY extends ReaderBinary {
+    /* NumPy array file (.npy) with a 2D matrix (frames x features) of type float32 or float64 in C order (one frame per row).       */
+    /* Names and time stamps of the frames are read from the sidecar file <base>.names.csv with one line per frame: name[;time]    */
+    /* (separator ; or , and an optional header line). Without sidecar, all frames belong to one instance named after the file.   */
+    
+    private static final byte[] NPY_MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    
+    private String   name  = null;  /* Name of all frames if there is no sidecar file */
+    private String[] names = null;
+    private float[]  times = null;
+    
+    
+    public ReaderNPY(String fileName) {
+        super(fileName);
+        this.name = Reader.getBaseName(fileName);
+    }
+    
+    
+    protected boolean readHeader(FileChannel channel) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(preamble, 0);
+        for (int k=0; k < NPY_MAGIC.length; k++) {
+            if (preamble.get(k)!=NPY_MAGIC[k]) {
+                System.err.println("Error: " + fileName + " is not a valid NumPy file.");
+                return false;
+            }
+        }
+        
+        int  majorVersion = preamble.get(6);
+        int  headerStart  = majorVersion==1 ? 10 : 12;
+        long headerLength = majorVersion==1 ? (preamble.getShort(8) & 0xFFFF) : (preamble.getInt(8) & 0xFFFFFFFFL);
+        
+        ByteBuffer headerBytes = ByteBuffer.allocate((int) headerLength);
+        channel.read(headerBytes, headerStart);
+        String header = new String(headerBytes.array(), StandardCharsets.ISO_8859_1);
+        
+        /* Header is a Python dict, e.g., {'descr': '<f4', 'fortran_order': False, 'shape': (1000, 65), } */
+        String descr = getHeaderValue(header, "descr").replace("'", "").replace("\"", "").trim();
+        String order = getHeaderValue(header, "fortran_order").trim();
+        String shape = getHeaderValue(header, "shape").replace("(", "").replace(")", "").trim();
+        
+        if (descr.equals("<f4") || descr.equals(">f4")) {
+            bDouble = false;
+        } else if (descr.equals("<f8") || descr.equals(">f8")) {
+            bDouble = true;
+        } else {
+            System.err.println("Error: NumPy file " + fileName + ": Data type " + descr + " is not supported (only float32 and float64).");
+            return false;
+        }
+        byteOrder = descr.startsWith(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        
+        if (!order.equals("False")) {
+            System.err.println("Error: NumPy file " + fileName + ": Fortran order is not supported.");
+            return false;
+        }
+        
+        List<Integer> dimensions = new ArrayList<Integer>();
+        for (String dim : shape.split(",")) {
+            if (!dim.trim().isEmpty()) {
+                dimensions.add(Integer.parseInt(dim.trim()));
+            }
+        }
+        if (dimensions.size() < 1 || dimensions.size() > 2) {
+            System.err.println("Error: NumPy file " + fileName + " must contain a matrix (frames x features).");
+            return false;
+        }
+        numFrames   = dimensions.get(0);
+        numFeatures = dimensions.size()==2 ? dimensions.get(1) : 1;
+        dataOffset  = headerStart + headerLength;
+        if (numFeatures < 1) {
+            System.err.println("Error: NumPy file " + fileName + " does not contain any features.");
+            return false;
+        }
+        
+        return readSidecar();
+    }
+    
+    
+    private String getHeaderValue(String header, String key) {
+        int start = header.indexOf("'" + key + "'");
+        if (start < 0) {
+            return "";
+        }
+        start = header.indexOf(':', start) + 1;
+        int end = key.equals("shape") ? header.indexOf(')', start) + 1 : header.indexOf(',', start);
+        if (end <= 0) {
+            end = header.indexOf('}', start);
+        }
+        return header.substring(start, end);
+    }
+    
+    
+    private boolean readSidecar() throws IOException {
+        String sidecarName = fileName.substring(0, fileName.length() - ".npy".length()) + ".names.csv";
+        if (!new File(sidecarName).exists()) {
+            return true;
+        }
+        
+        List<String> lines = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(sidecarName));
+        String thisLine = null;
+        while ((thisLine = br.readLine()) != null) {
+            if (!thisLine.trim().isEmpty()) {
+                lines.add(thisLine);
+            }
+        }
+        br.close();
+        
+        int firstLine = lines.size()==numFrames+1 ? 1 : 0;  /* Header line */
+        if (lines.size() - firstLine != numFrames) {
+            System.err.println("Error: Sidecar file " + sidecarName + " must have one line per frame of " + fileName + ".");
+            return false;
+        }
+        
+        String separator = lines.isEmpty() || lines.get(0).contains(";") ? ";" : ",";
+        Map<String,String> uniqueNames = new HashMap<String,String>();  /* All frames of an instance share one String */
+        names = new String[numFrames];
+        for (int f=0; f < numFrames; f++) {
+            String[] content = lines.get(firstLine + f).split(separator);
+            String   strName = content[0].trim().replace("'", "").replace("\"", "");
+            if (!uniqueNames.containsKey(strName)) {
+                uniqueNames.put(strName, strName);
+            }
+            names[f] = uniqueNames.get(strName);
+            if (content.length > 1) {
+                if (times==null) {
+                    times = new float[numFrames];
+                }
+                try {
+                    times[f] = Float.parseFloat(content[1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: Sidecar file " + sidecarName + ": Time stamp " + content[1] + " is not numeric.");
+                    return false;
+                }
+            } else if (times!=null) {
+                System.err.println("Error: Sidecar file " + sidecarName + ": Time stamp missing in line " + (firstLine + f + 1) + ".");
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    public String getName(int frame) {
+        return names!=null ? names[frame] : name;
+    }
+    
+    public float getTime(int frame) {
+        return times[frame];
+    }
+    
+    public boolean hasTime() {
+        return times!=null;
+    }
+}
@@ -30,12 +30,18 @@ import openxbow.main.DataManager;
 import openxbow.main.HyperBag;
 
 public class WriterIndex {
-    private String fileName;
+    private String  fileName;
+    private boolean bAppend = false;
     
     public WriterIndex(String fileName, DataManager DM) {
         this.fileName = fileName;
     }
     
+    public WriterIndex(String fileName, DataManager DM, boolean bAppend) {
+        this(fileName, DM);
+        this.bAppend = bAppend;
+    }
+    
     
     public boolean writeFile(HyperBag hyperBag) {
         List<Object[]> listAssignments = hyperBag.getListsOfAssignments();
@@ -47,7 +53,7 @@ public class WriterIndex {
                 outputFile.createNewFile();
             }
             
-            FileWriter     fw = new FileWriter(outputFile.getAbsoluteFile());
+            FileWriter     fw = new FileWriter(outputFile.getAbsoluteFile(),bAppend);
             BufferedWriter bw = new BufferedWriter(fw);
             
             /* CSV file */
@@ -21,6 +21,7 @@
 
 package openxbow.main;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,19 +29,29 @@ import openxbow.codebooks.Codebook;
 import openxbow.codebooks.CodebookNumeric;
 import openxbow.codebooks.CodebookNumericGMM;
 import openxbow.codebooks.CodebookText;
-import openxbow.nlp.String2WordVector;
+import openxbow.codebooks.CodewordSearch;
+import openxbow.codebooks.Distances;
+import openxbow.io.FeatureStore;
+import openxbow.nlp.Tokenizer;
+import openxbow.parallel.ChunkExecutor;
 
 
 public class Bag {
-    private List<Object[]> data;  /* Input data or assigned indexes of subcodebooks */
-    private Codebook       book;
-    private DataManager    DM;
-    private List<Integer>  indexFeatures;
+    /* The frames are assigned in chunks of BAG_CHUNK_FRAMES frames (in parallel, see setExecutor()), each chunk into its own partial */
+    /* bag (see PartialBag). Instances spanning several chunks are summed up in the order of the chunks. As the chunks do not depend  */
+    /* on the number of threads, neither does the result.                                                                             */
+    private static final int BAG_CHUNK_FRAMES = 4096;  /* Number of frames assigned per task, multiple of CodewordSearch.TILE_FRAMES */
+    
+    private FeatureStore  data;  /* Input data */
+    private Codebook      book;
+    private DataManager   DM;
+    private List<Integer> indexFeatures;
+    private ChunkExecutor executor = new ChunkExecutor(1);
     
     public  float[][] bof         = null;
     public  int[][]   assignments = null;  /* Dim 1: frameIndex, Dim 2: assignment index (multi assignment) */
     
-    public Bag (List<Object[]> data, Codebook book, DataManager DM, List<Integer> indexFeatures) {
+    public Bag (FeatureStore data, Codebook book, DataManager DM, List<Integer> indexFeatures) {
         this.data          = data;
         this.book          = book;
         this.DM            = DM;
@@ -52,133 +63,142 @@ public class Bag {
     }
     
     
+    public void setExecutor(ChunkExecutor executor) {
+        /* Threads for the assignment, one thread by default */
+        this.executor = executor;
+    }
+    
+    
     public void generateBoW () {
-        CodebookText bookText = (CodebookText)book;
-        
-        int sizeCodebook = bookText.getCodebook().length;
+        final CodebookText bookText = (CodebookText)book;
         
-        String2WordVector s2wv = new String2WordVector();
+        final int sizeCodebook = bookText.size();
         
-        Map<Integer,List<Integer>> mapFrameIDs = DM.getMappingFrameIDs();
+        final int[] frameIDOffsets = DM.getFrameIDOffsets();
+        final int[] frameIDs       = DM.getFrameIDs();
         
         bof = new float[DM.getNumIDs()][sizeCodebook];
         
         /* Assign */
-        int frameIndex = 0;
-        
-        for (Object[] frame : data) {  /* Put all text features into one bag */
-            String text  = "";
-            
-            for (int k=0; k < indexFeatures.size(); k++) {
-                text = text.concat(frame[indexFeatures.get(k)].toString());
-                text = text.concat(" ");
-            }
-            
-            String[] wordVector = s2wv.string2WordVector(text, bookText.getStopCharacters(), bookText.getNGram(), bookText.getNCharGram());
-            
-            for (int k=0; k < wordVector.length; k++) {
-                for (int j=0; j < sizeCodebook; j++) {
-                    if (bookText.getCodebook()[j].equals(wordVector[k])) {
-                        /* Increase the counter for all corresponding instances (IDs) */
-                        for (int id=0; id < mapFrameIDs.get(frameIndex).size(); id++) {
-                            bof[mapFrameIDs.get(frameIndex).get(id)][j]++;
+        List<PartialBag> partialBags = executor.run(data.size(), BAG_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<PartialBag>() {
+            public PartialBag compute(int start, int end) {
+                PartialBag    partialBag = new PartialBag(start, end);
+                Tokenizer     tokenizer  = new Tokenizer(bookText.getStopCharacters(), bookText.getNGram(), bookText.getNCharGram());
+                StringBuilder text       = new StringBuilder();
+                
+                for (int frameIndex=start; frameIndex < end; frameIndex++) {  /* Put all text features into one bag */
+                    text.setLength(0);
+                    
+                    for (int k=0; k < indexFeatures.size(); k++) {
+                        text.append(data.getString(frameIndex, indexFeatures.get(k)));
+                        text.append(' ');
+                    }
+                    
+                    int numTokens = tokenizer.tokenize(text);
+                    
+                    for (int k=0; k < numTokens; k++) {
+                        String token = tokenizer.getToken(k);
+                        int    j     = bookText.getIndex(token);  /* Hash lookup (bucket for a hashed codebook) */
+                        if (j >= 0) {
+                            int sign = bookText.getSign(token);
+                            /* Increase the counter for all corresponding instances (IDs) */
+                            for (int i=frameIDOffsets[frameIndex]; i < frameIDOffsets[frameIndex+1]; i++) {
+                                partialBag.getRow(frameIDs[i])[j] += sign;
+                            }
                         }
-                        
-                        break;
                     }
                 }
+                return partialBag;
             }
-            
-            frameIndex++;
+        });
+        
+        for (PartialBag partialBag : partialBags) {
+            partialBag.addSharedRows();
         }
     }
     
     
-    public void generateBoF (int numAssignments, float gaussianEncoding, float offCodewords, boolean bGetAssignments) {
+    public void generateBoF (final int numAssignments, final float gaussianEncoding, final float offCodewords, boolean bGetAssignments, final CodewordSearch search) {
         CodebookNumeric bookNumeric = (CodebookNumeric)book;
         float[][]       codebook    = bookNumeric.getCodebook();
         
-        int sizeCodebook          = codebook.length;
-        int numFeatures           = indexFeatures.size();
-        boolean bGaussianEncoding = false;
-        boolean bOffCodewords     = false;
-        if (gaussianEncoding > Float.MIN_VALUE) {
-            bGaussianEncoding = true;
-        }
-        if (offCodewords > Float.MIN_VALUE) {
-            bOffCodewords = true;
-        }
+        final int     sizeCodebook      = codebook.length;
+        final int     numFeatures       = indexFeatures.size();
+        final boolean bGaussianEncoding = gaussianEncoding > Float.MIN_VALUE;
+        final boolean bOffCodewords     = offCodewords > Float.MIN_VALUE;
         
-        Map<Integer,List<Integer>> mapFrameIDs = DM.getMappingFrameIDs();
+        final int[] frameIDOffsets = DM.getFrameIDOffsets();
+        final int[] frameIDs       = DM.getFrameIDs();
         bof = new float[DM.getNumIDs()][sizeCodebook];
         
         if (bGetAssignments) {  /* Required in case of 1) Output word indexes or 2) numeric n-grams */
             assignments = new int[data.size()][numAssignments];
         }
         
-        /* Assign */
-        int frameIndex = 0;
+        final int[] attributes = toArray(indexFeatures);
         
-        for (Object[] frame : data) {
-            /* Temporary variables */
-            float[] distance = new float[sizeCodebook];
-            float[] features = new float[numFeatures];
-            float   diff     = 0;
-            
-            /* Convert features to float array */
-            int kn = 0;
-            for (int k=0; k < numFeatures; k++) {
-                features[kn] = (float) frame[indexFeatures.get(k)];
-                kn++;
-            }
-            
-            /* Compute distances to codewords */
-            for (int j=0; j < sizeCodebook; j++) {
-                for (int k=0; k < numFeatures; k++) {
-                    diff = features[k] - codebook[j][k];
-                    distance[j] += diff * diff;
-                }
-            }
-            
-            /* Find assignments */
-            for (int a=0; a < numAssignments; a++) {
-                float minDistance = Float.MAX_VALUE;
-                int   minIndex    = 0;
+        /* Assign */
+        List<PartialBag> partialBags = executor.run(data.size(), BAG_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<PartialBag>() {
+            public PartialBag compute(int start, int end) {
+                PartialBag     partialBag       = new PartialBag(start, end);
+                CodewordSearch chunkSearch      = search.copy();  /* Own scratch buffers for each task */
+                float[][]      tile             = new float[CodewordSearch.TILE_FRAMES][numFeatures];
+                int[][]        nearest          = new int[CodewordSearch.TILE_FRAMES][numAssignments];
+                float[][]      nearestDistances = new float[CodewordSearch.TILE_FRAMES][numAssignments];
+                float[]        increments       = new float[numAssignments];
                 
-                for (int j=0; j < sizeCodebook; j++) {
-                    if (distance[j] < minDistance) {
-                        minDistance = distance[j];
-                        minIndex    = j;
+                for (int tileStart=start; tileStart < end; tileStart += CodewordSearch.TILE_FRAMES) {
+                    int numTile = Math.min(CodewordSearch.TILE_FRAMES, end - tileStart);
+                    
+                    /* Get features as float arrays */
+                    for (int f=0; f < numTile; f++) {
+                        data.getFloats(tileStart + f, attributes, tile[f]);
                     }
-                }
-                
-                if (assignments!=null) {
-                    assignments[frameIndex][a] = minIndex;
-                }
-                
-                float increment = 1.0f;
-                
-                if (bGaussianEncoding) {
-                    float frac = minDistance / (2 * gaussianEncoding * gaussianEncoding);  /* minDistance is squared distance */
-                    increment = (float) Math.exp(-frac);
-                }
-                
-                if (!bOffCodewords || Math.sqrt(minDistance) <= offCodewords) {
-                    /* Increase the counter for all corresponding instances (IDs) */
-                    for (int id=0; id < mapFrameIDs.get(frameIndex).size(); id++) {
-                        bof[mapFrameIDs.get(frameIndex).get(id)][minIndex] += increment;
+                    
+                    /* Find the closest codewords */
+                    chunkSearch.findNearest(tile, numTile, numAssignments, nearest, nearestDistances);
+                    
+                    for (int f=0; f < numTile; f++) {
+                        int frameIndex = tileStart + f;
+                        for (int a=0; a < numAssignments; a++) {
+                            float minDistance = nearestDistances[f][a];
+                            
+                            if (assignments!=null) {
+                                assignments[frameIndex][a] = nearest[f][a];
+                            }
+                            
+                            increments[a] = 1.0f;
+                            
+                            if (bGaussianEncoding) {
+                                float frac = minDistance / (2 * gaussianEncoding * gaussianEncoding);  /* minDistance is squared distance */
+                                increments[a] = (float) Math.exp(-frac);
+                            }
+                            
+                            if (bOffCodewords && Math.sqrt(minDistance) > offCodewords) {
+                                increments[a] = 0.0f;
+                            }
+                        }
+                        
+                        /* Increase the counter for all corresponding instances (IDs) */
+                        for (int i=frameIDOffsets[frameIndex]; i < frameIDOffsets[frameIndex+1]; i++) {
+                            float[] row = partialBag.getRow(frameIDs[i]);
+                            for (int a=0; a < numAssignments; a++) {
+                                row[nearest[f][a]] += increments[a];
+                            }
+                        }
                     }
                 }
-                
-                distance[minIndex] = Float.MAX_VALUE;
+                return partialBag;
             }
-            
-            frameIndex++;
+        });
+        
+        for (PartialBag partialBag : partialBags) {
+            partialBag.addSharedRows();
         }
         
         /* Make sure that we do not have a bag of only zeros */
         for (int id=0; id < bof.length; id++) {
-            if (DM.getNumFrames().get(id)==0) {
+            if (DM.getNumFrames()[id]==0) {
                 for (int w=0; w < bof[0].length; w++) {
                     bof[id][w] = 0.001f;
                 }
@@ -187,18 +207,21 @@ public class Bag {
     }
     
     
-    public void generateGMM(int gmmMode) {
+    public void generateGMM(int gmmMode, int topK) {
         /* gmmMode: 0 (not allowed), 1: WITHOUT priors, 2: WITH priors */
+        /* topK: Number of components with a non-zero posterior for each frame, 0: all components */
         assert(gmmMode>0 && gmmMode<=2);
         CodebookNumericGMM bookGMM = ((CodebookNumeric)book).getGMMCodebook();
-        float[]   mixtures    = bookGMM.getMixtureWeights();
-        float[][] centroids   = bookGMM.getCentroids();
-        float[][] covariances = bookGMM.getCovariances();
+        float[]         mixtures    = bookGMM.getMixtureWeights();
+        final float[][] centroids   = bookGMM.getCentroids();
+        float[][]       covariances = bookGMM.getCovariances();
         
-        int sizeCodebook = mixtures.length;
-        int numFeatures  = indexFeatures.size();
+        final int sizeCodebook = mixtures.length;
+        final int numFeatures  = indexFeatures.size();
+        final int numTop       = topK > 0 ? Math.min(topK, sizeCodebook) : sizeCodebook;
         
-        Map<Integer,List<Integer>> mapFrameIDs = DM.getMappingFrameIDs();
+        final int[] frameIDOffsets = DM.getFrameIDOffsets();
+        final int[] frameIDs       = DM.getFrameIDs();
         bof = new float[DM.getNumIDs()][sizeCodebook];
         
         /* Prepare mixture weights with mode */
@@ -213,58 +236,74 @@ public class Bag {
         }
         
         /* Precompute some values to make assignment faster */
-        float[] prefactorsGaussianProb = new float[sizeCodebook];
+        /* The likelihoods are computed in the log domain, as the linear likelihoods of high-dimensional features underflow */
+        final double[] logPrefactors = new double[sizeCodebook];
         for (int j=0; j < sizeCodebook; j++) {
-            prefactorsGaussianProb[j] = mixtures[j] * computePrefactorComponent(covariances[j]);
+            logPrefactors[j] = Math.log(Math.max(mixtures[j], Float.MIN_NORMAL)) + computeLogPrefactorComponent(covariances[j]);
         }
-        float[][] invCovariances = new float[sizeCodebook][numFeatures];
+        final float[][] invCovariances = new float[sizeCodebook][numFeatures];
         for (int j=0; j < sizeCodebook; j++) {
             for (int m=0; m < numFeatures; m++) {
                 invCovariances[j][m] = 1.0f / covariances[j][m]; 
             }
         }
-        float[] fv_unbiased = new float[numFeatures];
+        final int[] attributes = toArray(indexFeatures);
         
         /* Get probs */
-        int frameIndex = 0;
-        
-        for (Object[] frame : data) {
-            /* Temporary variables */
-            float[] features = new float[numFeatures];   /* TODO: initialise before? */
-            float[] prob     = new float[sizeCodebook];  /* TODO: initialise before? */
-            float   sumProb  = 0.0f;
-            
-            /* Convert features to float array */
-            int kn = 0;
-            for (int k=0; k < numFeatures; k++) {
-                features[kn] = (float) frame[indexFeatures.get(k)];
-                kn++;
-            }
-            
-            /* Compute probability for each cluster (mixture component) */
-            for (int j=0; j < sizeCodebook; j++) {
-                //prob[j] = computeGaussianProb(features, mixtures[j], centroids[j], covariances[j]);
-                prob[j] = computeGaussianProbFast(features, centroids[j], invCovariances[j], prefactorsGaussianProb[j], fv_unbiased);
-                sumProb += prob[j];
-            }
-            /* Normalize */
-            for (int j=0; j < sizeCodebook; j++) {
-                prob[j] /= sumProb;
-            }
-            
-            /* Assign values */
-            for (int id=0; id < mapFrameIDs.get(frameIndex).size(); id++) {
-                for (int j=0; j < sizeCodebook; j++) {
-                    bof[mapFrameIDs.get(frameIndex).get(id)][j] += prob[j];
+        List<PartialBag> partialBags = executor.run(data.size(), BAG_CHUNK_FRAMES, new ChunkExecutor.ChunkTask<PartialBag>() {
+            public PartialBag compute(int start, int end) {
+                PartialBag partialBag    = new PartialBag(start, end);
+                float[]    features      = new float[numFeatures];
+                int[]      topComponents = new int[numTop];
+                double[]   topLogProbs   = new double[numTop];
+                float[]    posteriors    = new float[numTop];
+                
+                for (int frameIndex=start; frameIndex < end; frameIndex++) {
+                    /* Get features as float array */
+                    data.getFloats(frameIndex, attributes, features);
+                    
+                    /* Log-likelihoods of the most likely components (mixture components) */
+                    if (numTop==sizeCodebook) {
+                        for (int j=0; j < sizeCodebook; j++) {
+                            topComponents[j] = j;
+                            topLogProbs[j]   = logPrefactors[j] - 0.5 * Distances.mahalanobis(features, centroids[j], invCovariances[j]);
+                        }
+                    } else {
+                        selectTopComponents(features, centroids, invCovariances, logPrefactors, topComponents, topLogProbs);
+                    }
+                    
+                    /* Normalize (log-sum-exp) */
+                    double maxLogProb = Double.NEGATIVE_INFINITY;
+                    for (int t=0; t < numTop; t++) {
+                        maxLogProb = Math.max(maxLogProb, topLogProbs[t]);
+                    }
+                    double sumProb = 0.0;
+                    for (int t=0; t < numTop; t++) {
+                        sumProb += Math.exp(topLogProbs[t] - maxLogProb);
+                    }
+                    for (int t=0; t < numTop; t++) {
+                        posteriors[t] = (float) (Math.exp(topLogProbs[t] - maxLogProb) / sumProb);
+                    }
+                    
+                    /* Assign values (only the top components) */
+                    for (int i=frameIDOffsets[frameIndex]; i < frameIDOffsets[frameIndex+1]; i++) {
+                        float[] bag = partialBag.getRow(frameIDs[i]);
+                        for (int t=0; t < numTop; t++) {
+                            bag[topComponents[t]] += posteriors[t];
+                        }
+                    }
                 }
+                return partialBag;
             }
-            
-            frameIndex++;
+        });
+        
+        for (PartialBag partialBag : partialBags) {
+            partialBag.addSharedRows();
         }
         
         /* Make sure that we do not have a bag of only zeros */
         for (int id=0; id < bof.length; id++) {
-            if (DM.getNumFrames().get(id)==0) {
+            if (DM.getNumFrames()[id]==0) {
                 for (int w=0; w < bof[0].length; w++) {
                     bof[id][w] = 0.001f;
                 }
@@ -273,30 +312,103 @@ public class Bag {
     }
     
     
-    /* NOTE: This function should be aligned with the corresponding function in openxbow.codebooks.CodebookNumericGMM */
-    private float computePrefactorComponent(float[] covariances) {
-        int   numFeatures = covariances.length;
-        float determinant = 1.0f;
-        for (int m=0; m < numFeatures; m++) {
-            determinant *= covariances[m];
+    private void selectTopComponents(float[] features, float[][] centroids, float[][] invCovariances, double[] logPrefactors, int[] topComponents, double[] topLogProbs) {
+        /* Finds the components with the largest log-likelihoods, sorted in descending order (insertion into the arrays of length k). */
+        /* Once k components have been found, the Mahalanobis distance of a component is only computed until it exceeds the bound, */
+        /* beyond which its log-likelihood would be below the k-th largest one.                                                      */
+        int numTop   = topComponents.length;
+        int numFound = 0;
+        
+        for (int j=0; j < centroids.length; j++) {
+            float bound = numFound < numTop ? Float.POSITIVE_INFINITY : (float) (2.0 * (logPrefactors[j] - topLogProbs[numTop-1]));
+            if (bound < 0.0f) {
+                continue;
+            }
+            float distance = Distances.mahalanobis(features, centroids[j], invCovariances[j], bound);
+            if (distance > bound) {
+                continue;
+            }
+            double logProb = logPrefactors[j] - 0.5 * distance;
+            
+            int t;
+            if (numFound < numTop) {
+                t = numFound++;
+            } else if (logProb > topLogProbs[numTop-1]) {
+                t = numTop - 1;  /* Replaces the k-th largest one */
+            } else {
+                continue;
+            }
+            while (t > 0 && topLogProbs[t-1] < logProb) {
+                topLogProbs[t]   = topLogProbs[t-1];
+                topComponents[t] = topComponents[t-1];
+                t--;
+            }
+            topLogProbs[t]   = logProb;
+            topComponents[t] = j;
         }
-        determinant += Float.MIN_NORMAL;
-        return (float) (1.0f / Math.sqrt( Math.pow(2.0f * Math.PI, numFeatures) * determinant ));        
     }
     
     
-    /* NOTE: This function should be aligned with the corresponding function in openxbow.codebooks.CodebookNumericGMM */
-    private float computeGaussianProbFast(float[] feature_vector, float[] centroid, float[] invCovariances, float prefactor, float[] fv_unbiased) {
-        int numFeatures = feature_vector.length;
+    private class PartialBag {
+        /* Bag of the chunk of frames [start,end): Instances (IDs) with all frames in the chunk are accumulated directly in bof (no other */
+        /* chunk has frames of them), the instances shared with other chunks in rows of their own, which are added to bof afterwards.   */
+        private int                  start;
+        private int                  end;
+        private Map<Integer,float[]> sharedRows = new HashMap<Integer,float[]>();
+        private int                  lastID     = -1;    /* Consecutive frames mostly belong to the same instances */
+        private float[]              lastRow    = null;
         
-        float exponent = 0.0f;
-        for (int m=0; m < numFeatures; m++) {
-            // (feature_vector[m] - centroid[m]) is the unbiased feature vector; (a-b) * (a-b) is faster than Math.pow(a-b,2)
-            exponent += (feature_vector[m] - centroid[m]) * (feature_vector[m] - centroid[m]) * invCovariances[m];  /* inverse of the covariance "matrix" */
+        PartialBag(int start, int end) {
+            this.start = start;
+            this.end   = end;
+        }
+        
+        float[] getRow(int id) {
+            if (id!=lastID) {
+                if (DM.getFirstFrame(id) >= start && DM.getLastFrame(id) < end) {
+                    lastRow = bof[id];
+                } else {
+                    lastRow = sharedRows.get(id);
+                    if (lastRow==null) {
+                        lastRow = new float[bof[id].length];
+                        sharedRows.put(id, lastRow);
+                    }
+                }
+                lastID = id;
+            }
+            return lastRow;
         }
         
-        float prob = prefactor * (float) Math.exp(-0.5f * exponent);
-        return prob + Float.MIN_NORMAL;
+        void addSharedRows() {
+            /* Each entry of bof gets at most one addition per chunk, so the order of the rows does not matter */
+            for (Map.Entry<Integer,float[]> entry : sharedRows.entrySet()) {
+                float[] bag = bof[entry.getKey()];
+                float[] row = entry.getValue();
+                for (int w=0; w < row.length; w++) {
+                    bag[w] += row[w];
+                }
+            }
+        }
+    }
+    
+    
+    private int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int k=0; k < array.length; k++) {
+            array[k] = list.get(k);
+        }
+        return array;
+    }
+    
+    
+    /* NOTE: This function should be aligned with computeLogPrefactorComponent in openxbow.codebooks.CodebookNumericGMM */
+    private double computeLogPrefactorComponent(float[] covariances) {
+        int    numFeatures    = covariances.length;
+        double logDeterminant = 0.0;
+        for (int m=0; m < numFeatures; m++) {
+            logDeterminant += Math.log(covariances[m]);
+        }
+        return -0.5 * (numFeatures * Math.log(2.0 * Math.PI) + logDeterminant);
     }
     
     
@@ -0,0 +1,269 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import openxbow.codebooks.HyperCodebook;
+import openxbow.io.PredictSVM;
+import openxbow.io.Reader;
+import openxbow.io.Writer;
+import openxbow.io.WriterIndex;
+
+
+public class BatchProcessor {
+    /* Processes many input files (option -batch) with one given codebook (-b) in one run: The codebook, the labels file and the */
+    /* SVM model are read only once, then the input files are processed on a pool of worker threads. Each input file has its own */
+    /* Reader, DataManager and HyperBag and its own output files (* in the output file names is replaced by the input name).    */
+    /* The shared codebook and options are not modified after loading, as all codebook-dependent settings are taken from -b.    */
+    
+    private Options options = null;
+    
+    private HyperCodebook              hyperBook   = null;
+    private PredictSVM                 predictSVM  = null;
+    private Map<Integer,List<Integer>> attributes  = null;  /* Feature classes of the first input file, all files must have the same */
+    private Map<String,List<String[]>> labelsIndex = null;  /* Lines of the labels file for each name */
+    private int                        numLabels   = 0;
+    
+    
+    public BatchProcessor(Options options) {
+        this.options = options;
+    }
+    
+    
+    public boolean run() {
+        List<String> inputFiles = getInputFiles(options.batchInput);
+        if (inputFiles==null || inputFiles.isEmpty()) {
+            System.err.println("Error: No input files found for -batch " + options.batchInput);
+            return false;
+        }
+        
+        /* The output files are named after the input files, so the names (without path and extension) must be unique */
+        Map<String,String> baseNames = new HashMap<String,String>();
+        for (String inputFile : inputFiles) {
+            String name      = Reader.getBaseName(inputFile);
+            String otherFile = baseNames.put(name, inputFile);
+            if (otherFile!=null) {
+                System.err.println("Error: Input files " + otherFile + " and " + inputFile + " have the same name " + name + ", their output files would overwrite each other.");
+                return false;
+            }
+        }
+        System.out.println("Batch processing of " + inputFiles.size() + " input files ...");
+        
+        /* The first input file is read to set up the codebook (the feature classes must be known) */
+        Reader firstReader = createReader(inputFiles.get(0));
+        if (!firstReader.readFile()) {
+            System.err.println("Error: Input file " + inputFiles.get(0) + " cannot be processed.");
+            return false;
+        }
+        DataManager firstDM = new DataManager(firstReader,options.windowSize,options.hopSize);
+        attributes = firstReader.getIndexesAttributeClass();
+        
+        options.updateCodebookSpecificLists(firstReader.getNumberOfFeatureClasses());
+        hyperBook = new HyperCodebook(firstDM, options);
+        if (!hyperBook.loadHyperCodebook(options.loadCodebookName)) {
+            return false;
+        }
+        
+        if (!options.labelsFileName.isEmpty() && !indexLabelsFile(options.labelsFileName, firstDM.isWindowing())) {
+            return false;
+        }
+        
+        if (!options.modelFileName.isEmpty()) {
+            predictSVM = new PredictSVM(options.modelFileName);
+            if (!predictSVM.readModel()) {
+                return false;
+            }
+        }
+        
+        /* Process all input files */
+        int threads = options.numThreads > 0 ? options.numThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputFiles.size()));
+        
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int f=0; f < inputFiles.size(); f++) {
+            final String inputFile = inputFiles.get(f);
+            final Reader reader    = f==0 ? firstReader : null;  /* Has been read already */
+            results.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return processFile(inputFile, reader);
+                }
+            }));
+        }
+        
+        int numProcessed = 0;
+        try {
+            for (int f=0; f < results.size(); f++) {
+                if (results.get(f).get()) {
+                    numProcessed++;
+                } else {
+                    System.err.println("Error: Input file " + inputFiles.get(f) + " cannot be processed.");
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            pool.shutdown();
+        }
+        
+        System.out.println("Number of processed input files: " + numProcessed + " / " + inputFiles.size());
+        
+        return numProcessed==inputFiles.size();
+    }
+    
+    
+    private boolean processFile(String inputFile, Reader reader) {
+        if (reader==null) {
+            reader = createReader(inputFile);
+            if (!reader.readFile()) {
+                return false;
+            }
+        }
+        if (!attributes.equals(reader.getIndexesAttributeClass())) {
+            System.err.println("Error: Attributes of input file " + inputFile + " do not match the first input file.");
+            return false;
+        }
+        
+        DataManager DM = new DataManager(reader,options.windowSize,options.hopSize);
+        
+        /* Preprocessing */
+        Preprocessor preProc = new Preprocessor(DM, hyperBook, options);
+        preProc.preprocessInput();
+        
+        /* Generate the mappings (after activity detection) */
+        DM.generateMappings();
+        
+        if (labelsIndex!=null) {
+            DM.setLabels(labelsIndex, numLabels);
+        }
+        
+        /* Create the bag-of-words */
+        HyperBag hyperBag = new HyperBag(DM, hyperBook, options);
+        hyperBag.setNumThreads(1);  /* The files are processed in parallel already */
+        hyperBag.generateBag();
+        
+        /* Postprocessing */
+        Postprocessor postProc = new Postprocessor(hyperBook, hyperBag, options);
+        postProc.postprocessOutput();
+        
+        /* Write output files */
+        String name = Reader.getBaseName(inputFile);
+        if (!options.outputFileName.isEmpty()) {
+            Writer writer = new Writer(options.outputFileName.replace("*", name), DM, options.csvHeader, options.csvSep, options.bWriteName, options.bWriteTimeStamp, options.bNoWriteLabels, options.arffLabels, options.bAppend);
+            writer.writeFile(hyperBag);
+        }
+        if (!options.outputIFileName.isEmpty()) {
+            WriterIndex writerInd = new WriterIndex(options.outputIFileName.replace("*", name), DM);
+            writerInd.writeFile(hyperBag);
+        }
+        if (predictSVM!=null) {
+            predictSVM.predictLabelsAndWriteJSON(hyperBag, options.jsonFileName.replace("*", name));
+        }
+        
+        return true;
+    }
+    
+    
+    private Reader createReader(String inputFile) {
+        Reader reader = new Reader(inputFile, options.attributes, options.attributesAlt, options.bTimeStamp);
+        reader.setParser(options.parser.equals("parallel") ? "mmap" : options.parser);  /* The files are processed in parallel already */
+        return reader;
+    }
+    
+    
+    private List<String> getInputFiles(String batchInput) {
+        /* Pattern with wildcards in the file name or a text file listing the input files */
+        List<String> inputFiles = new ArrayList<String>();
+        
+        if (batchInput.contains("*") || batchInput.contains("?")) {
+            Path        pattern   = Paths.get(batchInput);
+            Path        directory = pattern.getParent()!=null ? pattern.getParent() : Paths.get(".");
+            PathMatcher matcher   = FileSystems.getDefault().getPathMatcher("glob:" + pattern.getFileName().toString());
+            File[]      files     = directory.toFile().listFiles();
+            if (files==null) {
+                return null;
+            }
+            for (File file : files) {
+                if (file.isFile() && matcher.matches(Paths.get(file.getName()))) {
+                    inputFiles.add(pattern.getParent()!=null ? directory.resolve(file.getName()).toString() : file.getName());
+                }
+            }
+            Collections.sort(inputFiles);
+        }
+        else {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new FileReader(new File(batchInput)));
+                String thisLine = null;
+                while ((thisLine = br.readLine()) != null) {
+                    if (!thisLine.trim().isEmpty()) {
+                        inputFiles.add(thisLine.trim());
+                    }
+                }
+                br.close();
+            } catch (IOException e) {
+                System.err.println("Error: List of input files " + batchInput + " cannot be read.");
+                e.printStackTrace();
+                return null;
+            }
+        }
+        
+        return inputFiles;
+    }
+    
+    
+    private boolean indexLabelsFile(String labelsFileName, boolean bWindowing) {
+        /* The labels file is read only once for all input files */
+        List<String[]> labelsLines = DataManager.readLabelsLines(labelsFileName);
+        if (labelsLines==null) {
+            return false;
+        }
+        
+        numLabels = DataManager.getNumLabels(labelsLines, bWindowing);
+        if (numLabels < 1) {
+            System.err.println("Error: Labels file " + labelsFileName + " does not have the required format");
+            return false;
+        }
+        
+        labelsIndex = DataManager.indexLabelsLines(labelsLines);
+        
+        return true;
+    }
+}
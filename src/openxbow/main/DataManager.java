@@ -25,10 +25,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import openxbow.io.FeatureStore;
 import openxbow.io.Reader;
 
 public class DataManager {
@@ -37,10 +40,18 @@ public class DataManager {
     private Map<Integer,String>        mapIDName   = null;  /* Stores the name for each id, without "'" */
     private Map<String,Integer>        mapNameID   = null;  /* Stores the id for each name (without "'"), in case we have different time instances for the same name, the first id with name is given */
     private Map<Integer,String[]>      mapIDLabels = null;  /* Stores the labels for each id */
-    private Map<Integer,List<Integer>> mapFrameIDs = null;  /* Stores the corresponding ID(s) for each frame */
     private Map<Integer,Float>         mapIDTime   = null;  /* Stores the time stamp (center of each segment) for every id, if the input data must be segmented */
-    private List<Boolean>              bIsActive   = null;  /* Specifies for each frame if activity has been detected (true) or not. This list is initialized in the Preprocessor. */
-    private List<Integer>              numFrames   = null;  /* Stores the number of frames belonging to one ID */
+    private BitSet                     bIsActive   = null;  /* Specifies for each frame if activity has been detected (true) or not. All frames are active until the Preprocessor clears them. */
+    
+    /* Mapping of the frames to the IDs in compressed sparse rows: The IDs of frame f are frameIDs[frameIDOffsets[f]] to          */
+    /* frameIDs[frameIDOffsets[f+1]-1], in ascending order. Each frame belongs to one ID (no windowing) or to all windows covering */
+    /* it; frames without activity belong to no ID.                                                                              */
+    private int[] frameIDOffsets = null;
+    private int[] frameIDs       = null;
+    private int   numFrameIDs    = 0;     /* Number of used entries of frameIDs while generating the mappings */
+    private int[] numFrames      = null;  /* Stores the number of frames belonging to one ID */
+    private int[] firstFrames    = null;  /* First and last frame belonging to each ID, -1 if it has no frames */
+    private int[] lastFrames     = null;
     
     private boolean bWindowing = false;
     private float   windowSize = 0.0f;
@@ -51,13 +62,8 @@ public class DataManager {
         this.mapIDName   = new HashMap<Integer,String>();
         this.mapNameID   = new HashMap<String,Integer>();
         this.mapIDLabels = new HashMap<Integer,String[]>();
-        this.mapFrameIDs = new HashMap<Integer,List<Integer>>();
-        this.numFrames   = new ArrayList<Integer>();
-        this.bIsActive   = new ArrayList<Boolean>();
-        for (int iFrame=0; iFrame < this.reader.inputData.size(); iFrame++) {
-            bIsActive.add(true);
-            mapFrameIDs.put(iFrame, new ArrayList<Integer>());
-        }
+        this.bIsActive   = new BitSet(this.reader.inputData.size());
+        this.bIsActive.set(0, this.reader.inputData.size());
     }
     
     public DataManager(Reader reader, float windowSize, float hopSize) {
@@ -80,26 +86,78 @@ public class DataManager {
     public Map<Integer,String[]> getMappingIDLabels() {
         return mapIDLabels;
     }
-    public Map<Integer,List<Integer>> getMappingFrameIDs() {
-        return mapFrameIDs;
-    }
     public Map<Integer,Float> getMappingIDTime() {
         return mapIDTime;
     }
-    public List<Integer> getNumFrames() {
+    public int[] getFrameIDOffsets() {
+        return frameIDOffsets;  /* Length: number of frames + 1, see frameIDs */
+    }
+    public int[] getFrameIDs() {
+        return frameIDs;
+    }
+    public int[] getNumFrames() {
         return numFrames;
     }
-    public List<Boolean> getActivityList() {
+    public int getFirstFrame(int id) {
+        return firstFrames[id];
+    }
+    public int getLastFrame(int id) {
+        return lastFrames[id];  /* Frames in between can belong to other IDs if a name occurs in several blocks of the input */
+    }
+    public BitSet getActivity() {
         return bIsActive;
     }
     
     
     public void generateMappings() {
+        int numInputFrames = reader.inputData.size();
+        frameIDOffsets = new int[numInputFrames + 1];
+        frameIDs       = new int[Math.max(16, numInputFrames)];
+        numFrameIDs    = 0;
+        numFrames      = new int[16];
+        firstFrames    = new int[16];
+        lastFrames     = new int[16];
+        
         if (bWindowing) {
             generateMappingsWindowing();
         } else {
             generateMappingsNoWindowing();
         }
+        
+        /* Trim the arrays */
+        frameIDOffsets[numInputFrames] = numFrameIDs;
+        frameIDs    = Arrays.copyOf(frameIDs,    numFrameIDs);
+        numFrames   = Arrays.copyOf(numFrames,   getNumIDs());
+        firstFrames = Arrays.copyOf(firstFrames, getNumIDs());
+        lastFrames  = Arrays.copyOf(lastFrames,  getNumIDs());
+    }
+    
+    
+    private void addID(int id) {
+        /* New ID without frames (IDs are added in ascending order) */
+        if (id >= numFrames.length) {
+            int capacity = Math.max(2 * numFrames.length, id + 1);
+            numFrames   = Arrays.copyOf(numFrames,   capacity);
+            firstFrames = Arrays.copyOf(firstFrames, capacity);
+            lastFrames  = Arrays.copyOf(lastFrames,  capacity);
+        }
+        numFrames[id]   = 0;
+        firstFrames[id] = -1;
+        lastFrames[id]  = -1;
+    }
+    
+    
+    private void addFrameID(int frame, int id) {
+        /* Adds id to the IDs of frame (all IDs of a frame must be added before the next frame) */
+        if (numFrameIDs==frameIDs.length) {
+            frameIDs = Arrays.copyOf(frameIDs, 2 * frameIDs.length);
+        }
+        frameIDs[numFrameIDs++] = id;
+        numFrames[id]++;
+        if (firstFrames[id] < 0) {
+            firstFrames[id] = frame;
+        }
+        lastFrames[id] = frame;
     }
     
     
@@ -110,102 +168,159 @@ public class DataManager {
             System.err.println("Error in IDOrganizer.readLabelsFile: run generateMappings(Reader reader) first!");
         }
         
-        BufferedReader br = null;
         mapIDLabels.clear();
         
+        List<String[]> labelsLines = readLabelsLines(labelsFileName);
+        if (labelsLines==null) {
+            return false;
+        }
+        
+        int numLabels = getNumLabels(labelsLines, bWindowing);
+        if (numLabels < 1) {
+            System.err.println("Error: Labels file " + labelsFileName + " does not have the required format");
+            return false;
+        }
+        
+        /* Check if there is a header line */
+        int startLine = 0;
+        if (mapNameID.get(labelsLines.get(0)[0].replace("'", ""))==null) {  /* Header line is present */
+            startLine = 1;
+        }
+        
+        for (int l=startLine; l < labelsLines.size(); l++) {
+            addLabelsLine(labelsLines.get(l), numLabels);
+        }
+        
+        return true;
+    }
+    
+    
+    public void setLabels(Map<String,List<String[]>> labelsIndex, int numLabels) {
+        /* Sets the labels from a labels file which has been read and indexed before (see indexLabelsLines()); */
+        /* only the lines of names in the input data are looked up                                             */
+        mapIDLabels.clear();
+        for (String name : mapNameID.keySet()) {
+            List<String[]> labelsLines = labelsIndex.get(name);
+            if (labelsLines!=null) {
+                for (String[] content : labelsLines) {
+                    addLabelsLine(content, numLabels);
+                }
+            }
+        }
+    }
+    
+    
+    public static Map<String,List<String[]>> indexLabelsLines(List<String[]> labelsLines) {
+        /* Lines of a labels file for each name (without "'"); a header line is indexed by its first entry, which does not occur as a name */
+        Map<String,List<String[]>> labelsIndex = new HashMap<String,List<String[]>>();
+        for (String[] content : labelsLines) {
+            String name = content[0].replace("'", "");
+            if (!labelsIndex.containsKey(name)) {
+                labelsIndex.put(name, new ArrayList<String[]>());
+            }
+            labelsIndex.get(name).add(content);
+        }
+        return labelsIndex;
+    }
+    
+    
+    public static List<String[]> readLabelsLines(String labelsFileName) {
+        /* Returns all lines of the labels file, split by ; */
+        BufferedReader br          = null;
+        List<String[]> labelsLines = new ArrayList<String[]>();
+        
         try {
-            String   thisLine = null;
-            String[] content  = null;
-            Object   name     = null;
-            Object   ret      = null; 
-            
+            String thisLine  = null;
             File   inputFile = new File(labelsFileName);
                    br        = new BufferedReader(new FileReader(inputFile));
             
-            thisLine = br.readLine();
-            
-            int numLabels = 0;
-            if (thisLine==null || (bWindowing && thisLine.split(";").length < 3) || (!bWindowing && thisLine.split(";").length < 2)) {
-                System.err.println("Error: Labels file " + labelsFileName + " does not have the required format");
-                return false;
-            } else if (bWindowing) {
-                numLabels = thisLine.split(";").length-2;
-            } else {
-                numLabels = thisLine.split(";").length-1;
+            while ((thisLine = br.readLine()) != null) {
+                labelsLines.add(thisLine.split(";"));
             }
-            
-            /* Check if there is a header line */
-            content = thisLine.split(";");
-            name    = content[0].replace("'", "");
-            if (mapNameID.get(name)==null) {  /* Header line is present */
-                thisLine = br.readLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                if (br!=null) {
+                    br.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
             }
+        }
+        
+        return labelsLines;
+    }
+    
+    
+    public static int getNumLabels(List<String[]> labelsLines, boolean bWindowing) {
+        /* Number of labels given in the first line, 0 if the format is not valid */
+        if (labelsLines.isEmpty() || (bWindowing && labelsLines.get(0).length < 3) || (!bWindowing && labelsLines.get(0).length < 2)) {
+            return 0;
+        } else if (bWindowing) {
+            return labelsLines.get(0).length-2;
+        } else {
+            return labelsLines.get(0).length-1;
+        }
+    }
+    
+    
+    private void addLabelsLine(String[] content, int numLabels) {
+        String name = content[0].replace("'", "");
+        Object ret  = null;
+        
+        if (bWindowing) {
+            /* Check if combination of name and segment is already in the list */
+            int counter = 0;
             
-            while (thisLine != null) {
-                content = thisLine.split(";");
-                name    = content[0].replace("'", "");
+            ret = mapNameID.get(name);  /* Get first id of the correct file (name) */
+            if (ret!=null) {
+                counter = (int) ret;
                 
-                if (bWindowing) {
-                    /* Check if combination of name and segment is already in the list */
-                    int counter = 0;
-                    
-                    ret = mapNameID.get(name);  /* Get first id of the correct file (name) */
-                    if (ret!=null) {
-                        counter = (int) ret;
-                        
-                        /* Search for the correct time stamp within file */
-                        double dLabel = Double.parseDouble(content[1]);
-                        int    id     = -1;
-                        while (counter < mapIDName.size() && mapIDName.get(counter).equals(name)) {  /* NOTE: Can be improved if we know the number of IDs in one file */
-                            if (areEqual(dLabel, mapIDTime.get(counter))) {
-                                id = counter;
-                                break;
-                            }
-                            counter++;
-                        }
-                        
-                        /* Add label for the correct id */
-                        if (id >= 0) {
-                            String[] labels = new String[numLabels];
-                            for (int m=0; m < numLabels; m++) {
-                                labels[m] = content[m+2];
-                            }
-                            mapIDLabels.put(id, labels);
-                        }
+                /* Search for the correct time stamp within file */
+                double dLabel = Double.parseDouble(content[1]);
+                int    id     = -1;
+                while (counter < mapIDName.size() && mapIDName.get(counter).equals(name)) {  /* NOTE: Can be improved if we know the number of IDs in one file */
+                    if (areEqual(dLabel, mapIDTime.get(counter))) {
+                        id = counter;
+                        break;
                     }
+                    counter++;
                 }
-                else {
-                    ret = mapNameID.get(name);
-                    if (ret!=null) {
-                        String[] labels = new String[numLabels];
-                        for (int m=0; m < numLabels; m++) {
-                            labels[m] = content[m+1];
-                        }
-                        mapIDLabels.put((int)ret, labels);
+                
+                /* Add label for the correct id */
+                if (id >= 0) {
+                    String[] labels = new String[numLabels];
+                    for (int m=0; m < numLabels; m++) {
+                        labels[m] = content[m+2];
                     }
+                    mapIDLabels.put(id, labels);
                 }
-                
-                thisLine = br.readLine();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        } finally {
-            try {
-                br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
+        }
+        else {
+            ret = mapNameID.get(name);
+            if (ret!=null) {
+                String[] labels = new String[numLabels];
+                for (int m=0; m < numLabels; m++) {
+                    labels[m] = content[m+1];
+                }
+                mapIDLabels.put((int)ret, labels);
             }
         }
-        
-        return true;
+    }
+    
+    
+    public boolean isWindowing() {
+        return bWindowing;
     }
     
     
     private void generateMappingsNoWindowing() {
-        List<Object[]> inputData = reader.inputData;
-        int            indexName = reader.getIndexName();
+        FeatureStore inputData = reader.inputData;
+        int          indexName = reader.getIndexName();
         
         int ind = 0; /* Overall index of the input data */
         int ID  = 0; /* Index of each instance (starting from 0) */
@@ -214,7 +329,7 @@ public class DataManager {
         
         while (ind < inputData.size()) {
             /* Check if the current name has already occurred */
-            String curName = inputData.get(ind)[indexName].toString();
+            String curName = inputData.getString(ind, indexName);
             int    curID   = 0;
             
             if (!mapNameID.containsKey(curName)) {
@@ -222,12 +337,13 @@ public class DataManager {
                 curID = ID++;
                 
                 /* Add map entries to know which bag relates to which name */
+                addID(curID);
                 mapIDName.put(curID, curName);
                 mapNameID.put(curName, curID);
                 if (numLabels > 0) {  /* The labels for each instance must be the same */
                     String[] labels = new String[numLabels];
                     for (int m=0; m < numLabels; m++) {
-                        labels[m] = inputData.get(ind)[reader.getIndexesLabels().get(m)].toString();
+                        labels[m] = inputData.getString(ind, reader.getIndexesLabels().get(m));
                     }
                     mapIDLabels.put(curID, labels);
                 }
@@ -236,22 +352,14 @@ public class DataManager {
                 curID = mapNameID.get(curName);
             }
             
-            /* Add all successive frames belonging to the same ID (name) to mapFrameIDs */
-            int counter = 0;
-            while (ind < inputData.size() && inputData.get(ind)[indexName].toString().equals(curName)) {
+            /* Add all successive frames belonging to the same ID (name) to the mapping */
+            while (ind < inputData.size() && inputData.getString(ind, indexName).equals(curName)) {
+                frameIDOffsets[ind] = numFrameIDs;
                 if (bIsActive.get(ind)) {
-                    mapFrameIDs.get(ind).add(curID);  /* Only one ID corresponds to each frame in case of no windowing */
-                    counter++;
+                    addFrameID(ind, curID);  /* Only one ID corresponds to each frame in case of no windowing */
                 }
                 ind++;
             }
-            
-            /* Increment frame counter */
-            if (curID < numFrames.size()) {
-                numFrames.set(curID, numFrames.get(curID) + counter);
-            } else {
-                numFrames.add(counter);
-            }
         }
     }
     
@@ -260,9 +368,9 @@ public class DataManager {
         /* Note: All frames belonging to the same file (name) must be listed coherently. 
                  All frames within each file must be in the correct order (Reason: Meaningful speed-up). */
         
-        List<Object[]> inputData = reader.inputData;
-        int            indexName = reader.getIndexName();
-        int            indexTime = reader.getIndexTime();
+        FeatureStore inputData = reader.inputData;
+        int          indexName = reader.getIndexName();
+        int          indexTime = reader.getIndexTime();
         
         List<Float> listCenters = new ArrayList<Float>();
         List<Float> listLowerB  = new ArrayList<Float>();
@@ -273,13 +381,13 @@ public class DataManager {
         int IDoffset = 0;  /* Index of each segment=window=instance (starting from 0) */
         
         int    ind      = 0;  /* Overall index of the input data */
-        Object curName  = "";
+        String curName  = "";
         int    firstSeg = 0;  /* Meaningful speed-up */
         
         while (ind < inputData.size()) {
-            if (!curName.equals(inputData.get(ind)[indexName])) {
+            if (!curName.equals(inputData.getString(ind, indexName))) {
                 /* New file (name) in input -> add new IDs (one for each window center) */
-                curName = inputData.get(ind)[indexName];
+                curName = inputData.getString(ind, indexName);
                 
                 /* Update list of block boundaries */
                 updateListOfBlocks(reader, curName, ind, listCenters, listLowerB, listUpperB);
@@ -289,24 +397,23 @@ public class DataManager {
                 for (int iSeg=0; iSeg < listCenters.size(); iSeg++) {
                     int curID = IDoffset + iSeg;
                     if (!mapNameID.containsKey(curName)) {
-                        mapNameID.put(curName.toString(), curID);  /* Only the first occurrence of name - to speed up readLabelsFile() */
+                        mapNameID.put(curName, curID);  /* Only the first occurrence of name - to speed up readLabelsFile() */
                     }
-                    mapIDName.put(curID, curName.toString());
+                    mapIDName.put(curID, curName);
                     mapIDTime.put(curID, listCenters.get(iSeg));
-                    numFrames.add(curID, 0);
+                    addID(curID);
                 }
             }
             
+            frameIDOffsets[ind] = numFrameIDs;
             if (bIsActive.get(ind)) {  /* Add only frames with activity */
-                float curTime = (float)inputData.get(ind)[indexTime];
-                List <Integer> mapFrameIDsInd = mapFrameIDs.get(ind);
+                float curTime = inputData.getFloat(ind, indexTime);
                 
                 int curID = IDoffset;
                 for (int iSeg=firstSeg; iSeg < listLowerB.size(); iSeg++) {  /* Meaningful speed-up */
                     curID = IDoffset + iSeg;
                     if (listLowerB.get(iSeg) <= curTime && listUpperB.get(iSeg) >= curTime) {
-                        mapFrameIDsInd.add(curID);
-                        numFrames.set(curID, numFrames.get(curID) + 1);
+                        addFrameID(ind, curID);
                     }
                     else if (listLowerB.get(iSeg) > curTime) {  /* Meaningful speed-up */
                         break;
@@ -322,21 +429,21 @@ public class DataManager {
     }
     
     
-    private void updateListOfBlocks(Reader reader, Object curName, int startIndex, List<Float> listCenters, List<Float> listLowerB, List<Float> listUpperB) {
+    private void updateListOfBlocks(Reader reader, String curName, int startIndex, List<Float> listCenters, List<Float> listLowerB, List<Float> listUpperB) {
         listCenters.clear(); 
         listLowerB.clear();
         listUpperB.clear();
         
-        List<Object[]> inputData = reader.inputData;
-        int            indexName = reader.getIndexName();
-        int            indexTime = reader.getIndexTime();
+        FeatureStore inputData = reader.inputData;
+        int          indexName = reader.getIndexName();
+        int          indexTime = reader.getIndexTime();
         
         /* Determine maximum time stamp which is taken into account */
         int   ind     = startIndex;
         float maxTime = 0.0f;
-        while (ind < inputData.size() && curName.equals(inputData.get(ind)[indexName])) {
-            if ((float)inputData.get(ind)[indexTime] > maxTime) {
-                maxTime = (float)inputData.get(ind)[indexTime];
+        while (ind < inputData.size() && curName.equals(inputData.getString(ind, indexName))) {
+            if (inputData.getFloat(ind, indexTime) > maxTime) {
+                maxTime = inputData.getFloat(ind, indexTime);
             }
             ind++;
         }
@@ -27,8 +27,12 @@ import java.util.List;
 import openxbow.codebooks.Codebook;
 import openxbow.codebooks.CodebookNumeric;
 import openxbow.codebooks.CodebookText;
+import openxbow.codebooks.CodewordSearch;
+import openxbow.codebooks.CodewordSearchHNSW;
+import openxbow.codebooks.HNSWGraph;
 import openxbow.codebooks.HyperCodebook;
 import openxbow.io.Reader;
+import openxbow.parallel.ChunkExecutor;
 
 public class HyperBag {
     private DataManager   DM        = null;
@@ -37,15 +41,22 @@ public class HyperBag {
     private Options       options   = null;
     private List<Bag>     subBags   = null;
     private Bag           bag       = null;
+    private int           numThreads;  /* Threads for the assignment of the frames, 0: all available processors */
     
     private List<Object[]> listAssignments = null;
     
     
     public HyperBag (DataManager DM, HyperCodebook hyperBook, Options options) {
-        this.DM        = DM;
-        this.reader    = DM.reader;
-        this.hyperBook = hyperBook;
-        this.options   = options;
+        this.DM         = DM;
+        this.reader     = DM.reader;
+        this.hyperBook  = hyperBook;
+        this.options    = options;
+        this.numThreads = options.numThreads;
+    }
+    
+    
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
     }
     
     
@@ -56,21 +67,27 @@ public class HyperBag {
             subBags.add( new Bag(reader.inputData, book, DM, reader.getIndexesAttributeClass().get(hyperBook.getIndexBook(book))) );
         }
         
-        for (Bag subBag : subBags) {
-            if (subBag.getCodebook() instanceof CodebookText) {
-                subBag.generateBoW();
-            } else {
-                int index = hyperBook.getIndexBook(subBag.getCodebook());
-                if (!options.outputIFileName.isEmpty() || options.bUnigram.get(index) || options.bBigram.get(index) || options.bTrigram.get(index)) {
-                    subBag.generateBoF(options.numAssignments.get(index), options.gaussianEncoding.get(index), options.offCodewords.get(index), true);
-                } 
-                else if (options.gmmEncoding.get(index)>0) {
-                    subBag.generateGMM(options.gmmEncoding.get(index));
-                }
-                else {
-                    subBag.generateBoF(options.numAssignments.get(index), options.gaussianEncoding.get(index), options.offCodewords.get(index), false);
+        ChunkExecutor executor = new ChunkExecutor(numThreads);
+        try {
+            for (Bag subBag : subBags) {
+                subBag.setExecutor(executor);
+                if (subBag.getCodebook() instanceof CodebookText) {
+                    subBag.generateBoW();
+                } else {
+                    int index = hyperBook.getIndexBook(subBag.getCodebook());
+                    if (!options.outputIFileName.isEmpty() || options.bUnigram.get(index) || options.bBigram.get(index) || options.bTrigram.get(index)) {
+                        subBag.generateBoF(options.numAssignments.get(index), options.gaussianEncoding.get(index), options.offCodewords.get(index), true, createCodewordSearch((CodebookNumeric) subBag.getCodebook()));
+                    } 
+                    else if (options.gmmEncoding.get(index)>0) {
+                        subBag.generateGMM(options.gmmEncoding.get(index), options.gmmTopK);
+                    }
+                    else {
+                        subBag.generateBoF(options.numAssignments.get(index), options.gaussianEncoding.get(index), options.offCodewords.get(index), false, createCodewordSearch((CodebookNumeric) subBag.getCodebook()));
+                    }
                 }
             }
+        } finally {
+            executor.shutdown();
         }
         
         /* Numeric N-grams */
@@ -112,6 +129,16 @@ public class HyperBag {
     }
     
     
+    private CodewordSearch createCodewordSearch(CodebookNumeric book) {
+        /* Search for the closest codewords (option -assign) */
+        if (options.assignMethod.equals("hnsw")) {
+            HNSWGraph graph = book.buildHNSWGraph(options.hnswM, options.hnswEfConstruction);  /* Unless loaded with the codebook (-b) */
+            return new CodewordSearchHNSW(graph, book.getCodebook(), options.hnswEfSearch);
+        }
+        return CodewordSearch.create(options.assignMethod, book.getCodebook());
+    }
+    
+    
     public Bag getBag() {
         return bag;
     }
@@ -241,7 +268,7 @@ public class HyperBag {
         float normFactor = 0.0f;
         for (int id=0; id < numIDs; id++) {
             if (optionNormalizeBag==1) {
-                normFactor = DM.getNumFrames().get(id);
+                normFactor = DM.getNumFrames()[id];
             } else {
                 normFactor = sumTF[id];
             }
@@ -22,7 +22,6 @@ package openxbow.main;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import openxbow.codebooks.CodebookNumeric;
 
@@ -99,7 +98,8 @@ public class NumGrams {
         int sizeCodebook   = grams.length;
         int numGrams       = grams[0].length;
         
-        Map<Integer,List<Integer>> mapFrameIDs = dm.getMappingFrameIDs();
+        int[] frameIDOffsets = dm.getFrameIDOffsets();
+        int[] frameIDs       = dm.getFrameIDs();
         
         int[][]   assignments = bag.assignments;
         float[][] gramBof     = new float[dm.getNumIDs()][sizeCodebook];
@@ -128,16 +128,16 @@ public class NumGrams {
             findIndex(indexes, grams, frame, numGrams);
             
             /* Increase the counter for all corresponding instances (IDs) */
-            for (int id=0; id < mapFrameIDs.get(frameIndex).size(); id++) {
+            for (int i=frameIDOffsets[frameIndex]; i < frameIDOffsets[frameIndex+1]; i++) {
                 for (int index : indexes) {
-                    gramBof[mapFrameIDs.get(frameIndex).get(id)][index]++;
+                    gramBof[frameIDs[i]][index]++;
                 }
             }
         }
         
         /* Make sure that we do not have a bag of only zeros (in case the number of frames for one id is 0) */
         for (int id=0; id < gramBof.length; id++) {
-            if (dm.getNumFrames().get(id)==0) {
+            if (dm.getNumFrames()[id]==0) {
                 for (int w=0; w < gramBof[0].length; w++) {
                     gramBof[id][w] = 0.001f;
                 }
@@ -194,12 +194,12 @@ public class NumGrams {
     private int[] generateListOrigInstances() {
         /* Generates a list of indexes 1,1,1,1,2,2,2,... giving information to which original file each frame belongs to */
         /* Presumes that the input is ordered */
-        int[] idOrigInstances = new int[dm.getMappingFrameIDs().size()];
+        int[] idOrigInstances = new int[dm.reader.inputData.size()];
         
         int    indexIn   = 0;
         String strBefore = "";
         for (int k=0; k < idOrigInstances.length; k++) {
-            String str = dm.getMappingIDName().get(dm.getMappingFrameIDs().get(k).get(0));  /* All elements in the ID list belong to the same original instance (name), so we can take element 0 */
+            String str = dm.reader.inputData.getString(k, dm.reader.getIndexName());  /* Name of the frame, also for frames without IDs (no activity) */
             if (!str.equals(strBefore)) {
                 strBefore = str;
                 indexIn++;
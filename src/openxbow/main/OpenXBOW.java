@@ -56,11 +56,27 @@ public class OpenXBOW {
         }
         
         
+        /* Process many input files with one codebook */
+        if (!options.batchInput.isEmpty()) {
+            BatchProcessor batchProc = new BatchProcessor(options);
+            batchProc.run();
+            return;
+        }
+        
+        /* Process input file instance by instance */
+        if (options.bStream && !options.inputFileName.isEmpty()) {
+            StreamProcessor streamProc = new StreamProcessor(options);
+            streamProc.run();
+            return;
+        }
+        
         /* Read input file */
         boolean bReadSuccess = false;
         if (!options.inputFileName.isEmpty()) {
             System.out.println("Parsing input ...");
             reader = new Reader(options.inputFileName, options.attributes, options.attributesAlt, options.bTimeStamp);
+            reader.setParser(options.parser);
+            reader.setNumThreads(options.numThreads);
             bReadSuccess = reader.readFile();
         }
         
@@ -26,6 +26,7 @@ import java.util.List;
 
 import openxbow.clparser.CLParser;
 import openxbow.codebooks.CodebookConfig;
+import openxbow.codebooks.KDTree;
 
 public class Options {
     private CLParser OWParser = null;
@@ -48,6 +49,10 @@ public class Options {
     protected boolean bAppend;
     protected String  loadCodebookName = "";
     protected String  saveCodebookName = "";
+    protected boolean bStream;
+    protected String  parser           = "default";
+    protected int     numThreads;
+    protected String  batchInput       = "";
     
     /* Segmentation */
     protected boolean bTimeStamp;
@@ -69,6 +74,11 @@ public class Options {
     public List<Float>   gaussianEncoding = new ArrayList<Float>();
     public List<Integer> gmmEncoding      = new ArrayList<Integer>();  /* For EM-based codebooks, a GMM-like soft assignment can be employed */
     public List<Float>   offCodewords     = new ArrayList<Float>();
+    public int           gmmTopK          = 0;  /* GMM-assignment only to the top-k components, 0: all components */
+    public String        assignMethod     = "direct";  /* Search for the closest codewords: direct, blocked, kdtree, hnsw */
+    public int           hnswM              = 16;   /* HNSW: Number of links per codeword and layer */
+    public int           hnswEfConstruction = 200;  /* HNSW: Length of the candidate list when building the graph */
+    public int           hnswEfSearch       = 64;   /* HNSW: Length of the candidate list when searching */
     
     /* Numeric n-grams */
     public List<Boolean> bUnigram  = new ArrayList<Boolean>();
@@ -115,6 +125,14 @@ public class Options {
         bAppend          = OWParser.getOption("append").isPresent();
         loadCodebookName = OWParser.getOption("b").getParamList().get(0).toString();
         saveCodebookName = OWParser.getOption("B").getParamList().get(0).toString();
+        bStream          = OWParser.getOption("stream").isPresent();
+        parser           = OWParser.getOption("parser").getParamList().get(0).toString();
+        numThreads       = (int) OWParser.getOption("threads").getParamList().get(0);
+        assignMethod     = OWParser.getOption("assign").getParamList().get(0).toString();
+        hnswM              = (int) OWParser.getOption("hnsw").getParamList().get(0);
+        hnswEfConstruction = (int) OWParser.getOption("hnsw").getParamList().get(1);
+        hnswEfSearch       = (int) OWParser.getOption("efSearch").getParamList().get(0);
+        batchInput       = OWParser.getOption("batch").getParamList().get(0).toString();
         
         /* Segmentation */
         bTimeStamp =         OWParser.getOption("t").isPresent();
@@ -141,12 +159,26 @@ public class Options {
         String stopCharacters =       OWParser.getOption("stopChar").getParamList().get(0).toString();
         int nGram             = (int) OWParser.getOption("nGram").getParamList().get(0);
         int nCharGram         = (int) OWParser.getOption("nCharGram").getParamList().get(0);
+        int numHashBuckets    = (int) OWParser.getOption("hashBuckets").getParamList().get(0);  /* 0: vocabulary */
+        boolean bHashSign     =       OWParser.getOption("hashSign").isPresent();
+        int hashSeed          = (int) OWParser.getOption("seed").getParamList().get(0);
         
-        cbConfig.add(0, new CodebookConfig(minTermFreq,maxTermFreq,stopCharacters,nGram,nCharGram));
+        int sketchWidth       = (int) OWParser.getOption("vocabSketch").getParamList().get(0);  /* 0: exact counting */
+        int sketchDepth       = (int) OWParser.getOption("vocabSketch").getParamList().get(1);
+        int maxVocabulary     = (int) OWParser.getOption("maxVocab").getParamList().get(0);
+        
+        cbConfig.add(0, new CodebookConfig(minTermFreq,maxTermFreq,stopCharacters,nGram,nCharGram,Math.max(numHashBuckets,0),bHashSign,hashSeed));
+        cbConfig.get(0).setNumThreads(numThreads);
+        cbConfig.get(0).setVocabularyCounting(sketchWidth, sketchDepth, maxVocabulary);
         
         /* Codebook numeric - global options */
         boolean bSupervised   =       OWParser.getOption("supervised").isPresent();      /* Create clusters per class first, then merge them */
         int     randomSeed    = (int) OWParser.getOption("seed").getParamList().get(0);  /* Random seed for codebook generation (has no effect on Training Selector) */
+        int     miniBatchSize = (int) OWParser.getOption("miniBatch").getParamList().get(0);
+        int     miniBatchIter = (int) OWParser.getOption("miniBatch").getParamList().get(1);
+        String  strSeeding    =       OWParser.getOption("seeding").getParamList().get(0).toString();  /* Initialization of the ++ methods */
+        boolean bEMSoft       =       OWParser.getOption("emSoft").isPresent();
+        float   emTolerance   = (float) OWParser.getOption("emTol").getParamList().get(0);
         
         boolean bReduceCodebook = false;
         if (OWParser.getOption("reduce").isPresent()) {  /* Codebook reduction applies to all codebooks - parameter may be 1.0 if reduction is not wanted. */
@@ -190,6 +222,11 @@ public class Options {
                                                getSizeNumGramAndExpand(maxSizeUnigram, i, bUnigram),
                                                getSizeNumGramAndExpand(maxSizeBigram,  i, bBigram),
                                                getSizeNumGramAndExpand(maxSizeTrigram, i, bTrigram)));
+            cbConfig.get(i).setNumThreads(numThreads);
+            cbConfig.get(i).setAssignMethod(assignMethod);
+            cbConfig.get(i).setMiniBatch(miniBatchSize, miniBatchIter);
+            cbConfig.get(i).setSeeding(strSeeding);
+            cbConfig.get(i).setEM(bEMSoft, emTolerance);
             
             if (aStrSizeCodebook.length > i 
                || aStrGenerationMethod.length > i 
@@ -213,6 +250,7 @@ public class Options {
         parseOptionStrings(cbConfig.size(), "gaussian", null,           gaussianEncoding);
         parseOptionStrings(cbConfig.size(), "gmm",      gmmEncoding,    null);
         parseOptionStrings(cbConfig.size(), "off",      null,           offCodewords);
+        gmmTopK = (int) OWParser.getOption("gmmTopK").getParamList().get(0);
         
         /* Weighting options */
         bLogWeighting = OWParser.getOption("log").isPresent();
@@ -287,6 +325,88 @@ public class Options {
         if (bWriteTimeStamp && !OWParser.getOption("t").isPresent()) {
             System.err.println("Error: Time stamps can only be printed if option -t (time-dependent bags) is used.");
         }
+        if (!parser.equals("default") && !parser.equals("mmap") && !parser.equals("parallel")) {
+            System.err.println("Warning: Parser " + parser + " unknown! The default parser is used.");
+            parser = "default";
+        }
+        if (!assignMethod.equals("direct") && !assignMethod.equals("blocked") && !assignMethod.equals("kdtree") && !assignMethod.equals("hnsw")) {
+            System.err.println("Warning: Assignment method " + assignMethod + " unknown! The direct method is used.");
+            assignMethod = "direct";
+        }
+        if (hnswM < 2 || hnswEfConstruction < 1) {
+            System.err.println("Warning: -hnsw requires M >= 2 and efConstruction >= 1! The defaults (16 200) are used.");
+            hnswM              = 16;
+            hnswEfConstruction = 200;
+        }
+        if (hnswEfSearch < 1) {
+            System.err.println("Warning: -efSearch must be positive! The default (64) is used.");
+            hnswEfSearch = 64;
+        }
+        if (!assignMethod.equals("hnsw") && (OWParser.getOption("hnsw").isPresent() || OWParser.getOption("efSearch").isPresent())) {
+            System.err.println("Warning: -hnsw and -efSearch are only relevant with -assign hnsw.");
+        }
+        if (OWParser.getOption("hashBuckets").isPresent()) {
+            if ((int) OWParser.getOption("hashBuckets").getParamList().get(0) < 0) {
+                System.err.println("Warning: -hashBuckets must not be negative! The codebook of all words is used.");
+            }
+            else if (OWParser.getOption("minTermFreq").isPresent() || OWParser.getOption("maxTermFreq").isPresent()) {
+                System.err.println("Warning: -minTermFreq and -maxTermFreq are not relevant with -hashBuckets (there is no vocabulary).");
+            }
+            if (OWParser.getOption("hashSign").isPresent() && bLogWeighting) {
+                System.err.println("Warning: -log is not suitable for -hashSign, as the terms can be negative.");
+            }
+        }
+        else if (OWParser.getOption("hashSign").isPresent()) {
+            System.err.println("Warning: -hashSign is only relevant with -hashBuckets.");
+        }
+        if ((OWParser.getOption("hashBuckets").isPresent() || !loadCodebookName.isEmpty()) 
+         && (OWParser.getOption("vocabSketch").isPresent() || OWParser.getOption("maxVocab").isPresent())) {
+            System.err.println("Warning: -vocabSketch and -maxVocab are only relevant if the text codebook is generated (without -hashBuckets and -b).");
+        }
+        else if (OWParser.getOption("vocabSketch").isPresent() && (int) OWParser.getOption("minTermFreq").getParamList().get(0) <= 1) {
+            System.err.println("Warning: -vocabSketch does not remove any words without -minTermFreq (larger than 1).");
+        }
+        if (gmmTopK < 0) {
+            System.err.println("Warning: -gmmTopK must not be negative! All components are used.");
+            gmmTopK = 0;
+        }
+        if (numThreads < 0) {
+            System.err.println("Warning: Number of threads must not be negative! All available processors are used.");
+            numThreads = 0;
+        }
+        if (!batchInput.isEmpty()) {
+            if (loadCodebookName.isEmpty()) {
+                System.err.println("Error: -batch requires a codebook (-b).");
+                batchInput = "";
+            }
+            else if ((!outputFileName.isEmpty() && !outputFileName.contains("*")) || (!outputIFileName.isEmpty() && !outputIFileName.contains("*"))
+                  || (!modelFileName.isEmpty() && !jsonFileName.contains("*"))) {
+                System.err.println("Error: In batch mode, the names of all output files (-o, -oi, -oJson) must contain * (replaced by the name of each input file).");
+                batchInput = "";
+            }
+            else {
+                if (!inputFileName.isEmpty()) {
+                    System.err.println("Warning: -i is not relevant with -batch.");
+                }
+                if (bStream) {
+                    System.err.println("Warning: -stream is not relevant with -batch. Each input file is processed at once.");
+                    bStream = false;
+                }
+            }
+        }
+        if (bStream) {
+            if (loadCodebookName.isEmpty()) {
+                System.err.println("Warning: -stream requires a codebook (-b). The whole input is processed at once.");
+                bStream = false;
+            }
+            else if (!modelFileName.isEmpty()) {
+                System.err.println("Warning: -svmModel is not supported with -stream. The whole input is processed at once.");
+                bStream = false;
+            }
+            else if (!saveCodebookName.isEmpty()) {
+                System.err.println("Warning: -B is not relevant with -stream (the codebook is loaded).");
+            }
+        }
         if (!loadCodebookName.isEmpty()) {
             if (bRemoveLowEnergy) {
                 System.err.println("Warning: Removing low-energy features is not selectable if codebook is provided!");
@@ -334,6 +454,18 @@ public class Options {
             if (OWParser.getOption("numTrain").isPresent()) {
                 System.err.println("Warning: -numTrain is not relevant if codebook is provided.");
             }
+            if (OWParser.getOption("miniBatch").isPresent()) {
+                System.err.println("Warning: -miniBatch is not relevant if codebook is provided.");
+            }
+            if (OWParser.getOption("seeding").isPresent()) {
+                System.err.println("Warning: -seeding is not relevant if codebook is provided.");
+            }
+            if (OWParser.getOption("emSoft").isPresent()) {
+                System.err.println("Warning: -emSoft is not relevant if codebook is provided.");
+            }
+            if (OWParser.getOption("emTol").isPresent()) {
+                System.err.println("Warning: -emTol is not relevant if codebook is provided.");
+            }
             if (OWParser.getOption("a").isPresent()) {
                 System.err.println("Warning: -a is not relevant if codebook is provided.");
             }
@@ -365,7 +497,9 @@ public class Options {
         
         /* Input / output options */
         OWParser.addOption("i", "", "Name/Path of an input (ARFF or CSV) file p containing low-level feature vectors (over time)\n"
-                                  + "The first feature must be a string or number which specifies all feature vectors which belong to one instance.");
+                                  + "The first feature must be a string or number which specifies all feature vectors which belong to one instance.\n"
+                                  + "Binary input: HTK parameter file (*.htk, one instance named after the file, time stamps from the sample period) or\n"
+                                  + "NumPy matrix (*.npy, frames x features, float32/float64) with an optional sidecar file <base>.names.csv (one line per frame: name[;time]).");
         OWParser.addOption("attributes", "", "An optional string, specifying all input attributes/columns (mandatory in case of multiple labels or if multiple codebooks are requested):\n"
                                            + "n=name, t=time stamp, 0=symbolic feature, 1-9=numeric feature, c=class label/numeric label, r=remove attribute\n"
                                            + "Using different numbers for numeric features will create a separate codebook and bag for all features belonging to the same index.\n"
@@ -398,6 +532,23 @@ public class Options {
         OWParser.addOption("arffLabels", "", "String containing all potential class labels (separator comma without whitespaces) for ARFF output file.\n"
                                            + "Only required if not all labels are found in the input data or (?=unknown). Example: -arffLabels class1,class2,class3");
         OWParser.addOption("append", "Append output to file (if output file already exists).");
+        OWParser.addOption("stream", "Process the input file instance by instance (requires a codebook -b): Only the frames of one instance are kept in memory\n"
+                                   + "and each bag is appended to the output file directly. All frames of one instance must be listed coherently in the input file.\n"
+                                   + "In case of nominal classes and ARFF output, all classes should be given with -arffLabels (unless declared in an ARFF input file).");
+        OWParser.addOption("batch", "", "Process many input files with one codebook (-b) in one run: p is either a text file listing the input files (one per line)\n"
+                                     + "or a pattern with wildcards (in the file name), e.g., -batch \"features/*.csv\". The input files are processed in parallel (see -threads).\n"
+                                     + "All input files must have the same attributes. In the names of the output files (-o, -oi, -oJson), * is replaced by the name of\n"
+                                     + "each input file (without path and extension), e.g., -o \"boaw/*.arff\". -svmModel is read only once.");
+        OWParser.addOption("parser", "default", "Parser for the input file (-i):\n"
+                                              + "p=default: Read the file line by line.\n"
+                                              + "p=mmap: Memory-map the file and parse the numbers directly from the bytes (faster for large files). The types of the attributes are taken\n"
+                                              + "        from the ARFF header or -attributes, otherwise from the first data line. The resulting values are the same as for the default parser.\n"
+                                              + "p=parallel: As mmap, but the data lines are split into chunks, which are parsed in parallel (see -threads). Not effective with -stream.\n"
+                                              + "        Only the parsing is parallel, the chunks are appended in order. Helps only for large files (hundreds of MB) on several cores, when the\n"
+                                              + "        parsing dominates the run time (e.g., with a given codebook -b); otherwise, use mmap.");
+        OWParser.addOption("threads", 0, "Number of threads p for parallel processing, i.e., parsing (-parser parallel), batch processing (-batch), codebook training\n"
+                                           + "and the assignment of the frames to the bag-of-words "
+                                           + "(default: 0 = number of available processors). The results do not depend on the number of threads.");
         OWParser.addOption("l", "", "CSV file p with the class labels for each analysis window/instance.\n"
                                   + "In case a label file is given, the output is restricted to the instances, where labels are given.\n"
                                   + "Both nominal and numeric classes are supported. Format:\n"
@@ -423,6 +574,11 @@ public class Options {
                                           + "p=random++ (default): Generate the codebook by a random sampling of the input feature vectors with a weighting, identical to the initialization of kmeans++.\n"
                                           + "p=kmeans: Employ kmeans clustering (Lloyd's algorithm).\n"
                                           + "p=kmeans++: Employ kmeans++ clustering (Lloyd's algorithm).\n"
+                                          + "p=kmeans-elkan: As kmeans, but distance computations are skipped using the triangle inequality (Hamerly's bounds). Same result as kmeans, faster for large codebooks.\n"
+                                          + "p=kmeans++-elkan: As kmeans++, but distance computations are skipped using the triangle inequality (Hamerly's bounds). Same result as kmeans++.\n"
+                                          + "p=minibatch: Employ mini-batch kmeans clustering: The centroids are updated from random batches of the input feature vectors (see -miniBatch).\n"
+                                          + "             Training time and memory do not depend on the number of input feature vectors. For very large inputs.\n"
+                                          + "p=minibatch++: As minibatch, but with kmeans++ initialization.\n"
                                           + "p=em: Employ EM (expectation maximization) clustering with a random sampling for cluster initialization.\n"
                                           + "p=em++: Employ EM (expectation maximization) clustering with a random++ sampling for cluster initialization.\n"
                                           + "p=em-kmeans: Employ EM (expectation maximization) clustering with kmeans for cluster initialization.\n"
@@ -437,6 +593,16 @@ public class Options {
         OWParser.addOption("seed", 10, "Select the random seed p used for codebook creation. (Has no effect on training selection configured by -numTrain.)");  /* 10 is the default random seed in Weka */
         OWParser.addOption("numTrain", "0", "Randomly choose p feature vectors from the input data for the creation of the codebook (should not be used for random sampling).\n"
                                           + "This option is useful to speed-up the clustering process.\n");
+        OWParser.addOption("seeding", "kmeans++", "Initialization of the methods random++, kmeans++, em++, em-kmeans++, kmeans++-elkan and minibatch++:\n"
+                                                + "p=kmeans++ (default): Choose the centroids one after another, each one with a probability proportional to the squared distance to the closest centroid.\n"
+                                                + "p=kmeans||: Scalable kmeans++ (kmeans parallel): Oversample candidates in a few parallel passes over the data (see -threads), then cluster the weighted\n"
+                                                + "            candidates to the codebook size. Faster for large codebooks and large inputs; the codebook differs from kmeans++.");
+        OWParser.addOption("emSoft", "EM clustering (-c em, em++, em-kmeans, em-kmeans++): Update the parameters of each Gaussian from all feature vectors, weighted by their\n"
+                                   + "posterior probabilities (soft M-step). By default, each feature vector contributes to its most likely Gaussian only. Consider also -emTol.");
+        OWParser.addOption("emTol", 0.0f, "EM clustering: Stop if the relative change of the log-likelihood of the input feature vectors is not larger than p (e.g., 1e-6).\n"
+                                        + "Default: 0.0 = stop if the most likely Gaussians of all feature vectors do not change anymore (or after 500 iterations).");
+        OWParser.addOption("miniBatch", 1024, 1000, "Mini-batch kmeans (-c minibatch): Number of feature vectors per batch p1 (default: 1024) and maximum number of batches p2 (default: 1000).\n"
+                                                  + "The training stops earlier if the (smoothed) mean distance of the batches to their centroids does not decrease over 10 batches.");
         OWParser.addOption("unigram", "0", "Apply the n-gram approach to numeric features using unigrams. Only the p most frequent codewords are taken into account.");
         OWParser.addOption("bigram", "0", "Apply the n-gram approach to numeric features using bigrams. The p most frequent codewords are taken into account.");
         OWParser.addOption("trigram", "0", "Apply the n-gram approach to numeric features using trigrams. The p most frequent codewords are taken into account.\n"
@@ -453,7 +619,14 @@ public class Options {
         OWParser.addOption("maxTermFreq",           0, "Gives a maximum threshold for the number of occurrences of each word/n-gram to be considered for symbolic codebook generation (default: maxTermFreq=0(inf))");
         OWParser.addOption("stopChar",    ".,;:()?!*", "Specifies characters which are removed from all input instances (default: .,;:()?!* )");
         OWParser.addOption("nGram",                 1, "N-gram (symbolic) (default: nGram=1)");
-        OWParser.addOption("nCharGram",             0, "N-character-gram (symbolic) (default: nCharGram=0)\n");
+        OWParser.addOption("nCharGram",             0, "N-character-gram (symbolic) (default: nCharGram=0)");
+        OWParser.addOption("hashBuckets",           0, "Feature hashing (symbolic): Each word/n-gram is hashed into one of p buckets, instead of generating a codebook of all words. \n"
+                                                     + "For unbounded vocabularies, no pass over the data is required to generate the codebook. The hash is seeded with -seed. (default: hashBuckets=0(off))");
+        OWParser.addOption("hashSign", "Feature hashing (-hashBuckets): Add -1 or +1 for each word/n-gram (from a second hash), so that collisions cancel out on average.");
+        OWParser.addOption("vocabSketch", 0, 4, "Approximate counting of the words/n-grams for the symbolic codebook in a fixed memory: Words are only counted exactly once their frequency,\n"
+                                              + "estimated with a count-min sketch of p2 (default: 4) rows with p1 counters each (e.g., 1000000), reaches -minTermFreq. (default: p1=0(exact counting))");
+        OWParser.addOption("maxVocab", 0, "Keep at most the p most frequent words/n-grams in the symbolic codebook. While counting, less frequent words are removed\n"
+                                        + "as soon as there are 2p words, so that the counts are approximate. (default: maxVocab=0(no limit))\n");
         
         /* Bag-of-features options */
         OWParser.addOption("a", "1", "When creating the bag-of-words, assign each input feature vector to p closest words from the codebook. (default: a=1, only closest word)\n"
@@ -467,6 +640,19 @@ public class Options {
                                    + "In case of several codebooks (see -attributes), a different option can be specified for each codebook using separator comma, e.g., -gmm 0,2,1\n"
                                    + "This option requires that all corresponding codebooks have been generated by an EM clustering method (see option -c)!\n"
                                    + "This parameter is stored in the codebook file (-B) and used when the respective codebook is loaded (-b).");
+        OWParser.addOption("assign", "direct", "Method to find the closest codewords of each input feature vector (options -a, -gaussian, -off):\n"
+                                             + "direct (default): Distances to all codewords, one feature vector at a time.\n"
+                                             + "blocked: Distances of blocks of feature vectors to blocks of codewords as a matrix product (||x-c||^2 = ||x||^2 - 2x*c + ||c||^2),\n"
+                                             + "faster for large codebooks, the distances can differ by rounding errors (larger for features with large absolute values).\n"
+                                             + "kdtree: Exact search with a KD-tree over the codebook, also used in the assignment step of k-means (-c kmeans, kmeans++).\n"
+                                             + "Faster for low-dimensional features (up to " + KDTree.MAX_DIMENSIONS + ") and large codebooks, otherwise the direct method is used automatically.\n"
+                                             + "hnsw: Approximate search with an HNSW graph over the codebook (see -hnsw, -efSearch), for very large codebooks (e.g., 50k codewords and more).\n"
+                                             + "The graph is built before the first assignment and saved with the codebook (-B) as a file <p>.hnsw, which is loaded again with -b.");
+        OWParser.addOption("hnsw", 16, 200, "Parameters of the HNSW graph (-assign hnsw): p1=M: Number of links per codeword and layer (2M on the lowest layer), \n"
+                                          + "p2=efConstruction: Length of the candidate list when inserting a codeword. Larger values give a better graph, but take longer to build. (default: 16 200)");
+        OWParser.addOption("efSearch", 64, "Length of the candidate list when searching the HNSW graph (-assign hnsw): Larger values give a better recall, but slower assignment. (default: efSearch=64)");
+        OWParser.addOption("gmmTopK", 0, "GMM-assignment (see option -gmm) only to the p most likely components of each input feature vector, the posteriors of all other components are 0.\n"
+                                       + "The likelihoods are computed in the log domain, components which cannot be among the top p are discarded early. (default: gmmTopK=0, all components)");
         OWParser.addOption("off", "0.0", "Off codebook words: Features with an Euclidean distance above threshold p to codewords are not be considered in the assignment step.\n"
                                        + "In case of several codebooks (see -attributes), a different stddev can be specified for each codebook using separator comma, e.g., -off 25.0,30.0\n"
                                        + "This parameter is stored in the codebook file (-B) and used when the respective codebook is loaded (-b).\n");
@@ -30,12 +30,14 @@ public class Postprocessor {
     private HyperBag      hyperBag;
     private boolean       bStandardize;
     private boolean       bNormalize;
+    private boolean       bVerbose;
     
     public Postprocessor(HyperCodebook book, HyperBag hyperBag, Options options) {
         this.book             = book;
         this.hyperBag         = hyperBag;
         this.bStandardize     = options.bStandardizeOutput;
         this.bNormalize       = options.bNormalizeOutput;
+        this.bVerbose         = !options.bStream && options.batchInput.isEmpty();  /* No messages for each instance/input file */
     }
     
     public void postprocessOutput() {
@@ -119,7 +121,9 @@ public class Postprocessor {
     }
     
     private void standardize(float bof[][], float[] mean, float[] std) {
-        System.out.println("Standardization of the output ...");
+        if (bVerbose) {
+            System.out.println("Standardization of the output ...");
+        }
         
         for (int id=0; id < bof.length; id++) {
             for (int w=0; w < bof[0].length; w++) {
@@ -168,7 +172,9 @@ public class Postprocessor {
     }
     
     private void normalize(float[][] bof, float[] MIN, float[] WIDTH) {
-        System.out.println("Normalization of the output ...");
+        if (bVerbose) {
+            System.out.println("Normalization of the output ...");
+        }
         
         for (int id=0; id < bof.length; id++) {
             for (int w=0; w < bof[0].length; w++) {
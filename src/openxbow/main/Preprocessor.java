@@ -21,10 +21,12 @@
 package openxbow.main;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map.Entry;
 
 import openxbow.codebooks.HyperCodebook;
+import openxbow.io.FeatureStore;
 import openxbow.io.Reader;
 
 public class Preprocessor {
@@ -35,6 +37,7 @@ public class Preprocessor {
     private float         energyThreshold;
     private boolean       bStandardize;
     private boolean       bNormalize;
+    private boolean       bVerbose;
     
     public Preprocessor(DataManager DM, HyperCodebook book, Options options) {
         this.DM               = DM;
@@ -44,17 +47,17 @@ public class Preprocessor {
         this.energyThreshold  = options.energyThreshold;
         this.bStandardize     = options.bStandardizeInput;
         this.bNormalize       = options.bNormalizeInput;
+        this.bVerbose         = !options.bStream && options.batchInput.isEmpty();  /* No messages for each instance/input file */
     }
     
     public void preprocessInput() {
         /* Remove low-energy features */
-        if (bRemoveLowEnergy) {
+        if (bRemoveLowEnergy && !book.isLowEnergyRemoved()) {  /* A loaded codebook already has the parameters (and may be shared in batch mode) */
             book.setRemoveLowEnergy();
             book.setEnergyIndex(energyIndex);
             book.setEnergyThreshold(energyThreshold);
-            setActivityList(DM, energyIndex, energyThreshold);
         }
-        else if (book.isLowEnergyRemoved()) {
+        if (book.isLowEnergyRemoved()) {
             setActivityList(DM, book.getEnergyIndex(), book.getEnergyThreshold());
         }
         
@@ -96,24 +99,28 @@ public class Preprocessor {
     
     
     private void setActivityList(DataManager DM, int energyIndex, float energyThreshold) {
-        System.out.println("Recognizing activity ...");
-        List<Object[]> inputData = DM.reader.inputData;
-        List<Boolean>  bIsActive = DM.getActivityList();
+        if (bVerbose) {
+            System.out.println("Recognizing activity ...");
+        }
+        FeatureStore inputData = DM.reader.inputData;
+        BitSet       bIsActive = DM.getActivity();
         
         for (int i=0; i < inputData.size(); i++) {
-            if (((float)inputData.get(i)[energyIndex-1]) < energyThreshold) {
-                bIsActive.set(i, false);  /* All elements have been initialized with 'true' */
+            if (inputData.getFloat(i, energyIndex-1) < energyThreshold) {
+                bIsActive.clear(i);  /* All frames have been initialized as active */
             }
         }
     }
     
     
     private void standardizeFeatureVectors(Reader reader, float[] mean, float[] std) {
-        System.out.println("Standardization of the input ...");
+        if (bVerbose) {
+            System.out.println("Standardization of the input ...");
+        }
         
-        List<Object[]> inputData = reader.inputData;
+        FeatureStore inputData = reader.inputData;
         
-        if (inputData.get(0).length != mean.length || inputData.get(0).length != std.length) {
+        if (bVerbose && (inputData.getNumAttributes() != mean.length || inputData.getNumAttributes() != std.length)) {
             System.err.println("Warning (Preprocessor): Input data and standardization parameters have different dimensions!");
         }
         
@@ -122,7 +129,7 @@ public class Preprocessor {
             if (e.getKey() > 0) {  /* Numeric */
                 for (int j=0; j < inputData.size(); j++) {
                     for (int f : e.getValue()) {
-                        inputData.get(j)[f] = (((float)inputData.get(j)[f]) - mean[f]) / std[f];
+                        inputData.setFloat(j, f, (inputData.getFloat(j, f) - mean[f]) / std[f]);
                     }
                 }
             }
@@ -131,7 +138,7 @@ public class Preprocessor {
     
     
     private float[] getMeans(Reader reader) {
-        List<Object[]> inputData = reader.inputData;
+        FeatureStore inputData = reader.inputData;
         
         float[] mean    = new float[reader.getNumAttributes()];
         int     counter = 0;  /* Counts the samples */
@@ -141,7 +148,7 @@ public class Preprocessor {
             if (e.getKey() > 0) {  /* Numeric */
                 for (int j=0; j < inputData.size(); j++) {
                     for (int f : e.getValue()) {
-                        mean[f] += (float)inputData.get(j)[f];
+                        mean[f] += inputData.getFloat(j, f);
                     }
                     counter++;
                 }
@@ -155,7 +162,7 @@ public class Preprocessor {
     }
     
     private float[] getStandardDevs(Reader reader, float[] mean) {
-        List<Object[]> inputData = reader.inputData;
+        FeatureStore inputData = reader.inputData;
         
         float[] std = new float[reader.getNumAttributes()];
         int   counter = 0;  /* Counts the samples */
@@ -166,7 +173,7 @@ public class Preprocessor {
             if (e.getKey() > 0) {  /* Numeric */
                 for (int j=0; j < inputData.size(); j++) {
                     for (int f : e.getValue()) {
-                        diff = ((float)inputData.get(j)[f]) - mean[f];
+                        diff = inputData.getFloat(j, f) - mean[f];
                         std[f] += diff * diff;
                     }
                     counter++;
@@ -186,11 +193,13 @@ public class Preprocessor {
     
     
     private void normalizeFeatureVectors(Reader reader, float[] MIN, float[] WIDTH) {
-        System.out.println("Normalization of the input ...");
+        if (bVerbose) {
+            System.out.println("Normalization of the input ...");
+        }
         
-        List<Object[]> inputData = reader.inputData;
+        FeatureStore inputData = reader.inputData;
         
-        if (inputData.get(0).length != MIN.length || inputData.get(0).length != WIDTH.length) {
+        if (bVerbose && (inputData.getNumAttributes() != MIN.length || inputData.getNumAttributes() != WIDTH.length)) {
             System.err.println("Warning (Preprocessor): Input data and standardization parameters have different dimensions!");
         }
         
@@ -199,7 +208,7 @@ public class Preprocessor {
             if (e.getKey() > 0) {  /* Numeric */
                 for (int j=0; j < inputData.size(); j++) {
                     for (int f : e.getValue()) {
-                        inputData.get(j)[f] = (((float)inputData.get(j)[f]) - MIN[f]) / WIDTH[f];
+                        inputData.setFloat(j, f, (inputData.getFloat(j, f) - MIN[f]) / WIDTH[f]);
                     }
                 }
             }
@@ -207,7 +216,7 @@ public class Preprocessor {
     }
     
     private List<float[]> getMINandWIDTH(Reader reader) {
-        List<Object[]> inputData = reader.inputData;
+        FeatureStore inputData = reader.inputData;
         
         float[] MIN   = new float[reader.getNumAttributes()];
         float[] MAX   = new float[reader.getNumAttributes()];
@@ -224,11 +233,12 @@ public class Preprocessor {
             if (e.getKey() > 0) {  /* Numeric */
                 for (int j=0; j < inputData.size(); j++) {
                     for (int f : e.getValue()) {
-                        if (MIN[f] > (float)inputData.get(j)[f]) {
-                            MIN[f] = (float)inputData.get(j)[f];
+                        float value = inputData.getFloat(j, f);
+                        if (MIN[f] > value) {
+                            MIN[f] = value;
                         }
-                        if (MAX[f] < (float)inputData.get(j)[f]) {
-                            MAX[f] = (float)inputData.get(j)[f];
+                        if (MAX[f] < value) {
+                            MAX[f] = value;
                         }
                     }
                 }
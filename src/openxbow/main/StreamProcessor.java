@@ -0,0 +1,160 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.main;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import openxbow.codebooks.HyperCodebook;
+import openxbow.io.Reader;
+import openxbow.io.Writer;
+import openxbow.io.WriterIndex;
+
+
+public class StreamProcessor {
+    /* Processes the input file instance by instance (option -stream): Only the frames of one instance (name) are kept in memory.  */
+    /* Each instance runs through the usual pipeline (preprocessing, mappings, labels, bag, postprocessing) and is appended to the */
+    /* output files. This requires a given codebook (-b), as all parameters which depend on the whole data are taken from it.     */
+    /* NOTE: Frames of the same name must be listed coherently in the input file; otherwise, each block results in its own bag.  */
+    
+    private Options options = null;
+    
+    private Map<String,List<String[]>> labelsIndex = null;  /* Lines of the labels file for each name */
+    private int                        numLabels   = 0;
+    
+    
+    public StreamProcessor(Options options) {
+        this.options = options;
+    }
+    
+    
+    public boolean run() {
+        System.out.println("Parsing input (streaming) ...");
+        Reader reader = new Reader(options.inputFileName, options.attributes, options.attributesAlt, options.bTimeStamp);
+        reader.setParser(options.parser);
+        reader.setNumThreads(options.numThreads);
+        if (!reader.openFile()) {
+            return false;
+        }
+        
+        if (!options.labelsFileName.isEmpty() && !indexLabelsFile(options.labelsFileName, options.windowSize > Float.MIN_NORMAL && options.hopSize > Float.MIN_NORMAL)) {
+            reader.closeFile();
+            return false;
+        }
+        
+        HyperCodebook hyperBook    = null;
+        String        arffLabels   = options.arffLabels;
+        boolean       bFirst       = true;
+        int           numInstances = 0;
+        
+        System.out.println("Creating Bag-of-Words and writing output (streaming) ...");
+        
+        while (reader.readNextInstance()) {
+            DataManager DM = new DataManager(reader,options.windowSize,options.hopSize);
+            
+            if (hyperBook==null) {
+                /* Codebook and options are set up with the first instance, as the attributes are known then */
+                options.updateCodebookSpecificLists(DM.reader.getNumberOfFeatureClasses());
+                hyperBook = new HyperCodebook(DM, options);
+                if (!hyperBook.loadHyperCodebook(options.loadCodebookName)) {
+                    reader.closeFile();
+                    return false;
+                }
+                
+                if (arffLabels.isEmpty() && !reader.getNominalLabelsARFF().isEmpty()) {
+                    /* All classes must be known when the ARFF header is written; sorted as in Writer */
+                    String[] classes = reader.getNominalLabelsARFF().split(",");
+                    Arrays.sort(classes);
+                    arffLabels = String.join(",", classes);
+                }
+                if (arffLabels.isEmpty() && options.outputFileName.contains(".arff") && !options.bNoWriteLabels
+                    && (!options.labelsFileName.isEmpty() || !reader.getIndexesLabels().isEmpty())) {
+                    System.err.println("Warning: In streaming mode, nominal classes in the ARFF header are taken from the first instance only. Specify all classes with -arffLabels.");
+                }
+            }
+            
+            /* Preprocessing */
+            Preprocessor preProc = new Preprocessor(DM, hyperBook, options);
+            preProc.preprocessInput();
+            
+            /* Generate the mappings (after activity detection) */
+            DM.generateMappings();
+            
+            if (labelsIndex!=null) {
+                DM.setLabels(labelsIndex, numLabels);
+            }
+            
+            boolean bLabelsExpected = !options.bNoWriteLabels && (labelsIndex!=null || !reader.getIndexesLabels().isEmpty());
+            if (bLabelsExpected && DM.getMappingIDLabels().isEmpty()) {
+                continue;  /* Bags without labels are not written if labels are given */
+            }
+            
+            /* Create the bag-of-words */
+            HyperBag hyperBag = new HyperBag(DM, hyperBook, options);
+            hyperBag.setNumThreads(1);  /* Blocks of the stream are small, a thread pool for each block would not pay off */
+            hyperBag.generateBag();
+            
+            /* Postprocessing */
+            Postprocessor postProc = new Postprocessor(hyperBook, hyperBag, options);
+            postProc.postprocessOutput();
+            
+            /* Append output BoW files */
+            if (!options.outputFileName.isEmpty()) {
+                Writer writer = new Writer(options.outputFileName, DM, options.csvHeader && bFirst, options.csvSep, options.bWriteName, options.bWriteTimeStamp, options.bNoWriteLabels, arffLabels, options.bAppend || !bFirst);
+                writer.writeFile(hyperBag);
+            }
+            
+            /* Append word index file */
+            if (!options.outputIFileName.isEmpty()) {
+                WriterIndex writerInd = new WriterIndex(options.outputIFileName, DM, !bFirst);
+                writerInd.writeFile(hyperBag);
+            }
+            
+            bFirst = false;
+            numInstances++;
+        }
+        
+        System.out.println("Number of processed instances: " + numInstances);
+        
+        return true;
+    }
+    
+    
+    private boolean indexLabelsFile(String labelsFileName, boolean bWindowing) {
+        /* The labels file is read only once; names which do not occur in the input (e.g., the header line) are never looked up */
+        List<String[]> labelsLines = DataManager.readLabelsLines(labelsFileName);
+        if (labelsLines==null) {
+            return false;
+        }
+        
+        numLabels = DataManager.getNumLabels(labelsLines, bWindowing);
+        if (numLabels < 1) {
+            System.err.println("Error: Labels file " + labelsFileName + " does not have the required format");
+            return false;
+        }
+        
+        labelsIndex = DataManager.indexLabelsLines(labelsLines);
+        
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.nlp;
+
+
+public class CountMinSketch {
+    /* Approximate frequencies of strings in a fixed memory (depth x width counters), never lower than the true frequencies.      */
+    /* Each row maps a string to one counter, the estimate is the minimum over the rows. The counters are updated conservatively, */
+    /* i.e., only those are increased which are lower than the new estimate, which reduces the overestimation of rare strings.   */
+    
+    private int[][] counters;
+    private int     width;
+    
+    
+    public CountMinSketch(int width, int depth) {
+        this.width    = width;
+        this.counters = new int[depth][width];
+    }
+    
+    
+    public int add(String word, int count) {
+        /* Adds count occurrences of the word and returns its new estimate */
+        int   depth   = counters.length;
+        int[] indexes = new int[depth];
+        int   minimum = Integer.MAX_VALUE;
+        
+        /* Row indexes from two hashes of the word (h1 + r*h2) */
+        int h1 = mix(word.hashCode());
+        int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+        for (int r=0; r < depth; r++) {
+            indexes[r] = Integer.remainderUnsigned(h1 + r * h2, width);
+            minimum    = Math.min(minimum, counters[r][indexes[r]]);
+        }
+        
+        int estimate = (int) Math.min((long) minimum + count, Integer.MAX_VALUE);
+        for (int r=0; r < depth; r++) {
+            if (counters[r][indexes[r]] < estimate) {
+                counters[r][indexes[r]] = estimate;
+            }
+        }
+        return estimate;
+    }
+    
+    
+    private static int mix(int h) {
+        /* Finalisation of MurmurHash3 */
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,194 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.nlp;
+
+import java.util.Arrays;
+
+public class Tokenizer {
+    /* Splits a text into (upper case) words, word n-grams or character n-grams in one pass over its characters, with the same    */
+    /* tokens as String2WordVector: Stop characters are removed, the text is split at each space (empty words between successive */
+    /* spaces are kept for the n-grams, but not emitted), n-grams contain all words from 1 to nGram successive words.             */
+    /* The words are kept in one reused character buffer, only the emitted tokens are allocated as Strings.                       */
+    /* An instance keeps its buffers and must not be shared between threads.                                                      */
+    
+    private boolean[] bStopChar;            /* Lookup table, indexed by character */
+    private boolean   bSplit;               /* false if the space is a stop character */
+    private int       nGram;
+    private int       nCharGram;
+    private boolean   bKeepEmpty = false;   /* Both nGram and nCharGram given: words only, including the empty ones */
+    private char[]    upperCaseASCII;       /* Upper case of each ASCII character in the default locale, 0 if it is not one character */
+    
+    private char[]    chars      = new char[256];  /* Words in upper case, separated by one space (no separator for character n-grams) */
+    private int       numChars   = 0;
+    private int[]     wordStarts = new int[32];
+    private int[]     wordEnds   = new int[32];
+    private int       numWords   = 0;
+    private String[]  tokens     = new String[64];
+    private int       numTokens  = 0;
+    
+    
+    public Tokenizer(String stopCharacters, int nGram, int nCharGram) {
+        int maxChar = ' ';
+        for (int k=0; k < stopCharacters.length(); k++) {
+            maxChar = Math.max(maxChar, stopCharacters.charAt(k));
+        }
+        this.bStopChar = new boolean[maxChar + 1];
+        for (int k=0; k < stopCharacters.length(); k++) {
+            bStopChar[stopCharacters.charAt(k)] = true;
+        }
+        this.bSplit    = !bStopChar[' '];
+        this.nGram     = nGram;
+        this.nCharGram = nCharGram;
+        if (nGram > 1 && nCharGram > 0) {
+            System.err.println("Error in Tokenizer: only either nGram or nCharGram may be used!");
+            this.bKeepEmpty = true;
+        }
+        
+        /* ASCII characters are converted directly, unless the default locale maps them differently (e.g., i in Turkish) */
+        upperCaseASCII = new char[128];
+        for (char c=0; c < 128; c++) {
+            String upper = String.valueOf(c).toUpperCase();
+            upperCaseASCII[c] = upper.length()==1 ? upper.charAt(0) : 0;
+        }
+    }
+    
+    
+    public int tokenize(CharSequence text) {
+        /* Returns the number of tokens, see getToken() */
+        splitWords(text);
+        
+        numTokens = 0;
+        if (bKeepEmpty) {
+            for (int w=0; w < numWords; w++) {
+                addToken(wordStarts[w], wordEnds[w]);
+            }
+        }
+        else if (nGram > 1 && numWords > 1) {
+            for (int n=1; n <= Math.min(nGram, numWords); n++) {
+                for (int w=0; w + n <= numWords; w++) {
+                    if (n > 1 || wordEnds[w] > wordStarts[w]) {  /* n-grams contain at least one space */
+                        addToken(wordStarts[w], wordEnds[w+n-1]);
+                    }
+                }
+            }
+        }
+        else if (nCharGram > 0) {
+            for (int start=0; start + nCharGram <= numChars; start++) {
+                addToken(start, start + nCharGram);
+            }
+        }
+        else {
+            for (int w=0; w < numWords; w++) {
+                if (wordEnds[w] > wordStarts[w]) {
+                    addToken(wordStarts[w], wordEnds[w]);
+                }
+            }
+        }
+        return numTokens;
+    }
+    
+    public String getToken(int index) {
+        return tokens[index];
+    }
+    
+    
+    private void splitWords(CharSequence text) {
+        /* Words in upper case (as String.split(" ") after removing the stop characters: trailing empty words are removed) */
+        boolean bSeparator  = nCharGram > 0 && !bKeepEmpty;  /* Character n-grams go across the words */
+        int     length      = text.length();
+        int     wordStart   = 0;
+        boolean bFoundSpace = false;
+        
+        numChars = 0;
+        numWords = 0;
+        for (int i=0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (i < length && c < bStopChar.length && bStopChar[c]) {
+                continue;
+            }
+            if (c==' ' && (bSplit || i==length)) {
+                if (i < length) {
+                    bFoundSpace = true;
+                }
+                addWord(wordStart);
+                if (!bSeparator) {
+                    appendChar(' ');
+                }
+                wordStart = numChars;
+            }
+            else {
+                appendChar(c);  /* Converted to upper case with the whole word (see addWord) */
+            }
+        }
+        
+        /* Trailing empty words are removed, but a text without spaces gives one word (which may be empty) */
+        if (bFoundSpace) {
+            while (numWords > 0 && wordEnds[numWords-1]==wordStarts[numWords-1]) {
+                numWords--;
+            }
+        }
+        numChars = numWords > 0 ? wordEnds[numWords-1] : 0;
+    }
+    
+    
+    private void addWord(int wordStart) {
+        /* Words with other characters than ASCII are converted to upper case as a whole (as String.toUpperCase()), the length can change */
+        boolean bASCII = true;
+        for (int i=wordStart; i < numChars && bASCII; i++) {
+            bASCII = chars[i] < 128 && upperCaseASCII[chars[i]]!=0;
+        }
+        if (bASCII) {
+            for (int i=wordStart; i < numChars; i++) {
+                chars[i] = upperCaseASCII[chars[i]];
+            }
+        } else {
+            String upper = new String(chars, wordStart, numChars - wordStart).toUpperCase();
+            numChars = wordStart;
+            for (int k=0; k < upper.length(); k++) {
+                appendChar(upper.charAt(k));
+            }
+        }
+        if (numWords==wordStarts.length) {
+            wordStarts = Arrays.copyOf(wordStarts, 2 * numWords);
+            wordEnds   = Arrays.copyOf(wordEnds,   2 * numWords);
+        }
+        wordStarts[numWords] = wordStart;
+        wordEnds[numWords]   = numChars;
+        numWords++;
+    }
+    
+    
+    private void appendChar(char c) {
+        if (numChars==chars.length) {
+            chars = Arrays.copyOf(chars, 2 * numChars);
+        }
+        chars[numChars++] = c;
+    }
+    
+    
+    private void addToken(int start, int end) {
+        if (numTokens==tokens.length) {
+            tokens = Arrays.copyOf(tokens, 2 * numTokens);
+        }
+        tokens[numTokens++] = new String(chars, start, end - start);
+    }
+}
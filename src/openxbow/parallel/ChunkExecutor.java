@@ -0,0 +1,106 @@
+/*F************************************************************************
+ * openXBOW - the Passau Open-Source Crossmodal Bag-of-Words Toolkit
+ * Copyright (C) 2016-2020, 
+ *   Maximilian Schmitt & Bjrn Schuller: University of Passau, 
+ *    University of Augsburg.
+ *   Contact: maximilian.schmitt@mailbox.org
+ *  
+ *  This program is free software: you can redistribute it and/or modify 
+ *  it under the terms of the GNU General Public License as published by 
+ *  the Free Software Foundation, either version 3 of the License, or 
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License 
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ***********************************************************************E*/
+
+package openxbow.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+public class ChunkExecutor {
+    /* Runs a task over the index range [0,numItems), split into chunks of a fixed size, on a fork-join pool.                      */
+    /* The chunks depend only on numItems and chunkSize (not on the number of threads) and the results are returned in chunk order, */
+    /* so that any reduction of the results in this order gives the same result with any number of threads.                       */
+    
+    public interface ChunkTask<T> {
+        T compute(int start, int end);  /* Processes the items start (inclusive) to end (exclusive) */
+    }
+    
+    private int          numThreads;
+    private ForkJoinPool pool = null;  /* Not used for one thread */
+    
+    
+    public ChunkExecutor(int numThreads) {
+        this.numThreads = getNumThreads(numThreads);
+        if (this.numThreads > 1) {
+            pool = new ForkJoinPool(this.numThreads);
+        }
+    }
+    
+    
+    public static int getNumThreads(int numThreads) {
+        /* 0 means all available processors */
+        return numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+    
+    public int getNumThreads() {
+        return numThreads;
+    }
+    
+    
+    public <T> List<T> run(int numItems, int chunkSize, final ChunkTask<T> task) {
+        List<T> results = new ArrayList<T>();
+        int     size    = Math.max(1, chunkSize);
+        
+        if (pool==null || numItems <= size) {
+            for (int start=0; start < numItems; start += size) {
+                results.add(task.compute(start, Math.min(start + size, numItems)));
+            }
+            return results;
+        }
+        
+        List<Callable<T>> tasks = new ArrayList<Callable<T>>();
+        for (int start=0; start < numItems; start += size) {
+            final int chunkStart = start;
+            final int chunkEnd   = Math.min(start + size, numItems);
+            tasks.add(new Callable<T>() {
+                public T call() {
+                    return task.compute(chunkStart, chunkEnd);
+                }
+            });
+        }
+        
+        try {
+            for (Future<T> result : pool.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        
+        return results;
+    }
+    
+    
+    public void shutdown() {
+        if (pool!=null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
@@ -21,14 +21,25 @@
 
 package openxbow.unittest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -36,14 +47,24 @@ import org.junit.Test;
 import openxbow.codebooks.Codebook;
 import openxbow.codebooks.CodebookConfig;
 import openxbow.codebooks.CodebookNumeric;
+import openxbow.codebooks.CodebookNumericTrainingSelector;
 import openxbow.codebooks.CodebookText;
+import openxbow.codebooks.CodewordSearch;
+import openxbow.codebooks.CodewordSearchDirect;
+import openxbow.codebooks.CodewordSearchHNSW;
+import openxbow.codebooks.CodewordSearchKDTree;
+import openxbow.codebooks.HNSWGraph;
 import openxbow.codebooks.HyperCodebook;
+import openxbow.io.FeatureStore;
 import openxbow.io.Reader;
 import openxbow.io.Writer;
 import openxbow.main.DataManager;
 import openxbow.main.HyperBag;
+import openxbow.main.OpenXBOW;
 import openxbow.main.Options;
 import openxbow.main.Preprocessor;
+import openxbow.nlp.String2WordVector;
+import openxbow.nlp.Tokenizer;
 
 /* JUnit regression test to check if modifications of the code did not conclude in compatibility problems      */ 
 /*   with previous versions (the most important configurations are checked).                                   */ 
@@ -344,6 +365,90 @@ public class BagOfFeaturesTest {
     }
     
     
+    @Test
+    public void testParsers() {
+        System.out.print("Test: default vs. mmap vs. parallel parser (CRLF, comments, quoted strings, non-numeric entries) ...");
+        
+        /* About 3 MB, so that the parallel parser splits the data into several chunks (at positions within lines) */
+        for (String extension : new String[] {".arff", ".csv"}) {
+            String filename = "tmpparser" + extension;
+            writeParserFixture(filename, 40000);
+            
+            FeatureStore[] stores  = new FeatureStore[3];
+            String[]       parsers = {"default", "mmap", "parallel"};
+            for (int p=0; p < parsers.length; p++) {
+                Reader reader = new Reader(filename);
+                reader.setParser(parsers[p]);
+                reader.setNumThreads(4);
+                reader.readFile();
+                stores[p] = reader.inputData;
+            }
+            deleteTmpFile(filename);
+            
+            try {
+                Assert.assertEquals("Data size " + extension, 40000, stores[0].size());
+                for (int f=0; f < stores[0].size(); f++) {
+                    String label = stores[0].getString(f, 6);
+                    Assert.assertTrue("Class of frame " + f + extension + ": " + label, label.equals("pos") || label.equals("neg"));  /* Text read completely */
+                }
+                for (int p=1; p < parsers.length; p++) {
+                    Assert.assertEquals("Data size " + parsers[p] + extension, stores[0].size(), stores[p].size());
+                    for (int f=0; f < stores[0].size(); f++) {
+                        Assert.assertArrayEquals("Frame " + f + " " + parsers[p] + extension, stores[0].get(f), stores[p].get(f));
+                    }
+                }
+            } catch (AssertionError e) {
+                System.err.println("Error in parsers: " + e);
+            }
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    private void writeParserFixture(String filename, int numFrames) {
+        /* ARFF or CSV file with name, 4 numeric features, text and class; every 3rd line ends with CRLF, ARFF with a comment every 1000 lines; */
+        /* the text contains the separator within quotes, one numeric entry in the middle of the file is not a number                         */
+        boolean       bARFF     = filename.endsWith(".arff");
+        char          separator = bARFF ? ',' : ';';
+        Random        random    = new Random(12);
+        StringBuilder sb        = new StringBuilder();
+        if (bARFF) {
+            sb.append("@relation parser\n\n@attribute name string\n");
+            for (int m=1; m <= 4; m++) {
+                sb.append("@attribute f").append(m).append(" numeric\n");
+            }
+            sb.append("@attribute text string\n@attribute class {pos,neg}\n\n@data\r\n");
+        } else {
+            sb.append("name;f1;f2;f3;f4;text;class\r\n");
+        }
+        
+        String[] texts = {"'so" + separator + " good'", "\"not" + separator + " bad\"", "'fine'", "\"" + separator + "\""};
+        for (int f=0; f < numFrames; f++) {
+            if (bARFF && f % 1000==500) {
+                sb.append("% comment").append(separator).append(" line ").append(f).append('\n');
+            }
+            sb.append("'inst").append(f / 250).append(".wav'");
+            for (int m=0; m < 4; m++) {
+                sb.append(separator);
+                if (f==numFrames / 2 + 17 && m==2) {
+                    sb.append("abc");
+                } else {
+                    sb.append((float) random.nextGaussian() * 100.0f);
+                }
+            }
+            sb.append(separator).append(texts[random.nextInt(texts.length)]);
+            sb.append(separator).append(random.nextBoolean() ? "pos" : "neg");
+            sb.append(f % 3==0 ? "\r\n" : "\n");
+        }
+        
+        try {
+            Files.write(FileSystems.getDefault().getPath(filename), sb.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+    
+    
     @Test
     public void testBag() {
         System.out.print("Test: regression test BoF ...");
@@ -400,6 +505,603 @@ public class BagOfFeaturesTest {
     }
     
     
+    @Test
+    public void testStream() {
+        System.out.print("Test: -stream vs. whole input file with a given codebook ...");
+        
+        /* 1: Hard assignment, one bag per instance; 2: Windowing with labels for each window */
+        String[][] configs = {{"-i", "JUnitTestData/random1.csv", "-l", "JUnitTestData/Labels_random1.csv", "-a", "1"},
+                              {"-i", "JUnitTestData/random2.csv", "-l", "JUnitTestData/Labels_random2.csv", "-t", "1.0", "0.5", "-writeTimeStamp"}};
+        String[]   outputs = {"tmpstream.csv", "tmpstream.arff"};
+        
+        for (int c=0; c < configs.length; c++) {
+            List<String> argsBook   = new ArrayList<String>(Arrays.asList(configs[c]));
+            List<String> argsWhole  = new ArrayList<String>(Arrays.asList(configs[c]));
+            List<String> argsStream = new ArrayList<String>(Arrays.asList(configs[c]));
+            argsBook.addAll(Arrays.asList("-size", "20", "-B", "tmpstreambook.txt"));
+            argsWhole.addAll(Arrays.asList("-b", "tmpstreambook.txt", "-writeName", "-o", "whole_" + outputs[c]));
+            argsStream.addAll(Arrays.asList("-b", "tmpstreambook.txt", "-writeName", "-o", outputs[c], "-stream"));
+            
+            OpenXBOW.main(argsBook.toArray(new String[0]));
+            OpenXBOW.main(argsWhole.toArray(new String[0]));
+            OpenXBOW.main(argsStream.toArray(new String[0]));
+            
+            try {
+                byte[] whole  = Files.readAllBytes(FileSystems.getDefault().getPath("whole_" + outputs[c]));
+                byte[] stream = Files.readAllBytes(FileSystems.getDefault().getPath(outputs[c]));
+                Assert.assertTrue("Output " + outputs[c] + " written", whole.length > 0);
+                Assert.assertEquals("Output " + outputs[c], new String(whole, StandardCharsets.ISO_8859_1), new String(stream, StandardCharsets.ISO_8859_1));
+            } catch (AssertionError | IOException e) {
+                System.err.println("Error in stream: " + e);
+            }
+            deleteTmpFile("tmpstreambook.txt");
+            deleteTmpFile("whole_" + outputs[c]);
+            deleteTmpFile(outputs[c]);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    @Test
+    public void testTokenizer() {
+        System.out.print("Test: Tokenizer vs. split of String2WordVector (punctuation, case, non-ASCII) ...");
+        
+        String[] texts = { "Hello, World! hello world.",
+                           "(Mixed) CASE; text? with*stars",
+                           "  two  spaces  and trailing ",
+                           "stra\u00dfe \u00e9cole na\u00efve \u00c9COLE \u00df",
+                           "\u0131 \u0130 i I \u00fcber \u00dcBER",
+                           "... ;;; !!!",
+                           "single",
+                           " ",
+                           "" };
+        String[] stopChars = { ".,;:()?!*", "" };
+        
+        String2WordVector s2wv = new String2WordVector();
+        
+        try {
+            for (String stop : stopChars) {
+                for (int nGram=1; nGram <= 3; nGram++) {
+                    checkTokenizer(texts, stop, nGram, 0, s2wv);
+                }
+                for (int nCharGram=1; nCharGram <= 3; nCharGram += 2) {
+                    checkTokenizer(texts, stop, 1, nCharGram, s2wv);
+                }
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in Tokenizer: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    private void checkTokenizer(String[] texts, String stopChars, int nGram, int nCharGram, String2WordVector s2wv) {
+        Tokenizer tokenizer = new Tokenizer(stopChars, nGram, nCharGram);
+        for (String text : texts) {
+            String   config    = "'" + text + "' stop='" + stopChars + "' nGram=" + nGram + " nCharGram=" + nCharGram;
+            String[] reference = splitReference(text, stopChars, nGram, nCharGram);
+            String[] wrapped   = s2wv.string2WordVector(text, stopChars, nGram, nCharGram);
+            int      numTokens = tokenizer.tokenize(text);  /* Same tokenizer for all texts (reused buffers) */
+            
+            Assert.assertEquals("Number of tokens " + config, reference.length, numTokens);
+            Assert.assertEquals("Number of words String2WordVector " + config, reference.length, wrapped.length);
+            for (int k=0; k < numTokens; k++) {
+                Assert.assertEquals("Token " + k + " " + config, reference[k], tokenizer.getToken(k));
+                Assert.assertEquals("Word " + k + " String2WordVector " + config, reference[k], wrapped[k]);
+            }
+        }
+    }
+    
+    
+    private String[] splitReference(String str, String stopCharacters, int nGram, int nCharGram) {
+        /* Former implementation of String2WordVector (split at each space) */
+        for (int k=0; k < stopCharacters.length(); k++) {
+            str = str.replace(stopCharacters.substring(k,k+1), "");
+        }
+        String[] wordVector = str.split(" ");
+        for (int k=0; k < wordVector.length; k++) {
+            wordVector[k] = wordVector[k].toUpperCase();
+        }
+        
+        List<String> tokens = new ArrayList<String>();
+        if (nGram > 1 && wordVector.length > 1) {
+            for (int n=1; n <= nGram; n++) {
+                for (int k=0; k < wordVector.length-n+1; k++) {
+                    String strNGram = wordVector[k];
+                    for (int m=1; m <= n-1; m++) {
+                        strNGram = strNGram + " " + wordVector[k+m];
+                    }
+                    tokens.add(strNGram);
+                }
+            }
+        }
+        else if (nCharGram > 0 && wordVector.length > 0) {
+            String allCharacters = String.join("", wordVector);
+            for (int k=0; k + nCharGram <= allCharacters.length(); k++) {
+                tokens.add(allCharacters.substring(k, k+nCharGram));
+            }
+        }
+        else {
+            for (String word : wordVector) {
+                tokens.add(word);
+            }
+        }
+        
+        List<String> nonEmpty = new ArrayList<String>();
+        for (String token : tokens) {
+            if (!token.isEmpty()) {
+                nonEmpty.add(token);
+            }
+        }
+        return nonEmpty.toArray(new String[0]);
+    }
+    
+    
+    @Test
+    public void testTextCodebookThreads() {
+        System.out.print("Test: text codebook with 1 vs. 4 threads (several chunks of frames) ...");
+        
+        /* 10000 frames (chunks of 4096 frames), words with skewed frequencies from a vocabulary of 2000 words */
+        Random        random = new Random(14);
+        StringBuilder sb     = new StringBuilder("@relation text\n\n@attribute name string\n@attribute f1 numeric\n@attribute text string\n\n@data\n");
+        for (int f=0; f < 10000; f++) {
+            sb.append("'inst").append(f / 100).append("',").append(random.nextInt(10)).append(",'");
+            for (int w=0; w < 6; w++) {
+                sb.append(w > 0 ? " " : "").append("w").append((int) Math.floor(Math.pow(random.nextDouble(), 3.0) * 2000));
+            }
+            sb.append("'\n");
+        }
+        try {
+            Files.write(FileSystems.getDefault().getPath("tmptext.arff"), sb.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        Reader reader = new Reader("tmptext.arff","","");
+        reader.readFile();
+        deleteTmpFile("tmptext.arff");
+        
+        /* Reference: sequential count of the words */
+        Map<String,Integer> wordFreq  = new HashMap<String,Integer>();
+        Tokenizer           tokenizer = new Tokenizer("", 2, 0);
+        for (int f=0; f < reader.inputData.size(); f++) {
+            int numTokens = tokenizer.tokenize(reader.inputData.getString(f, 2));
+            for (int k=0; k < numTokens; k++) {
+                String word = tokenizer.getToken(k);
+                wordFreq.put(word, wordFreq.containsKey(word) ? wordFreq.get(word)+1 : 1);
+            }
+        }
+        Set<String> reference = new HashSet<String>();
+        for (Map.Entry<String,Integer> e : wordFreq.entrySet()) {
+            if (e.getValue() >= 3) {
+                reference.add(e.getKey());
+            }
+        }
+        
+        try {
+            /* Exact counting, and with a count-min sketch and a limited vocabulary */
+            for (int mode=0; mode < 2; mode++) {
+                String[][] codebooks = new String[2][];
+                int[]      threads   = {1, 4};
+                for (int t=0; t < threads.length; t++) {
+                    CodebookConfig conf = new CodebookConfig(3,0,"",2,0);
+                    conf.setNumThreads(threads[t]);
+                    if (mode==1) {
+                        conf.setVocabularyCounting(4096, 4, 500);
+                    }
+                    CodebookText book = new CodebookText(conf);
+                    book.generateCodebook(reader);
+                    codebooks[t] = book.getCodebook();
+                }
+                Assert.assertTrue("Codebooks with 1 and 4 threads, mode " + mode, Arrays.equals(codebooks[0], codebooks[1]));
+                if (mode==0) {
+                    Assert.assertEquals("Vocabulary", reference, new HashSet<String>(Arrays.asList(codebooks[0])));
+                } else {
+                    Assert.assertEquals("Size of the limited vocabulary", 500, codebooks[0].length);
+                }
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in text codebook with threads: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    @Test
+    public void testHashedCodebook() {
+        System.out.print("Test: Run with hashed text codebook (save and load) ...");
+        
+        Reader OWReaderARF4 = new Reader("JUnitTestData/testdata4.arff","","");
+        OWReaderARF4.readFile();
+        DataManager DM4 = new DataManager(OWReaderARF4);
+        DM4.generateMappings();
+        
+        /* Text codebook: 16 buckets with sign hash, seed 7 */
+        Options       options   = createMixedOptions(new CodebookConfig(1,0,".,;:()?!*",2,0,16,true,7));
+        HyperCodebook hyperBook = new HyperCodebook(DM4, options);
+        HyperBag      hyperBag  = new HyperBag(DM4, hyperBook, options);
+        hyperBook.generateCodebook();
+        hyperBag.generateBag();
+        float[][] bof1 = hyperBag.getBag().bof;
+        hyperBook.saveHyperCodebook("tmpbook.txt");
+        
+        /* Load into a codebook with the default text configuration (vocabulary) */
+        Options       options2   = createMixedOptions(new CodebookConfig(1,0,"",1,0));
+        HyperCodebook hyperBook2 = new HyperCodebook(DM4, options2);
+        hyperBook2.loadHyperCodebook("tmpbook.txt");
+        deleteTmpFile("tmpbook.txt");
+        
+        HyperBag hyperBag2 = new HyperBag(DM4, hyperBook2, options2);
+        hyperBag2.generateBag();
+        float[][] bof2 = hyperBag2.getBag().bof;
+        
+        try {
+            CodebookText book1 = (CodebookText) hyperBook.getCodebooks().get(0);
+            CodebookText book2 = (CodebookText) hyperBook2.getCodebooks().get(0);
+            
+            Assert.assertTrue("Hashed", book2.isHashed());
+            Assert.assertEquals("Number of buckets", book1.getNumHashBuckets(), book2.getNumHashBuckets());
+            Assert.assertEquals("Sign hash", book1.getHashSign(), book2.getHashSign());
+            Assert.assertEquals("Seed", book1.getHashSeed(), book2.getHashSeed());
+            Assert.assertEquals("Codebook size", 16, book2.size());
+            for (String word : new String[] {"GOOD", "BAD", "NOT GOOD", "\u00e9cole"}) {
+                Assert.assertEquals("Bucket " + word, book1.getIndex(word), book2.getIndex(word));
+                Assert.assertEquals("Sign " + word, book1.getSign(word), book2.getSign(word));
+            }
+            
+            Assert.assertEquals("Num IDs", bof1.length, bof2.length);
+            for (int id=0; id < bof1.length; id++) {
+                Assert.assertEquals("Bag size id=" + id, bof1[id].length, bof2[id].length);
+                for (int k=0; k < bof1[id].length; k++) {
+                    Assert.assertEquals("Bag of Words id=" + id + " k=" + k, bof1[id][k], bof2[id][k], 0.0f);
+                }
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in hashed codebook: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    private Options createMixedOptions(CodebookConfig textConf) {
+        /* Options for testdata4 (text and numeric features) without pre-/postprocessing */
+        Options options           = new Options();
+        options.bLogWeighting     = false;
+        options.bIDFWeighting     = false;
+        options.numAssignments.add(0);
+        options.numAssignments.add(2);
+        options.bRemoveLowEnergy  = false;
+        options.bStandardizeInput = false;
+        options.bNormalizeInput   = false;
+        
+        options.bUnigram.add(false); options.bUnigram.add(false);
+        options.bBigram.add(false); options.bBigram.add(false);
+        options.bTrigram.add(false); options.bTrigram.add(false);
+        options.gmmEncoding.add(0); options.gmmEncoding.add(0);
+        options.gaussianEncoding.add(0.0f); options.gaussianEncoding.add(0.0f);
+        options.offCodewords.add(0.0f); options.offCodewords.add(0.0f);
+        
+        options.cbConfig = new ArrayList<CodebookConfig>();
+        options.cbConfig.add(0, textConf);
+        options.cbConfig.add(1, new CodebookConfig(20,"random",1.0f,false,1.0f,false,10,0));
+        return options;
+    }
+    
+    
+    @Test
+    public void testKDTreeSearch() {
+        System.out.print("Test: kd-tree vs. direct search of the closest codewords (with ties) ...");
+        
+        /* Codewords and frames on a coarse grid, with duplicate codewords, so that there are many equal distances */
+        Random    random      = new Random(10);
+        int       numFeatures = 3;
+        float[][] codebook    = new float[60][numFeatures];
+        for (int j=0; j < 40; j++) {
+            for (int m=0; m < numFeatures; m++) {
+                codebook[j][m] = random.nextInt(5);
+            }
+        }
+        for (int j=40; j < codebook.length; j++) {
+            codebook[j] = codebook[random.nextInt(40)].clone();
+        }
+        float[][] frames = new float[CodewordSearch.TILE_FRAMES][numFeatures];
+        for (int f=0; f < frames.length; f++) {
+            for (int m=0; m < numFeatures; m++) {
+                frames[f][m] = random.nextInt(9) * 0.5f;
+            }
+        }
+        
+        CodewordSearch direct = new CodewordSearchDirect(codebook);
+        CodewordSearch kdTree = new CodewordSearchKDTree(codebook);
+        
+        try {
+            for (int numNearest=1; numNearest <= 5; numNearest += 2) {
+                int[][]   nearestDirect    = new int[frames.length][numNearest];
+                int[][]   nearestKDTree    = new int[frames.length][numNearest];
+                float[][] distancesDirect  = new float[frames.length][numNearest];
+                float[][] distancesKDTree  = new float[frames.length][numNearest];
+                direct.findNearest(frames, frames.length, numNearest, nearestDirect, distancesDirect);
+                kdTree.findNearest(frames, frames.length, numNearest, nearestKDTree, distancesKDTree);
+                
+                for (int f=0; f < frames.length; f++) {
+                    for (int a=0; a < numNearest; a++) {
+                        Assert.assertEquals("Nearest a=" + numNearest + " frame " + f + " rank " + a, nearestDirect[f][a], nearestKDTree[f][a]);
+                        Assert.assertEquals("Distance a=" + numNearest + " frame " + f + " rank " + a, distancesDirect[f][a], distancesKDTree[f][a], 0.0f);
+                    }
+                }
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in kd-tree search: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    @Test
+    public void testHNSWSearch() {
+        System.out.print("Test: HNSW vs. direct search (recall) and reading of the HNSW graph ...");
+        
+        Random    random      = new Random(11);
+        int       numFeatures = 8;
+        float[][] codebook    = new float[2000][numFeatures];
+        float[][] frames      = new float[500][numFeatures];
+        for (float[][] data : new float[][][] {codebook, frames}) {
+            for (int j=0; j < data.length; j++) {
+                for (int m=0; m < numFeatures; m++) {
+                    data[j][m] = (float) random.nextGaussian();
+                }
+            }
+        }
+        
+        int       numNearest       = 5;
+        int[][]   nearestDirect    = new int[frames.length][numNearest];
+        int[][]   nearestHNSW      = new int[frames.length][numNearest];
+        int[][]   nearestLoaded    = new int[frames.length][numNearest];
+        float[][] distancesDirect  = new float[frames.length][numNearest];
+        float[][] distancesHNSW    = new float[frames.length][numNearest];
+        float[][] distancesLoaded  = new float[frames.length][numNearest];
+        
+        HNSWGraph graph = new HNSWGraph(codebook, 16, 200, 10);
+        new CodewordSearchDirect(codebook).findNearest(frames, frames.length, numNearest, nearestDirect, distancesDirect);
+        new CodewordSearchHNSW(graph, codebook, 64).findNearest(frames, frames.length, numNearest, nearestHNSW, distancesHNSW);
+        
+        try {
+            /* Recall of the numNearest closest codewords */
+            int numFound = 0;
+            for (int f=0; f < frames.length; f++) {
+                for (int a=0; a < numNearest; a++) {
+                    for (int b=0; b < numNearest; b++) {
+                        if (nearestHNSW[f][a]==nearestDirect[f][b]) {
+                            numFound++;
+                        }
+                    }
+                }
+            }
+            float recall = (float) numFound / (frames.length * numNearest);
+            Assert.assertTrue("Recall " + recall, recall >= 0.95f);
+            
+            /* The graph read again gives the same results; it is rejected if the codewords or the parameters differ or if it is corrupt */
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            graph.write(new DataOutputStream(bytes));
+            byte[] graphFile = bytes.toByteArray();
+            
+            HNSWGraph graphLoaded = HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphFile)), codebook, 16, 200);
+            Assert.assertNotNull("Graph read", graphLoaded);
+            new CodewordSearchHNSW(graphLoaded, codebook, 64).findNearest(frames, frames.length, numNearest, nearestLoaded, distancesLoaded);
+            for (int f=0; f < frames.length; f++) {
+                Assert.assertArrayEquals("Nearest of the graph read, frame " + f, nearestHNSW[f], nearestLoaded[f]);
+            }
+            
+            float[][] codebookChanged = new float[codebook.length][];
+            for (int j=0; j < codebook.length; j++) {
+                codebookChanged[j] = codebook[j].clone();
+            }
+            codebookChanged[1000][3] += 0.5f;
+            Assert.assertNull("Graph of other codewords", HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphFile)), codebookChanged, 16, 200));
+            Assert.assertNull("Graph with other M", HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphFile)), codebook, 8, 200));
+            Assert.assertNull("Graph with other efConstruction", HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphFile)), codebook, 16, 100));
+            
+            byte[] graphCorrupt = graphFile.clone();
+            graphCorrupt[20] = 0x7f;  /* Entry point (after the number of codewords, the checksum, M and efConstruction) */
+            Assert.assertNull("Graph with invalid entry point", HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphCorrupt)), codebook, 16, 200));
+            graphCorrupt = graphFile.clone();
+            graphCorrupt[24] = 0x7f;  /* Highest layer */
+            Assert.assertNull("Graph with invalid highest layer", HNSWGraph.read(new DataInputStream(new ByteArrayInputStream(graphCorrupt)), codebook, 16, 200));
+        } catch (AssertionError | IOException e) {
+            System.err.println("Error in HNSW search: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    @Test
+    public void testKMeansElkan() {
+        System.out.print("Test: k-means vs. k-means with Elkan's bounds ...");
+        
+        DataManager DM = createClusteredData("tmpkmeans.csv", 3000, 6, 8, 6.0f, 5);
+        
+        try {
+            String[][] methods = {{"kmeans", "kmeans-elkan"}, {"kmeans++", "kmeans++-elkan"}};
+            for (String[] pair : methods) {
+                float[][][] codebooks = new float[2][][];
+                for (int i=0; i < 2; i++) {
+                    CodebookConfig  conf = new CodebookConfig(20,pair[i],1.0f,false,1.0f,false,10,0);
+                    CodebookNumeric book = new CodebookNumeric(conf);
+                    book.generateCodebook(new CodebookNumericTrainingSelector(DM, conf));
+                    codebooks[i] = book.getCodebook();
+                }
+                Assert.assertTrue("Codebooks " + pair[0] + " and " + pair[1], Arrays.deepEquals(codebooks[0], codebooks[1]));
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in k-means with Elkan's bounds: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    @Test
+    public void testNumericNGrams() {
+        System.out.print("Test: codebooks of numeric uni-, bi- and trigrams vs. dense counting ...");
+        
+        int    sizeCodebook   = 7;
+        int    numFrames      = 400;
+        int    numAssignments = 2;
+        Random random         = new Random(13);
+        
+        int[] idOrigInstances = new int[numFrames];
+        for (int f=0; f < numFrames; f++) {
+            idOrigInstances[f] = f / 37;
+        }
+        
+        /* 1: All codewords (with skewed frequencies, so that there are ties and a threshold); 2: Only 3 codewords, fewer n-grams than the size of the codebooks */
+        int[][][] allAssignments = new int[2][numFrames][numAssignments];
+        int[]     used           = {0, 3, 5};
+        for (int f=0; f < numFrames; f++) {
+            for (int a=0; a < numAssignments; a++) {
+                allAssignments[0][f][a] = (int) Math.floor(Math.pow(random.nextDouble(), 2.0) * sizeCodebook);
+                allAssignments[1][f][a] = used[random.nextInt(used.length)];
+            }
+        }
+        int[][] maxSizes = {{4, 15, 40}, {7, 20, 100}};
+        
+        try {
+            for (int t=0; t < allAssignments.length; t++) {
+                CodebookConfig  conf = new CodebookConfig(sizeCodebook,"random",1.0f,false,1.0f,false,10,0,maxSizes[t][0],maxSizes[t][1],maxSizes[t][2]);
+                CodebookNumeric book = new CodebookNumeric(conf);
+                book.setCodebook(new float[sizeCodebook][1]);
+                book.generateNumericGramCodebooks(allAssignments[t], idOrigInstances, true, true, true);
+                
+                int[][][] grams = {book.getUnigrams(), book.getBigrams(), book.getTrigrams()};
+                for (int n=1; n <= 3; n++) {
+                    int[][] reference = countNGramsDense(allAssignments[t], idOrigInstances, sizeCodebook, n, maxSizes[t][n-1]);
+                    Assert.assertTrue("Numeric " + n + "-grams, test " + t, Arrays.deepEquals(reference, grams[n-1]));
+                }
+            }
+        } catch (AssertionError e) {
+            System.err.println("Error in numeric n-grams: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    private int[][] countNGramsDense(int[][] assignments, int[] idOrigInstances, int sizeCodebook, int numGram, int maxSize) {
+        /* Reference: Counts all sizeCodebook^numGram n-grams, selects the first maxSize ones (in the order of their codes) with at least the maxSize-th largest frequency */
+        int   numAssignments = assignments[0].length;
+        int   numCombination = (int) Math.pow(numAssignments, numGram);
+        int[] frequency      = new int[(int) Math.pow(sizeCodebook, numGram)];
+        for (int m=0; m <= assignments.length-numGram; m++) {
+            if (idOrigInstances[m]!=idOrigInstances[m+numGram-1]) {
+                continue;
+            }
+            for (int c=0; c < numCombination; c++) {
+                int code = 0;
+                int rest = c;
+                for (int g=0; g < numGram; g++) {
+                    code  = code * sizeCodebook + assignments[m+g][rest % numAssignments];
+                    rest /= numAssignments;
+                }
+                frequency[code]++;
+            }
+        }
+        
+        int[] sorted = Arrays.copyOf(frequency, frequency.length);
+        Arrays.sort(sorted);
+        int minFrequency = sorted[sorted.length-maxSize];
+        
+        int[][] grams = new int[maxSize][numGram];
+        int     k     = 0;
+        for (int code=0; code < frequency.length && k < maxSize; code++) {
+            if (frequency[code] >= minFrequency) {
+                for (int g=numGram-1, rest=code; g >= 0; g--) {
+                    grams[k][g] = rest % sizeCodebook;
+                    rest       /= sizeCodebook;
+                }
+                k++;
+            }
+        }
+        return grams;
+    }
+    
+    
+    @Test
+    public void testEMHighDimensional() {
+        System.out.print("Test: EM on high-dimensional input and stopping with -emTol ...");
+        
+        /* 5 well separated clusters in 120 dimensions: the likelihoods of all clusters underflow in the linear domain */
+        DataManager DMHigh = createClusteredData("tmpem.csv", 500, 120, 5, 30.0f, 3);
+        /* 5 overlapping clusters in 4 dimensions: EM takes many iterations until the assignments do not change */
+        DataManager DMLow  = createClusteredData("tmpem.csv", 2000, 4, 5, 4.0f, 4);
+        
+        try {
+            CodebookConfig conf = new CodebookConfig(5,"em++",1.0f,false,1.0f,false,10,0);
+            conf.setEM(false, 0.0);
+            CodebookNumeric book = new CodebookNumeric(conf);
+            book.generateCodebook(new CodebookNumericTrainingSelector(DMHigh, conf));
+            
+            /* Each cluster is found by one component (the frames are assigned to the clusters in turn) */
+            float[] mixtures = book.getGMMCodebook().getMixtureWeights();
+            for (int k=0; k < mixtures.length; k++) {
+                Assert.assertEquals("Mixture weight " + k, 0.2f, mixtures[k], 0.01f);
+            }
+            
+            /* Stopping: With tolerance 1, EM stops after the first update, with tolerance 0, when the assignments do not change anymore */
+            double[] tolerances = {0.0, 1E-3, 1.0};
+            int[]    iterations = new int[tolerances.length];
+            for (int t=0; t < tolerances.length; t++) {
+                conf = new CodebookConfig(5,"em++",1.0f,false,1.0f,false,10,0);
+                conf.setEM(false, tolerances[t]);
+                book = new CodebookNumeric(conf);
+                book.generateCodebook(new CodebookNumericTrainingSelector(DMLow, conf));
+                iterations[t] = book.getGMMCodebook().getNumIterations();
+            }
+            Assert.assertEquals("Iterations with tolerance 1", 2, iterations[2]);
+            Assert.assertTrue("Iterations with tolerance 1E-3 (" + iterations[1] + ") less than without tolerance (" + iterations[0] + ")", iterations[1] < iterations[0]);
+            Assert.assertTrue("Iterations with tolerance 1E-3 (" + iterations[1] + ") more than with tolerance 1", iterations[1] > iterations[2]);
+        } catch (AssertionError e) {
+            System.err.println("Error in EM: " + e);
+        }
+        System.out.println(" finished!");
+    }
+    
+    
+    private DataManager createClusteredData(String filename, int numFrames, int numFeatures, int numClusters, float distance, long seed) {
+        /* Writes frames from numClusters Gaussian clusters (unit variance, centres uniformly in [0,distance)) to a temporary CSV file and reads it; */
+        /* frame f belongs to cluster f % numClusters, every 100 frames form one instance                                                         */
+        Random    random  = new Random(seed);
+        float[][] centres = new float[numClusters][numFeatures];
+        for (int k=0; k < numClusters; k++) {
+            for (int m=0; m < numFeatures; m++) {
+                centres[k][m] = random.nextFloat() * distance;
+            }
+        }
+        
+        StringBuilder sb = new StringBuilder("name");
+        for (int m=0; m < numFeatures; m++) {
+            sb.append(";f").append(m);
+        }
+        sb.append('\n');
+        for (int f=0; f < numFrames; f++) {
+            sb.append("inst").append(f / 100).append(".wav");
+            for (int m=0; m < numFeatures; m++) {
+                sb.append(';').append(centres[f % numClusters][m] + (float) random.nextGaussian());
+            }
+            sb.append('\n');
+        }
+        
+        try {
+            Files.write(FileSystems.getDefault().getPath(filename), sb.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        Reader reader = new Reader(filename);
+        reader.readFile();
+        deleteTmpFile(filename);
+        
+        DataManager DM = new DataManager(reader);
+        DM.generateMappings();
+        return DM;
+    }
+    
+    
     private void deleteTmpFile(String filename) {
         Path path = null;
         try { /* Delete temporary files */